@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -20,11 +22,33 @@ import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
 
+    /** A trailing LIMIT clause, which Zql does not parse */
+    private static final Pattern LIMIT_CLAUSE =
+            Pattern.compile("(?is)^(.*\\S)\\s+LIMIT\\s+(\\d{1,9})\\s*(;?)\\s*$");
+
+    /** The LIMIT of the statement being processed, or -1 if it has none */
+    private int limit = -1;
+
+    /**
+     * Removes a trailing LIMIT clause from a statement, remembering its
+     * value in {@link #limit}, so that Zql can parse the rest.
+     */
+    String stripLimit(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches()) {
+            limit = -1;
+            return s;
+        }
+        limit = Integer.parseInt(m.group(2));
+        return m.group(1) + m.group(3);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -258,18 +282,15 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -284,6 +305,8 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.setLimit(limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -425,7 +448,7 @@ public class Parser {
 
     public void handleTransactStatement(ZTransactStmt s)
             throws IOException,
-            simpledb.ParsingException {
+            simpledb.ParsingException, TransactionAbortedException {
         switch (s.getStmtType()) {
             case "COMMIT":
                 if (curtrans == null)
@@ -452,8 +475,9 @@ public class Parser {
                 if (curtrans != null)
                     throw new ParsingException(
                             "Can't start new transactions until current transaction has been committed or rolledback.");
-                curtrans = new Transaction();
-                curtrans.start();
+                Transaction t = new Transaction();
+                t.start();
+                curtrans = t;
                 inUserTrans = true;
                 System.out.println("Started a new transaction tid = "
                         + curtrans.getId().getId());
@@ -465,12 +489,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.setLimit(limit);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -490,10 +517,23 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
-        processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
+        processStatement(new ByteArrayInputStream(stripLimit(s).getBytes(StandardCharsets.UTF_8)));
     }
 
     public void processNextStatement(InputStream is) {
+        ByteArrayOutputStream statement = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        try {
+            for (int n = is.read(buf); n != -1; n = is.read(buf))
+                statement.write(buf, 0, n);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        processNextStatement(new String(statement.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private void processStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
@@ -503,8 +543,9 @@ public class Parser {
                 handleTransactStatement((ZTransactStmt) s);
             else {
                 if (!this.inUserTrans) {
-                    curtrans = new Transaction();
-                    curtrans.start();
+                    Transaction t = new Transaction();
+                    t.start();
+                    curtrans = t;
                     System.out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
                 }
@@ -561,6 +602,8 @@ public class Parser {
                     .println("Invalid SQL expression: \n \t" + e.getMessage());
         } catch (ParseException | TokenMgrError e) {
             System.out.println("Invalid SQL expression: \n \t " + e);
+        } catch (TransactionAbortedException e) {
+            System.out.println("Transaction could not start: too many transactions are running");
         }
     }
 
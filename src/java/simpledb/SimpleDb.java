@@ -7,6 +7,10 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SimpleDb {
     public static void main (String[] args)
@@ -15,7 +19,7 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    if (args.length < 3 || args.length > 6) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -24,6 +28,9 @@ public class SimpleDb {
                     int numOfAttributes = Integer.parseInt(args[2]);
                     Type[] ts = new Type[numOfAttributes];
                     char fieldSeparator = ',';
+                    HeapFile.Layout layout = HeapFile.Layout.ROW;
+                    boolean compress = false;
+                    List<Integer> dictFields = new ArrayList<>();
 
                     if (args.length == 3)
                         for (int i = 0; i < numOfAttributes; i++)
@@ -41,17 +48,54 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
-                            else {
+                            else if (s.equalsIgnoreCase("dict")) {
+                                // a dictionary-encoded string column
+                                dictFields.add(index);
+                                ts[index++] = Type.STRING_TYPE;
+                            } else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
+                        if (args.length == 6) {
+                            // comma separated table options
+                            for (String option : args[5].split(",")) {
+                                if (option.equalsIgnoreCase("pax"))
+                                    layout = HeapFile.Layout.PAX;
+                                else if (option.equalsIgnoreCase("compressed"))
+                                    compress = true;
+                                else {
+                                    System.err.println("Unknown table option " + option);
+                                    return;
+                                }
+                            }
+                        }
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    int[] dictAr = new int[dictFields.size()];
+                    for (int i = 0; i < dictAr.length; i++)
+                        dictAr[i] = dictFields.get(i);
+                    if (compress) {
+                        File raw = File.createTempFile("convert", ".dat");
+                        try {
+                            HeapFileEncoder.convertParallel(sourceTxtFile, raw,
+                                    BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator, layout, dictAr);
+                            CompressedPageFile.compress(raw, targetDatFile,
+                                    BufferPool.getPageSize(), BufferPool.getPageSize());
+                            File dict = StringDictionary.sideFile(raw);
+                            if (dict.exists())
+                                Files.move(dict.toPath(), StringDictionary.sideFile(targetDatFile).toPath(),
+                                        StandardCopyOption.REPLACE_EXISTING);
+                        } finally {
+                            raw.delete();
+                            ZoneMap.sideFile(raw).delete();
+                        }
+                    } else {
+                        HeapFileEncoder.convertParallel(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator, layout, dictAr);
+                    }
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
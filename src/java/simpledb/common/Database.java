@@ -1,7 +1,9 @@
 package simpledb.common;
 
+import simpledb.execution.MemoryManager;
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.transaction.AdmissionController;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -20,6 +22,8 @@ public class Database {
     private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final MemoryManager _memoryManager;
+    private final AdmissionController _admissionController;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -27,6 +31,9 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _memoryManager = new MemoryManager(MemoryManager.DEFAULT_BYTES);
+        _admissionController = new AdmissionController(AdmissionController.DEFAULT_TRANSACTIONS,
+                AdmissionController.DEFAULT_OLTP_QUERIES, AdmissionController.DEFAULT_ANALYTIC_QUERIES);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -53,6 +60,16 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /** Return the query memory manager of the static Database instance */
+    public static MemoryManager getMemoryManager() {
+        return _instance.get()._memoryManager;
+    }
+
+    /** Return the admission controller of the static Database instance */
+    public static AdmissionController getAdmissionController() {
+        return _instance.get()._admissionController;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
@@ -70,6 +87,39 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /**
+     * Method used for testing -- create a new memory manager with the given
+     * capacity and return it
+     */
+    public static MemoryManager resetMemoryManager(long bytes) {
+        try {
+            java.lang.reflect.Field memoryManagerF = Database.class.getDeclaredField("_memoryManager");
+            memoryManagerF.setAccessible(true);
+            memoryManagerF.set(_instance.get(), new MemoryManager(bytes));
+        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
+            e.printStackTrace();
+        }
+        return _instance.get()._memoryManager;
+    }
+
+    /**
+     * Create a new admission controller with the given limits and return it.
+     * Transactions and queries already admitted by the old one are not
+     * counted against the new limits.
+     */
+    public static AdmissionController resetAdmissionController(int maxTransactions, int maxOltpQueries,
+                                                               int maxAnalyticQueries) {
+        try {
+            java.lang.reflect.Field admissionF = Database.class.getDeclaredField("_admissionController");
+            admissionF.setAccessible(true);
+            admissionF.set(_instance.get(),
+                    new AdmissionController(maxTransactions, maxOltpQueries, maxAnalyticQueries));
+        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
+            e.printStackTrace();
+        }
+        return _instance.get()._admissionController;
+    }
+
     // reset the database, used for unit tests only.
     public static void reset() {
         _instance.set(new Database());
@@ -1,18 +1,34 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.PaxColumnIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * When the child is a chain of filters and projections over a scan, the
+ * chain is fused into a {@link Pipeline} that feeds the aggregator
+ * directly. Given a fork-join pool, such an aggregate over a scan of a
+ * HeapFile reads the table in parallel: the pages are split into ranges, a
+ * task on the pool runs the pipeline over each range into its own partial
+ * {@link Aggregator}, and the partials are then merged into the result. AVG
+ * is computed from partial SUM_COUNT sums and counts, the sums carried at
+ * full width, and COUNT by summing partial counts.
  */
 public class Aggregate extends Operator {
 
@@ -24,6 +40,8 @@ public class Aggregate extends Operator {
     private Aggregator.Op aop;
     private Aggregator aggregator;
     private OpIterator opIterator;
+    private transient final ForkJoinPool pool;
+    private transient int partials;
     /**
      * Constructor.
      * <p>
@@ -38,7 +56,22 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-        // some code goes here
+        this(child, afield, gfield, aop, null);
+    }
+
+    /**
+     * Constructor for an aggregate that may read its child in parallel.
+     *
+     * @param child  The OpIterator that is feeding us tuples.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use
+     * @param pool   the pool on which to aggregate page ranges of a scanned
+     *               HeapFile, or null to read the child serially
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, ForkJoinPool pool) {
+        this.pool=pool;
         this.child=child;
         this.afield=afield;
         this.gfield=gfield;
@@ -114,15 +147,194 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
-        child.open();
-        while (child.hasNext()){
-            aggregator.mergeTupleIntoGroup(child.next());
+        partials=0;
+        grant(aggregator, "Aggregate");
+        Pipeline pipeline = Pipeline.compile(child);
+        if (canSplit(pipeline)) {
+            mergeParallel(pipeline);
+        } else if (canReadColumns()) {
+            mergeColumns((SeqScan) child);
+        } else if (pipeline != null) {
+            pipeline.run(aggregator::mergeTupleIntoGroup);
+        } else {
+            child.open();
+            while (child.hasNext()){
+                aggregator.mergeTupleIntoGroup(child.next());
+            }
+            child.close();
         }
-        child.close();
         this.opIterator=aggregator.iterator();
         opIterator.open();
     }
 
+    /**
+     * @return true if the child is a scan of a PAX table without a runtime
+     *         filter and every field the aggregate needs is an INT field, so
+     *         that only those columns have to be read.
+     */
+    private boolean canReadColumns() {
+        if (!(child instanceof SeqScan) || !((SeqScan) child).isColumnar()
+                || ((SeqScan) child).hasRuntimeFilter() || aop == Aggregator.Op.SC_AVG)
+            return false;
+        TupleDesc td = child.getTupleDesc();
+        return td.getFieldType(afield) == Type.INT_TYPE
+                && (gfield == -1 || td.getFieldType(gfield) == Type.INT_TYPE);
+    }
+
+    /**
+     * @return the number of partial aggregates merged into the result the
+     *         last time the aggregate was opened, 0 if the child was read
+     *         serially
+     */
+    public int partialAggregates() {
+        return partials;
+    }
+
+    /**
+     * @return true if there is a pool to read the child with and the child
+     *         is a pipeline over a scan of a whole HeapFile
+     */
+    private boolean canSplit(Pipeline pipeline) {
+        if (pool == null || pipeline == null)
+            return false;
+        SeqScan scan = pipeline.getScan();
+        return scan.heapPages() > 0 && scan.getStartPage() == 0 && scan.getEndPage() == Integer.MAX_VALUE
+                && aop != Aggregator.Op.SUM_COUNT && aop != Aggregator.Op.SC_AVG;
+    }
+
+    private static Aggregator newAggregator(TupleDesc td, int afield, int gfield, Aggregator.Op aop) {
+        Type groupType = gfield == -1 ? null : td.getFieldType(gfield);
+        if (td.getFieldType(afield) == Type.INT_TYPE)
+            return new IntegerAggregator(gfield, groupType, afield, aop);
+        return new StringAggregator(gfield, groupType, afield, aop);
+    }
+
+    /**
+     * Gives an IntegerAggregator a new grant of the memory manager to
+     * reserve its groups against, closing the one it had.
+     */
+    private static void grant(Aggregator aggregator, String owner) {
+        if (!(aggregator instanceof IntegerAggregator))
+            return;
+        IntegerAggregator agg = (IntegerAggregator) aggregator;
+        if (agg.getMemoryGrant() != null)
+            agg.getMemoryGrant().close();
+        agg.setMemoryGrant(Database.getMemoryManager().open(owner));
+    }
+
+    /**
+     * Deletes the spill files of an IntegerAggregator and closes its grant.
+     */
+    private static void release(Aggregator aggregator) {
+        if (!(aggregator instanceof IntegerAggregator))
+            return;
+        IntegerAggregator agg = (IntegerAggregator) aggregator;
+        agg.deleteSpillFiles();
+        if (agg.getMemoryGrant() != null)
+            agg.getMemoryGrant().close();
+    }
+
+    /**
+     * Runs the pipeline over page ranges of the scanned table on the pool,
+     * then merges the partial aggregates into the aggregator. The partials
+     * are (group, aggregate) tuples, or for AVG (group, sum high, sum low,
+     * count) tuples.
+     */
+    private void mergeParallel(Pipeline pipeline) throws DbException, TransactionAbortedException {
+        SeqScan scan = pipeline.getScan();
+        TupleDesc td = child.getTupleDesc();
+        Aggregator.Op partialOp = aop == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aop;
+        int pages = scan.heapPages();
+        int ranges = Math.min(pages, pool.getParallelism() * 4);
+        List<ForkJoinTask<Aggregator>> tasks = new ArrayList<>();
+        int merged = 0;
+        try {
+            for (int i = 0; i < ranges; i++) {
+                final int start = (int) ((long) pages * i / ranges);
+                final int end = (int) ((long) pages * (i + 1) / ranges);
+                tasks.add(pool.submit(() -> {
+                    Aggregator partial = newAggregator(td, afield, gfield, partialOp);
+                    grant(partial, "Aggregate partial");
+                    try {
+                        pipeline.run(scan.pageRangeIterator(start, end), partial::mergeTupleIntoGroup);
+                    } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                        release(partial);
+                        throw e;
+                    }
+                    return partial;
+                }));
+            }
+
+            Aggregator.Op mergeOp;
+            switch (aop) {
+                case COUNT:
+                    mergeOp = Aggregator.Op.SUM;
+                    break;
+                case AVG:
+                    mergeOp = Aggregator.Op.SC_AVG;
+                    break;
+                default:
+                    mergeOp = aop;
+            }
+            Type groupType = gfield == -1 ? null : td.getFieldType(gfield);
+            release(aggregator);
+            aggregator = gfield == -1
+                    ? new IntegerAggregator(Aggregator.NO_GROUPING, null, 0, mergeOp)
+                    : new IntegerAggregator(0, groupType, 1, mergeOp);
+            grant(aggregator, "Aggregate");
+            for (ForkJoinTask<Aggregator> task : tasks) {
+                Aggregator partial = await(task);
+                OpIterator it = partial.iterator();
+                it.open();
+                while (it.hasNext())
+                    aggregator.mergeTupleIntoGroup(it.next());
+                it.close();
+                release(partial);
+                merged++;
+                partials++;
+            }
+        } finally {
+            for (ForkJoinTask<Aggregator> task : tasks.subList(merged, tasks.size())) {
+                task.cancel(true);
+                if (task.isDone() && !task.isCompletedAbnormally())
+                    release(task.join());
+            }
+        }
+    }
+
+    private static Aggregator await(ForkJoinTask<Aggregator> task) throws DbException, TransactionAbortedException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while aggregating");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DbException)
+                throw (DbException) e.getCause();
+            if (e.getCause() instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e.getCause();
+            throw new DbException("could not aggregate: " + e.getCause());
+        }
+    }
+
+    /**
+     * Feeds the aggregator from the aggregate and group-by columns of the
+     * scanned pages only, value by value.
+     */
+    private void mergeColumns(SeqScan scan) throws DbException, TransactionAbortedException {
+        int[] fields = gfield == -1 ? new int[]{afield} : new int[]{afield, gfield};
+        IntegerAggregator agg = (IntegerAggregator) aggregator;
+        PaxColumnIterator it = scan.columnIterator(fields);
+        it.open();
+        while (it.nextPage()) {
+            int[] avalues = it.column(0);
+            int[] gvalues = gfield == -1 ? null : it.column(1);
+            for (int i = 0; i < it.count(); i++)
+                agg.mergeIntoGroup(gvalues == null ? 0 : gvalues[i], avalues[i]);
+        }
+        it.close();
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -163,6 +375,7 @@ public class Aggregate extends Operator {
         // some code goes here
         opIterator.close();
         super.close();
+        release(aggregator);
         opIterator=null;
         aggregator=null;
     }
@@ -0,0 +1,256 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BatchAggregate is the batch implementation of {@link Aggregate} for the
+ * MIN, MAX, SUM, AVG and COUNT operators. Every group is given a dense slot
+ * number, and the running aggregate of each slot is kept in long arrays, so
+ * that the inner loop over a batch neither allocates nor boxes. INT group
+ * values are mapped to slots with an open-addressing table over an int
+ * array; other group values use a HashMap.
+ * <p>
+ * Results are computed as by {@link IntegerAggregator}: AVG is the integer
+ * quotient of the sum and the count. The output schema is also the same:
+ * (groupValue, aggregateValue), or just (aggregateValue) without grouping.
+ * As there, an empty input without grouping produces one row of 0 for COUNT,
+ * and no row for the other aggregates.
+ */
+public class BatchAggregate extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient int numGroups;
+    private transient long[] values;
+    private transient long[] counts;
+    private transient int[] groupKeys;
+    private transient Field[] groupFields;
+    private transient int[] table;
+    private transient Map<Field, Integer> fieldSlots;
+    private transient TupleBatch out;
+    private transient int emitted;
+
+    /**
+     * @param child the child operator
+     * @param afield the field to aggregate
+     * @param gfield the field to group by, or {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator
+     * @throws UnsupportedOperationException for SUM_COUNT and SC_AVG
+     * @throws IllegalArgumentException for operators other than COUNT over a
+     *         non-INT field
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+            throw new UnsupportedOperationException("unsupported aggregate operator " + aop);
+        TupleDesc childtd = child.getTupleDesc();
+        if (childtd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported over " + childtd.getFieldType(afield));
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateValue"});
+        else
+            td = new TupleDesc(new Type[]{childtd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{"groupValue", "aggregateValue"});
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        numGroups = 0;
+        values = new long[16];
+        counts = new long[16];
+        groupKeys = new int[16];
+        groupFields = new Field[16];
+        table = new int[64];
+        Arrays.fill(table, -1);
+        fieldSlots = new HashMap<>();
+        child.open();
+        while (child.hasNext())
+            merge(child.next());
+        child.close();
+        if (gfield == Aggregator.NO_GROUPING && numGroups == 0)
+            newSlot();
+        out = new TupleBatch(td);
+        emitted = 0;
+        super.open();
+    }
+
+    /**
+     * Folds one batch into the running aggregates.
+     */
+    private void merge(TupleBatch batch) {
+        int n = batch.size();
+        int[] slots = new int[n];
+        if (gfield == Aggregator.NO_GROUPING) {
+            if (numGroups == 0)
+                newSlot();
+        } else if (batch.isInt(gfield)) {
+            int[] g = batch.ints(gfield);
+            for (int i = 0; i < n; i++)
+                slots[i] = slotOf(g[i]);
+        } else {
+            Field[] g = batch.fields(gfield);
+            for (int i = 0; i < n; i++)
+                slots[i] = slotOf(g[i]);
+        }
+
+        long[] values = this.values, counts = this.counts;
+        if (aop == Aggregator.Op.COUNT) {
+            for (int i = 0; i < n; i++)
+                counts[slots[i]]++;
+            return;
+        }
+        int[] a = batch.ints(afield);
+        switch (aop) {
+            case MIN:
+                for (int i = 0; i < n; i++) {
+                    int s = slots[i];
+                    if (counts[s]++ == 0 || a[i] < values[s])
+                        values[s] = a[i];
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < n; i++) {
+                    int s = slots[i];
+                    if (counts[s]++ == 0 || a[i] > values[s])
+                        values[s] = a[i];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    int s = slots[i];
+                    values[s] += a[i];
+                    counts[s]++;
+                }
+                break;
+        }
+    }
+
+    private int newSlot() {
+        if (numGroups == values.length) {
+            int capacity = numGroups * 2;
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            groupKeys = Arrays.copyOf(groupKeys, capacity);
+            groupFields = Arrays.copyOf(groupFields, capacity);
+        }
+        return numGroups++;
+    }
+
+    /**
+     * @return the slot of INT group value g, adding it if it is new
+     */
+    private int slotOf(int g) {
+        int mask = table.length - 1;
+        int h = g * 0x9E3779B9;
+        for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+            int s = table[i];
+            if (s == -1) {
+                s = newSlot();
+                groupKeys[s] = g;
+                table[i] = s;
+                if (numGroups * 2 > table.length)
+                    rehash();
+                return s;
+            }
+            if (groupKeys[s] == g)
+                return s;
+        }
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int s = 0; s < numGroups; s++) {
+            int h = groupKeys[s] * 0x9E3779B9;
+            int i = (h ^ (h >>> 16)) & mask;
+            while (table[i] != -1)
+                i = (i + 1) & mask;
+            table[i] = s;
+        }
+    }
+
+    /**
+     * @return the slot of group value g, adding it if it is new
+     */
+    private int slotOf(Field g) {
+        Integer s = fieldSlots.get(g);
+        if (s == null) {
+            s = newSlot();
+            groupFields[s] = g;
+            fieldSlots.put(g, s);
+        }
+        return s;
+    }
+
+    private int result(int slot) {
+        switch (aop) {
+            case COUNT:
+                return (int) counts[slot];
+            case AVG:
+                return (int) (values[slot] / counts[slot]);
+            default:
+                return (int) values[slot];
+        }
+    }
+
+    protected TupleBatch fetchNext() throws DbException, TransactionAbortedException {
+        out.clear();
+        int size = 0;
+        int aggCol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int[] agg = out.ints(aggCol);
+        while (size < out.capacity() && emitted < numGroups) {
+            // the group without grouping has a result for no rows only for
+            // COUNT
+            if (counts[emitted] == 0 && !IntegerAggregator.definedOnEmpty(aop)) {
+                emitted++;
+                continue;
+            }
+            if (aggCol == 1) {
+                if (out.isInt(0))
+                    out.ints(0)[size] = groupKeys[emitted];
+                else
+                    out.fields(0)[size] = groupFields[emitted];
+            }
+            agg[size++] = result(emitted++);
+        }
+        out.setSize(size);
+        return size > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        emitted = 0;
+    }
+
+    public void close() {
+        super.close();
+        values = null;
+        counts = null;
+        groupKeys = null;
+        groupFields = null;
+        table = null;
+        fieldSlots = null;
+        out = null;
+    }
+}
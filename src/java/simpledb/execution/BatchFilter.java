@@ -0,0 +1,126 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch implementation of {@link Filter}. For an INT
+ * field the comparison is chosen once per batch and applied in a plain loop
+ * over the int vector; other fields are compared with
+ * {@link Field#compare}. The rows that pass are compacted in place in the
+ * child's batch.
+ */
+public class BatchFilter extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private BatchIterator child;
+    private transient int[] sel;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p the predicate to filter rows with
+     * @param child the child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        sel = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            TupleBatch batch = child.next();
+            if (sel == null || sel.length < batch.size())
+                sel = new int[batch.capacity()];
+            int n;
+            if (batch.isInt(p.getField()))
+                n = select(batch.ints(p.getField()), batch.size(), ((IntField) p.getOperand()).getValue());
+            else
+                n = select(batch.fields(p.getField()), batch.size());
+            if (n > 0) {
+                batch.retain(sel, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the indexes of the rows of v satisfying the predicate in sel.
+     *
+     * @return the number of rows selected
+     */
+    private int select(int[] v, int size, int c) {
+        int[] sel = this.sel;
+        int n = 0;
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < size; i++)
+                    if (v[i] == c) sel[n++] = i;
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < size; i++)
+                    if (v[i] != c) sel[n++] = i;
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < size; i++)
+                    if (v[i] > c) sel[n++] = i;
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < size; i++)
+                    if (v[i] >= c) sel[n++] = i;
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < size; i++)
+                    if (v[i] < c) sel[n++] = i;
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < size; i++)
+                    if (v[i] <= c) sel[n++] = i;
+                break;
+        }
+        return n;
+    }
+
+    private int select(Field[] v, int size) {
+        Predicate.Op op = p.getOp();
+        Field operand = p.getOperand();
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (v[i].compare(op, operand))
+                sel[n++] = i;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * BatchHashEquiJoin is the batch implementation of {@link HashEquiJoin}.
+ * The left child is read into one columnar batch and indexed by a chained
+ * hash table kept in two int arrays: <code>heads</code> holds the first row
+ * of each bucket and <code>chain</code> the next row of the same bucket.
+ * Batches of the right child then probe the table. As with HashEquiJoin,
+ * output rows hold the fields of the left row followed by those of the
+ * right row.
+ */
+public class BatchHashEquiJoin extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int leftFields;
+
+    private transient TupleBatch build;
+    private transient int[] heads;
+    private transient int[] chain;
+    private transient TupleBatch out;
+    private transient TupleBatch probe;
+    private transient int probeRow;
+    private transient int match;
+
+    /**
+     * @param p the predicate to join on; its operator must be EQUALS
+     * @param child1 the left (build) side
+     * @param child2 the right (probe) side
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins require an equality predicate");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.leftFields = child1.getTupleDesc().numFields();
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        buildTable();
+        out = new TupleBatch(comboTD);
+        probe = null;
+        match = -1;
+        super.open();
+    }
+
+    /**
+     * Reads the whole left child and builds the hash table over it.
+     */
+    private void buildTable() throws DbException, TransactionAbortedException {
+        build = new TupleBatch(child1.getTupleDesc());
+        while (child1.hasNext())
+            build.appendAll(child1.next());
+        int n = build.size();
+        int buckets = Integer.highestOneBit(Math.max(n, 1) * 2 - 1) << 1;
+        heads = new int[buckets];
+        Arrays.fill(heads, -1);
+        chain = new int[n];
+        int f = pred.getField1();
+        // insert in reverse so that chains list rows in input order
+        for (int i = n - 1; i >= 0; i--) {
+            int b = bucket(build, f, i);
+            chain[i] = heads[b];
+            heads[b] = i;
+        }
+    }
+
+    private int bucket(TupleBatch batch, int field, int row) {
+        int h;
+        if (batch.isInt(field))
+            h = batch.ints(field)[row] * 0x9E3779B9;
+        else
+            h = batch.fields(field)[row].hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (heads.length - 1);
+    }
+
+    private boolean matches(int buildRow, int probeRow) {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        if (build.isInt(f1))
+            return build.ints(f1)[buildRow] == probe.ints(f2)[probeRow];
+        Field a = build.fields(f1)[buildRow];
+        return a.equals(probe.fields(f2)[probeRow]);
+    }
+
+    /**
+     * Fills the output batch with joined rows. The probe position (the
+     * current right row and the next candidate left row in its chain) is
+     * kept across calls, so a right row with many matches may span batches.
+     */
+    protected TupleBatch fetchNext() throws DbException, TransactionAbortedException {
+        out.clear();
+        int size = 0;
+        while (size < out.capacity()) {
+            if (match != -1) {
+                if (matches(match, probeRow)) {
+                    build.copyRow(match, out, size, 0);
+                    probe.copyRow(probeRow, out, size, leftFields);
+                    size++;
+                }
+                match = chain[match];
+                continue;
+            }
+            if (probe == null || ++probeRow >= probe.size()) {
+                if (build.size() == 0 || !child2.hasNext())
+                    break;
+                probe = child2.next();
+                probeRow = 0;
+            }
+            match = heads[bucket(probe, pred.getField2(), probeRow)];
+        }
+        out.setSize(size);
+        return size > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        child2.rewind();
+        probe = null;
+        match = -1;
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        build = null;
+        heads = null;
+        chain = null;
+        out = null;
+        probe = null;
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link OpIterator}:
+ * instead of one Tuple per call, next() returns a {@link TupleBatch} of many
+ * rows stored column by column.
+ * <p>
+ * The batch returned by next() belongs to the iterator, which may reuse it
+ * for the following call; callers that need the rows for longer must copy
+ * them. Returned batches are never empty.
+ * <p>
+ * Batch and row operators can be mixed in a plan with {@link RowToBatch}
+ * and {@link BatchToRow}.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     *
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return true if the iterator has more batches.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    boolean hasNext() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next non-empty batch from the operator.
+     *
+     * @return the next batch in the iteration.
+     * @throws NoSuchElementException if there are no more batches.
+     * @throws IllegalStateException  If the iterator has not been opened
+     */
+    TupleBatch next() throws DbException, TransactionAbortedException, NoSuchElementException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException           when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the returned batches
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    void close();
+}
@@ -0,0 +1,62 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchProject is the batch implementation of {@link Project}. Projecting
+ * a batch copies no values: the returned batch shares the vectors of the
+ * projected fields with the child's batch.
+ */
+public class BatchProject extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final TupleDesc td;
+    private BatchIterator child;
+
+    /**
+     * @param fields the indexes of the child's fields to keep, in output order
+     * @param child the child operator
+     */
+    public BatchProject(int[] fields, BatchIterator child) {
+        this.fields = fields.clone();
+        this.child = child;
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNext() throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        return child.next().project(fields, td);
+    }
+}
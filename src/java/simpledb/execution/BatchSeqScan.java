@@ -0,0 +1,122 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.PaxColumnIterator;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BatchSeqScan is the batch implementation of a sequential scan. It reads
+ * the tuples of a table in storage order and returns them in batches of
+ * {@link TupleBatch#DEFAULT_CAPACITY} rows.
+ * <p>
+ * When the table is stored in the PAX layout and has only INT fields, the
+ * columns are copied from the pages straight into the batch vectors
+ * without building Tuple objects.
+ */
+public class BatchSeqScan extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SeqScan scan;
+    private final int[] allFields;
+    private transient TupleBatch batch;
+    private transient PaxColumnIterator columns;
+    private transient int pos;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table, as for {@link SeqScan}
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this.scan = new SeqScan(tid, tableid, tableAlias);
+        TupleDesc td = scan.getTupleDesc();
+        boolean allInts = true;
+        for (int i = 0; i < td.numFields(); i++)
+            allInts &= td.getFieldType(i) == Type.INT_TYPE;
+        if (allInts && scan.isColumnar()) {
+            allFields = new int[td.numFields()];
+            for (int i = 0; i < allFields.length; i++)
+                allFields[i] = i;
+        } else {
+            allFields = null;
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(getTupleDesc());
+        if (allFields != null) {
+            columns = scan.columnIterator(allFields);
+            columns.open();
+            pos = 0;
+        } else {
+            scan.open();
+        }
+        super.open();
+    }
+
+    protected TupleBatch fetchNext() throws DbException, TransactionAbortedException {
+        batch.clear();
+        if (columns != null)
+            fillFromColumns();
+        else {
+            while (!batch.isFull() && scan.hasNext())
+                batch.add(scan.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    /**
+     * Copies column values from PAX pages into the batch until it is full or
+     * the table is exhausted. A page may span several batches.
+     */
+    private void fillFromColumns() throws DbException, TransactionAbortedException {
+        int size = 0;
+        while (size < batch.capacity()) {
+            if (pos == columns.count()) {
+                if (!columns.nextPage())
+                    break;
+                pos = 0;
+                continue;
+            }
+            int n = Math.min(columns.count() - pos, batch.capacity() - size);
+            for (int i = 0; i < allFields.length; i++)
+                System.arraycopy(columns.column(i), pos, batch.ints(i), size, n);
+            pos += n;
+            size += n;
+        }
+        batch.setSize(size);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        if (columns != null) {
+            columns.close();
+            columns.open();
+            pos = 0;
+        } else {
+            scan.rewind();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (columns != null) {
+            columns.close();
+            columns = null;
+        } else {
+            scan.close();
+        }
+        batch = null;
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin is a nested loops join that reads the outer (left)
+ * input a block at a time. Each block of outer tuples is held in memory and
+ * matched against one scan of the inner (right) input, so the inner input
+ * is scanned once per block instead of once per outer tuple.
+ * <p>
+ * It evaluates any join predicate. Output tuples hold the fields of the
+ * outer tuple followed by those of the inner tuple; within a block they are
+ * produced in inner order.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of pages' worth of outer tuples held per block.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = 10;
+
+    private final JoinPredicate p;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int blockSize;
+
+    private transient Tuple[] block;
+    private transient int blockLen;
+    private transient boolean firstBlock;
+    private transient Tuple t2;
+    private transient int pos;
+    private transient int blocksRead;
+
+    /**
+     * Constructor; holds DEFAULT_BLOCK_PAGES pages' worth of outer tuples per
+     * block.
+     *
+     * @param p the predicate to join on
+     * @param child1 the outer input
+     * @param child2 the inner input
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, tuplesPerBlock(child1.getTupleDesc(), DEFAULT_BLOCK_PAGES));
+    }
+
+    /**
+     * @param p the predicate to join on
+     * @param child1 the outer input
+     * @param child2 the inner input
+     * @param blockSize the number of outer tuples held per block
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block size must be positive");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return the number of tuples of td that fit on the given number of
+     *         heap pages
+     */
+    public static int tuplesPerBlock(TupleDesc td, int pages) {
+        // each tuple takes td.getSize() bytes plus one header bit
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, perPage * pages);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @return the number of outer tuples held per block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return the number of blocks read from the outer input since open
+     *         or rewind, which is the number of scans of the inner input
+     */
+    public int blocksRead() {
+        return blocksRead;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        block = new Tuple[blockSize];
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        blockLen = 0;
+        firstBlock = true;
+        t2 = null;
+        pos = 0;
+        blocksRead = 0;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        t2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        Arrays.fill(block, 0, blockLen, null);
+        reset();
+    }
+
+    /**
+     * Reads the next block of outer tuples and rewinds the inner input for
+     * it, unless this is the first block.
+     *
+     * @return false if the outer input is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        Arrays.fill(block, 0, blockLen, null);
+        blockLen = 0;
+        while (blockLen < blockSize && child1.hasNext())
+            block[blockLen++] = child1.next();
+        if (blockLen == 0)
+            return false;
+        if (!firstBlock)
+            child2.rewind();
+        firstBlock = false;
+        blocksRead++;
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (t2 != null) {
+                while (pos < blockLen) {
+                    Tuple t1 = block[pos++];
+                    if (p.filter(t1, t2))
+                        return merge(t1, t2);
+                }
+                t2 = null;
+            }
+            if (blockLen > 0 && child2.hasNext()) {
+                t2 = child2.next();
+                pos = 0;
+            } else if (!nextBlock()) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+/**
+ * BloomFilter is a set of join keys that may answer that it contains a key
+ * it does not, but never that it does not contain a key it does. It is
+ * built from the hash codes of the keys, as {@link Field#hashCode} returns
+ * them, so it matches keys the same way a hash join on them does.
+ * <p>
+ * The filter uses {@link #BITS_PER_KEY} bits per key, rounded up to a power
+ * of two, and sets {@link #PROBES} of them for each key, derived from one
+ * 64-bit mix of its hash code. That gives a false positive rate of a few
+ * percent.
+ */
+public class BloomFilter {
+
+    /** the bits of the filter for each key it is sized for */
+    static final int BITS_PER_KEY = 10;
+    /** the number of bits set, and tested, for each key */
+    static final int PROBES = 3;
+
+    private final long[] words;
+    private final int mask;
+
+    /**
+     * @param expectedKeys the number of keys the filter is sized for
+     */
+    public BloomFilter(int expectedKeys) {
+        long bits = Math.max(64L, (long) Math.max(expectedKeys, 1) * BITS_PER_KEY);
+        int size = (int) Math.min(1L << 30, Long.highestOneBit(bits - 1) << 1);
+        this.words = new long[size >>> 6];
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param hashes the hash codes of the keys, in hashes[0] to hashes[n-1]
+     * @return a filter holding those keys
+     */
+    public static BloomFilter of(int[] hashes, int n) {
+        BloomFilter f = new BloomFilter(n);
+        for (int i = 0; i < n; i++)
+            f.add(hashes[i]);
+        return f;
+    }
+
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    public void add(Field key) {
+        add(key.hashCode());
+    }
+
+    /**
+     * Adds the key with the given hash code.
+     */
+    public void add(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if key was certainly not added, true if it may have been
+     */
+    public boolean mightContain(Field key) {
+        long h = mix(key.hashCode());
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((words[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+}
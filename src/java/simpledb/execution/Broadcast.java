@@ -0,0 +1,180 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Broadcast is an {@link Exchange} that runs its inputs in parallel and
+ * returns every one of their tuples from each of several outputs, which
+ * are meant to be read by different threads, for instance by the inputs of
+ * a {@link Gather}. The outputs are created together by {@link #outputs}.
+ * <p>
+ * The tuples are kept in memory once, in the order they arrive, and are
+ * shared by the outputs, so an output may be rewound or opened again
+ * without running the inputs again. Broadcast is meant for the smaller
+ * input of a join whose larger input is split across threads. The inputs
+ * start when the first output is opened; they are stopped, and the tuples
+ * dropped, if every output is closed before the inputs are exhausted.
+ */
+public class Broadcast extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Shared shared;
+    private final int output;
+
+    private transient int next;
+    private transient Iterator<Tuple> packet;
+
+    private Broadcast(Shared shared, int output) {
+        this.shared = shared;
+        this.output = output;
+    }
+
+    /**
+     * Creates the outputs of a broadcast of the given inputs.
+     *
+     * @param inputs the plan fragments to run in parallel
+     * @param ways   the number of outputs
+     */
+    public static Broadcast[] outputs(OpIterator[] inputs, int ways) {
+        checkInputs(inputs);
+        if (ways < 1)
+            throw new IllegalArgumentException("need at least one output");
+        Shared shared = new Shared(inputs.clone());
+        Broadcast[] outputs = new Broadcast[ways];
+        for (int i = 0; i < ways; i++)
+            outputs[i] = new Broadcast(shared, i);
+        return outputs;
+    }
+
+    public String getName() {
+        return "broadcast(" + shared.producers.inputs().length + "->" + (output + 1) + ")";
+    }
+
+    /**
+     * The tuples shared by the outputs of one broadcast.
+     */
+    private static final class Shared implements ExchangeProducers.Router {
+        final ExchangeProducers producers;
+        final List<List<Tuple>> packets = new ArrayList<>();
+        boolean finished;
+        Exception error;
+        int open;
+
+        Shared(OpIterator[] inputs) {
+            this.producers = new ExchangeProducers(inputs, this, "broadcast");
+        }
+
+        public int destinations() {
+            return 1;
+        }
+
+        public int route(Tuple t) {
+            return 0;
+        }
+
+        public synchronized void deliver(int destination, List<Tuple> p) {
+            packets.add(p);
+            notifyAll();
+        }
+
+        public synchronized void finished(Exception e) {
+            error = e;
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void open() {
+            open++;
+            if (!producers.isStarted()) {
+                packets.clear();
+                finished = false;
+                error = null;
+                producers.start();
+            }
+        }
+
+        /**
+         * @return packet i, waiting for it if need be, or null if the inputs
+         *         ended before it
+         */
+        synchronized List<Tuple> packet(int i) throws DbException, TransactionAbortedException {
+            while (i >= packets.size() && !finished) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while broadcasting tuples");
+                }
+            }
+            if (i < packets.size())
+                return packets.get(i);
+            rethrow(error);
+            return null;
+        }
+
+        void close() {
+            boolean stop;
+            synchronized (this) {
+                stop = --open == 0 && !finished;
+            }
+            if (stop) {
+                producers.stop();
+                synchronized (this) {
+                    packets.clear();
+                }
+            }
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        shared.open();
+        next = 0;
+        packet = Collections.emptyIterator();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (!packet.hasNext()) {
+            List<Tuple> p = shared.packet(next);
+            if (p == null)
+                return null;
+            next++;
+            packet = p.iterator();
+        }
+        return packet.next();
+    }
+
+    public void rewind() {
+        next = 0;
+        packet = Collections.emptyIterator();
+    }
+
+    public void close() {
+        super.close();
+        if (packet != null)
+            shared.close();
+        packet = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return shared.producers.inputs().clone();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always: the inputs are shared
+     *         with the other outputs
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        throw new UnsupportedOperationException("the inputs of a broadcast are shared by its outputs");
+    }
+}
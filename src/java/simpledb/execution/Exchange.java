@@ -0,0 +1,74 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Exchange is the base of the operators that connect plan fragments running
+ * on different threads, in the style of Volcano's exchange operator. The
+ * inputs of an exchange are each run on a thread of their own, and the
+ * tuples they return are handed to the consuming thread in packets of
+ * {@link #PACKET_SIZE} tuples through queues. An exchange starts its
+ * threads when it is opened and stops them when it is closed.
+ * <p>
+ * The inputs of an exchange are typically the same subplan over disjoint
+ * page ranges of a table; see {@link SeqScan#pageRange}. They must all
+ * have the same TupleDesc.
+ *
+ * @see Gather
+ * @see Repartition
+ * @see Broadcast
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the number of tuples handed from one thread to another at once */
+    public static final int PACKET_SIZE = 256;
+    /** the number of packets a bounded queue between threads holds */
+    public static final int QUEUE_PACKETS = 16;
+
+    /**
+     * @throws IllegalArgumentException if there are no inputs or their
+     *         TupleDescs differ
+     */
+    static void checkInputs(OpIterator[] inputs) {
+        if (inputs.length == 0)
+            throw new IllegalArgumentException("an exchange needs at least one input");
+        TupleDesc td = inputs[0].getTupleDesc();
+        for (OpIterator in : inputs) {
+            if (!in.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("exchange inputs must have the same TupleDesc");
+        }
+    }
+
+    /**
+     * Throws the exception an input failed with, if any, on the consuming
+     * thread.
+     */
+    static void rethrow(Exception error) throws DbException, TransactionAbortedException {
+        if (error instanceof DbException)
+            throw (DbException) error;
+        if (error instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) error;
+        if (error != null)
+            throw new DbException("exchange input failed: " + error);
+    }
+
+    /**
+     * @return a short description of the exchange, for query plans
+     */
+    public abstract String getName();
+
+    /**
+     * @return the number of inputs run in parallel
+     */
+    public int getParallelism() {
+        return getChildren().length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return getChildren()[0].getTupleDesc();
+    }
+}
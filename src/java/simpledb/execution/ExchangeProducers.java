@@ -0,0 +1,195 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ExchangeProducers runs the inputs of an exchange, each on a thread of its
+ * own, and hands the tuples they return to a {@link Router} in packets of
+ * up to {@link Exchange#PACKET_SIZE} tuples, one packet per destination.
+ * Every run opens the inputs and closes them when they are exhausted or
+ * the run is stopped.
+ */
+class ExchangeProducers {
+
+    /** the destination of a tuple that goes to every destination */
+    static final int ALL = -1;
+
+    /**
+     * Decides where tuples go and delivers them there. Every method but
+     * {@link #destinations} is called from the producing threads.
+     */
+    interface Router {
+        /** @return the number of destinations */
+        int destinations();
+
+        /** @return the destination of t, or {@link #ALL} */
+        int route(Tuple t);
+
+        /**
+         * Hands a packet to a destination, blocking while it has no room.
+         */
+        void deliver(int destination, List<Tuple> packet) throws InterruptedException;
+
+        /**
+         * Called once per run, after every input has been exhausted and its
+         * packets delivered, or has stopped.
+         *
+         * @param error the first exception thrown by an input, or null
+         */
+        void finished(Exception error);
+    }
+
+    private final OpIterator[] inputs;
+    private final Router router;
+    private final String name;
+
+    private Thread[] threads;
+    private int running;
+    private Exception error;
+    private volatile boolean stopped;
+
+    /**
+     * @param name the prefix of the names of the threads
+     */
+    ExchangeProducers(OpIterator[] inputs, Router router, String name) {
+        this.inputs = inputs;
+        this.router = router;
+        this.name = name;
+    }
+
+    OpIterator[] inputs() {
+        return inputs;
+    }
+
+    /**
+     * @return true if a run has been started and not stopped
+     */
+    synchronized boolean isStarted() {
+        return threads != null;
+    }
+
+    /**
+     * @return true if the current run has been stopped, by {@link #stop} or
+     *         by a failing input
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Starts a run of the inputs.
+     */
+    synchronized void start() {
+        stopped = false;
+        error = null;
+        running = inputs.length;
+        threads = new Thread[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            final OpIterator in = inputs[i];
+            threads[i] = new Thread(() -> produce(in), name + "-" + i);
+            threads[i].setDaemon(true);
+        }
+        for (Thread t : threads)
+            t.start();
+    }
+
+    private void produce(OpIterator in) {
+        int n = router.destinations();
+        List<List<Tuple>> packets = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            packets.add(new ArrayList<>(Exchange.PACKET_SIZE));
+        Exception failure = null;
+        try {
+            in.open();
+            while (!stopped && in.hasNext()) {
+                Tuple t = in.next();
+                int d = router.route(t);
+                if (d == ALL) {
+                    for (int i = 0; i < n; i++)
+                        add(packets, i, t);
+                } else {
+                    add(packets, d, t);
+                }
+            }
+            for (int i = 0; i < n && !stopped; i++) {
+                if (!packets.get(i).isEmpty())
+                    router.deliver(i, packets.get(i));
+            }
+        } catch (InterruptedException e) {
+            // the run has been stopped
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            failure = e;
+        } finally {
+            try {
+                in.close();
+            } catch (RuntimeException e) {
+                // an input that failed to open may not close cleanly
+                if (failure == null)
+                    failure = e;
+            }
+            done(failure);
+        }
+    }
+
+    private void add(List<List<Tuple>> packets, int i, Tuple t) throws InterruptedException {
+        List<Tuple> packet = packets.get(i);
+        packet.add(t);
+        if (packet.size() == Exchange.PACKET_SIZE) {
+            router.deliver(i, packet);
+            packets.set(i, new ArrayList<>(Exchange.PACKET_SIZE));
+        }
+    }
+
+    private void done(Exception failure) {
+        Exception result;
+        synchronized (this) {
+            if (failure != null && error == null) {
+                error = failure;
+                // the other inputs need not finish
+                stopped = true;
+                for (int i = 0; threads != null && i < threads.length; i++) {
+                    if (threads[i] != Thread.currentThread())
+                        threads[i].interrupt();
+                }
+            }
+            if (--running > 0)
+                return;
+            result = error;
+        }
+        router.finished(result);
+    }
+
+    /**
+     * Stops the current run, if any, and waits for its threads to close
+     * their inputs.
+     */
+    void stop() {
+        Thread[] ts;
+        synchronized (this) {
+            ts = threads;
+            threads = null;
+            if (ts == null)
+                return;
+            stopped = true;
+            for (Thread t : ts)
+                t.interrupt();
+        }
+        boolean interrupted = false;
+        for (Thread t : ts) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Fetch completes tuples that carry a reference to the row of a HeapFile
+ * they come from (see {@link SeqScan#setColumns}) with other fields of that
+ * row, read from its page only when the tuple gets to the Fetch.
+ * <p>
+ * This lets a plan scan a table for the fields its joins and sorts need,
+ * plus the row reference, and put off reading the fields that are only
+ * returned until after the joins have dropped the rows that do not match,
+ * rather than copying them through every operator.
+ */
+public class Fetch extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private OpIterator child;
+    private final int refField;
+    private final HeapFile file;
+    private final String tableAlias;
+    private final int[] columns;
+    private TupleDesc td;
+
+    /**
+     * @param tid        the transaction to read the rows as part of
+     * @param child      the tuples to complete
+     * @param refField   the field of child's tuples that holds the row
+     *                   reference
+     * @param tableid    the HeapFile the rows are in
+     * @param tableAlias the alias the names of the fetched fields start with
+     * @param columns    the indexes of the fields to fetch in the table's
+     *                   TupleDesc, which are added after those of child
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public Fetch(TransactionId tid, OpIterator child, int refField, int tableid,
+                 String tableAlias, int[] columns) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("rows can only be fetched from a heap file");
+        this.tid = tid;
+        this.refField = refField;
+        this.file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+        setChildren(new OpIterator[]{child});
+    }
+
+    /**
+     * @return the alias of the table the rows are fetched from
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the indexes in the table's TupleDesc of the fetched fields
+     */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * @return the field of the child's tuples that holds the row reference
+     */
+    public int getRefField() {
+        return refField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        Tuple t = child.next();
+        Tuple row = file.getTuple(tid, ((IntField) t.getField(refField)).getValue());
+        int n = child.getTupleDesc().numFields();
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < n; i++)
+            out.setField(i, t.getField(i));
+        for (int i = 0; i < columns.length; i++)
+            out.setField(n + i, row.getField(columns[i]));
+        return out;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+        TupleDesc tableTd = file.getTupleDesc();
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = tableTd.getFieldType(columns[i]);
+            names[i] = tableAlias + "." + tableTd.getFieldName(columns[i]);
+        }
+        this.td = TupleDesc.merge(child.getTupleDesc(), new TupleDesc(types, names));
+    }
+}
@@ -9,13 +9,16 @@ import simpledb.storage.TupleDesc;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It may apply
+ * several predicates at once, keeping the tuples that satisfy all of them;
+ * they are compiled by {@link PredicateCompiler} when the filter is built.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
-    private  Predicate p;
+    private final List<Predicate> ps;
     private  OpIterator child;
+    private transient PredicateCompiler.Matcher matcher;
     /**Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
      *
@@ -27,13 +30,38 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
-        this.p=p;
-        this.child=child;
+        this(Collections.singletonList(p), child);
     }
 
+    /**
+     * Constructor for a filter that returns the tuples of child satisfying
+     * every one of ps.
+     *
+     * @param ps
+     *            The predicates to filter tuples with, at least one
+     * @param child
+     *            The child operator
+     */
+    public Filter(List<Predicate> ps, OpIterator child) {
+        if (ps.isEmpty())
+            throw new IllegalArgumentException("a filter needs at least one predicate");
+        this.ps=Collections.unmodifiableList(new ArrayList<>(ps));
+        setChildren(new OpIterator[]{child});
+    }
+
+    /**
+     * @return the first predicate of the filter
+     */
     public Predicate getPredicate() {
         // some code goes here
-        return p;
+        return ps.get(0);
+    }
+
+    /**
+     * @return all the predicates of the filter
+     */
+    public List<Predicate> getPredicates() {
+        return ps;
     }
 
     public TupleDesc getTupleDesc() {
@@ -44,6 +72,8 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        if (matcher == null)
+            matcher = PredicateCompiler.compile(ps, child.getTupleDesc());
         super.open();
         child.open();
     }
@@ -62,7 +92,7 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass every predicate (i.e. for which the Predicate.filter() returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -73,7 +103,7 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()){
             Tuple tuple = child.next();
-            if (p.filter(tuple))
+            if (matcher.matches(tuple))
             {
                 return tuple;
             }
@@ -91,6 +121,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.child=children[0];
+        this.matcher=PredicateCompiler.compile(ps, child.getTupleDesc());
     }
 
 }
@@ -0,0 +1,123 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gather is an {@link Exchange} that runs its inputs in parallel and returns
+ * the union of their tuples. The tuples of one input come in the order the
+ * input returns them, interleaved with the tuples of the others in no
+ * particular order. Rewinding a Gather runs its inputs again.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] inputs;
+
+    private transient ExchangeProducers producers;
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient volatile boolean finished;
+    private transient volatile Exception error;
+    private transient Iterator<Tuple> packet;
+
+    /**
+     * @param inputs the plan fragments to run in parallel
+     */
+    public Gather(OpIterator... inputs) {
+        checkInputs(inputs);
+        this.inputs = inputs.clone();
+    }
+
+    public String getName() {
+        return "gather(" + inputs.length + ")";
+    }
+
+    private final class Router implements ExchangeProducers.Router {
+        public int destinations() {
+            return 1;
+        }
+
+        public int route(Tuple t) {
+            return 0;
+        }
+
+        public void deliver(int destination, List<Tuple> p) throws InterruptedException {
+            queue.put(p);
+        }
+
+        public void finished(Exception e) {
+            error = e;
+            finished = true;
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        queue = new ArrayBlockingQueue<>(QUEUE_PACKETS);
+        producers = new ExchangeProducers(inputs, new Router(), "gather");
+        start();
+        super.open();
+    }
+
+    private void start() {
+        finished = false;
+        error = null;
+        packet = Collections.emptyIterator();
+        producers.start();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (!packet.hasNext()) {
+            List<Tuple> p;
+            try {
+                p = queue.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while gathering tuples");
+            }
+            if (p != null) {
+                packet = p.iterator();
+            } else if (finished && queue.isEmpty()) {
+                rethrow(error);
+                return null;
+            }
+        }
+        return packet.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        producers.stop();
+        queue.clear();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        if (producers != null) {
+            producers.stop();
+            queue.clear();
+        }
+        producers = null;
+        queue = null;
+        packet = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return inputs.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        checkInputs(children);
+        this.inputs = children.clone();
+    }
+}
@@ -1,14 +1,42 @@
 package simpledb.execution;
 
+import simpledb.storage.SpillFile;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join that keeps at most a fixed number of
+ * left (build) tuples in memory. If the left child fits, it is hashed in
+ * memory and the right child is streamed past it. Otherwise both children
+ * are partitioned by a hash of their join field into {@link SpillFile}s,
+ * and each pair of partitions is joined in turn, partitioning it again
+ * with other bits of the hash if its build side is still too large. A
+ * build partition that stays too large after {@link #MAX_LEVELS} passes,
+ * as happens when many tuples share one key, is joined in chunks of the
+ * budget, reading its probe partition once per chunk.
+ * <p>
+ * When both join fields are INT fields, the build tuples are kept in an
+ * {@link IntJoinHashTable} instead of a map from Field to a list of tuples.
+ * <p>
+ * If the right child is a {@link SeqScan}, possibly under {@link Filter}s,
+ * the join hands it a {@link BloomFilter} of the left join keys once it has
+ * read the left child, so that the scan drops the right tuples that have
+ * no match before they go through the filters and into the join.
+ * <p>
+ * The build tuples in memory are also reserved against a grant of the
+ * {@link MemoryManager}; a build side the grant refuses to hold is treated
+ * as one that does not fit the budget.
  */
 public class HashEquiJoin extends Operator {
 
@@ -16,13 +44,22 @@ public class HashEquiJoin extends Operator {
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
+    private final int maxBuildTuples;
+    private final boolean intKeys;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /** the default number of build tuples kept in memory */
+    public final static int MAP_SIZE = 20000;
+    /** each partitioning pass splits its input 2^PARTITION_BITS ways */
+    static final int PARTITION_BITS = 4;
+    /** the number of partitioning passes before joining in chunks */
+    static final int MAX_LEVELS = 3;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,9 +68,23 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param maxBuildTuples the number of left tuples to keep in memory at once
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxBuildTuples) {
+        if (maxBuildTuples < 1)
+            throw new IllegalArgumentException("maxBuildTuples must be positive");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxBuildTuples = maxBuildTuples;
+        this.intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -41,10 +92,17 @@ public class HashEquiJoin extends Operator {
         return pred;
     }
 
+    /**
+     * @return the number of left tuples kept in memory at once
+     */
+    public int getMaxBuildTuples() {
+        return maxBuildTuples;
+    }
+
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,45 +112,352 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
+
+    /**
+     * @return the number of partitions written to disk since the join was
+     *         last opened or rewound
+     */
+    public int partitionsSpilled() {
+        return spilled;
+    }
+
+    /**
+     * A stream of tuples that can be read again from the start: a child
+     * operator or a spilled partition.
+     */
+    private interface Source {
+        /** @return the next tuple, or null at the end */
+        Tuple next() throws DbException, TransactionAbortedException;
+
+        void rewind() throws DbException, TransactionAbortedException;
+
+        /** releases the resources of a partition; children are left open */
+        void release();
+    }
+
+    private static Source source(final OpIterator child) {
+        return new Source() {
+            public Tuple next() throws DbException, TransactionAbortedException {
+                return child.hasNext() ? child.next() : null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            public void release() {
+            }
+        };
+    }
+
+    private static Source source(final SpillFile file) throws DbException {
+        rewind(file);
+        return new Source() {
+            public Tuple next() throws DbException {
+                try {
+                    return file.next();
+                } catch (IOException e) {
+                    throw new DbException("could not read join partition: " + e.getMessage());
+                }
+            }
+
+            public void rewind() throws DbException {
+                HashEquiJoin.rewind(file);
+            }
+
+            public void release() {
+                file.delete();
+            }
+        };
+    }
+
+    private static void rewind(SpillFile file) throws DbException {
+        try {
+            file.rewind();
+        } catch (IOException e) {
+            throw new DbException("could not read join partition: " + e.getMessage());
+        }
+    }
+
+    /** a pair of spilled partitions waiting to be joined */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+    }
+
     final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
+    transient private IntJoinHashTable intMap;
+    transient private int match = -1;
+    transient private Source build, probe;
+    transient private int level;
+    transient private Tuple carry;
+    transient private boolean buildDone;
+    transient private Deque<Partition> pending;
+    transient private int spilled;
+    /** the scan of the right child to hand the runtime filter to, or null */
+    transient private SeqScan probeScan;
+    transient private int[] keyHashes;
+    transient private int numKeyHashes;
+    transient private MemoryManager.Grant grant;
+    transient private long buildBytes;
+
+    /**
+     * Starts the join over the children, which must be open and positioned
+     * at their start.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        pending = new ArrayDeque<>();
+        spilled = 0;
+        probeScan = probeScan(child2);
+        keyHashes = probeScan == null ? null : new int[64];
+        numKeyHashes = 0;
+        if (grant != null)
+            grant.close();
+        grant = Database.getMemoryManager().open("HashEquiJoin");
+        buildBytes = MemoryManager.tupleBytes(child1.getTupleDesc());
+        if (intKeys && intMap == null)
+            intMap = new IntJoinHashTable(Math.min(maxBuildTuples, 1024));
+        beginPair(source(child1), source(child2), 0);
+    }
+
+    /**
+     * Loads the first chunk of a new pair of inputs, and partitions them
+     * instead if the build side does not fit and may still be split.
+     */
+    private void beginPair(Source b, Source p, int level) throws DbException, TransactionAbortedException {
+        this.build = b;
+        this.probe = p;
+        this.level = level;
+        this.carry = null;
+        this.listIt = null;
+        this.match = -1;
+        loadMap();
+        if (level == 0 && buildDone)
+            pushRuntimeFilter();
+        if (buildDone && mapSize() == 0)
+            finishPair();
+        else if (!buildDone && level < MAX_LEVELS)
+            partition();
+    }
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
+    /**
+     * Hashes the next maxBuildTuples tuples of the build side into map, or
+     * into intMap for INT keys, or fewer if the grant refuses more.
+     * Sets buildDone if the build side has been read to its end; otherwise
+     * the first tuple that did not fit is kept in carry.
+     */
+    private void loadMap() throws DbException, TransactionAbortedException {
+        clearMap();
         int cnt = 0;
+        if (carry != null) {
+            grant.reserve(buildBytes);
+            add(carry);
+            carry = null;
+            cnt++;
+        }
+        while ((t1 = build.next()) != null) {
+            if (cnt == maxBuildTuples || !grant.reserve(buildBytes)) {
+                carry = t1;
+                buildDone = false;
+                return;
+            }
+            add(t1);
+            cnt++;
+        }
+        buildDone = true;
+    }
+
+    /**
+     * @return the scan at the bottom of a chain of filters over it, which
+     *         keep its field numbers, or null if it is something else
+     */
+    private static SeqScan probeScan(OpIterator it) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        return it instanceof SeqScan ? (SeqScan) it : null;
+    }
+
+    /**
+     * Records the key of a left tuple for the runtime filter, while reading
+     * the left child itself.
+     */
+    private void addKeyHash(Tuple t) {
+        if (keyHashes == null || level > 0)
+            return;
+        if (numKeyHashes == keyHashes.length)
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        keyHashes[numKeyHashes++] = t.getField(pred.getField1()).hashCode();
+    }
+
+    /**
+     * Hands the scan of the right child a filter of all the left keys,
+     * before any right tuple has been read.
+     */
+    private void pushRuntimeFilter() {
+        if (keyHashes == null)
+            return;
+        probeScan.setRuntimeFilter(pred.getField2(), BloomFilter.of(keyHashes, numKeyHashes));
+        keyHashes = null;
+    }
+
+    private void add(Tuple t) {
+        addKeyHash(t);
+        if (intMap != null)
+            intMap.add(((IntField) t.getField(pred.getField1())).getValue(), t);
+        else
+            map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+    }
+
+    private int mapSize() {
+        return intMap != null ? intMap.size() : map.size();
+    }
+
+    private void clearMap() {
+        if (intMap != null)
+            intMap.clear();
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        if (grant != null)
+            grant.releaseAll();
+    }
+
+    /**
+     * @return the partition of a join key at the current level; every level
+     *         uses different bits of the key's hash
+     */
+    private int partitionOf(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return Integer.rotateLeft(h, PARTITION_BITS * level) >>> (32 - PARTITION_BITS);
+    }
+
+    /**
+     * Spills the current build and probe inputs into partitions and queues
+     * the pairs to be joined at the next level.
+     */
+    private void partition() throws DbException, TransactionAbortedException {
+        int n = 1 << PARTITION_BITS;
+        SpillFile[] buildParts = new SpillFile[n];
+        SpillFile[] probeParts = new SpillFile[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                buildParts[i] = new SpillFile(child1.getTupleDesc());
+                probeParts[i] = new SpillFile(child2.getTupleDesc());
+            }
+            if (intMap != null) {
+                for (int row = 0; row < intMap.size(); row++) {
+                    Tuple t = intMap.get(row);
+                    buildParts[partitionOf(t.getField(pred.getField1()))].add(t);
+                }
+            }
+            for (List<Tuple> tuples : map.values()) {
+                for (Tuple t : tuples)
+                    buildParts[partitionOf(t.getField(pred.getField1()))].add(t);
+            }
+            clearMap();
+            for (Tuple t = carry; t != null; t = build.next()) {
+                addKeyHash(t);
+                buildParts[partitionOf(t.getField(pred.getField1()))].add(t);
+            }
+            carry = null;
+            if (level == 0)
+                pushRuntimeFilter();
+            long probeBytes = MemoryManager.tupleBytes(child2.getTupleDesc()), bytes = 0;
+            for (int i = 0; i < n; i++)
+                bytes += buildParts[i].size() * buildBytes;
+            for (Tuple t; (t = probe.next()) != null; bytes += probeBytes)
+                probeParts[partitionOf(t.getField(pred.getField2()))].add(t);
+            grant.spilled(bytes);
+        } catch (IOException e) {
+            for (int i = 0; i < n; i++) {
+                if (buildParts[i] != null)
+                    buildParts[i].delete();
+                if (probeParts[i] != null)
+                    probeParts[i].delete();
+            }
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+        for (int i = n - 1; i >= 0; i--)
+            pending.push(new Partition(buildParts[i], probeParts[i], level + 1));
+        spilled += 2 * n;
+        finishPair();
+    }
+
+    /**
+     * Starts joining the next queued pair of partitions, skipping pairs
+     * with an empty side.
+     *
+     * @return false if there are no more pairs
+     */
+    private boolean nextPair() throws DbException, TransactionAbortedException {
+        while (!pending.isEmpty()) {
+            Partition part = pending.pop();
+            if (part.build.size() == 0 || part.probe.size() == 0) {
+                part.build.delete();
+                part.probe.delete();
+                continue;
+            }
+            beginPair(source(part.build), source(part.probe), part.level);
+            return true;
+        }
+        return false;
+    }
+
+    private void finishPair() {
+        if (build != null) {
+            build.release();
+            probe.release();
         }
-        return cnt > 0;
+        build = null;
+        probe = null;
+        clearMap();
+    }
 
+    private void releaseAll() {
+        finishPair();
+        if (pending != null) {
+            for (Partition part : pending) {
+                part.build.delete();
+                part.probe.delete();
+            }
+            pending.clear();
+        }
+        carry = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        start();
         super.open();
     }
 
     public void close() {
         super.close();
+        releaseAll();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
+        this.intMap=null;
+        this.keyHashes=null;
+        if (grant != null)
+            grant.close();
+        this.grant=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        releaseAll();
+        this.listIt=null;
         child1.rewind();
         child2.rewind();
+        start();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -111,12 +476,11 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -132,32 +496,46 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        while (true) {
+            if (match != -1) {
+                t1 = intMap.get(match);
+                match = intMap.next(match);
+                return processList();
+            }
+            if (listIt != null && listIt.hasNext()) {
+                t1 = listIt.next();
+                return processList();
+            }
+            listIt = null;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            if (build == null) {
+                if (!nextPair())
+                    return null;
                 continue;
-            listIt = l.iterator();
+            }
 
-            return processList();
-
-        }
+            // probe the map with the next right tuple
+            t2 = probe.next();
+            if (t2 != null) {
+                if (intMap != null) {
+                    match = intMap.first(((IntField) t2.getField(pred.getField2())).getValue());
+                } else {
+                    List<Tuple> l = map.get(t2.getField(pred.getField2()));
+                    if (l != null)
+                        listIt = l.iterator();
+                }
+                continue;
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            // the probe side is done: join it with the next chunk of the
+            // build side, or move on to the next pair
+            if (!buildDone) {
+                probe.rewind();
+                loadMap();
+            } else {
+                finishPair();
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -170,5 +548,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
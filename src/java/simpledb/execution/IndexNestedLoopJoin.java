@@ -0,0 +1,228 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is an equality join whose inner (right) input is a
+ * scan of a BTreeFile keyed on the join field, possibly under filters.
+ * Instead of scanning the inner table, it looks up the matches of each outer
+ * key with {@link simpledb.index.BTreeFile#indexIterator}, so a join of few
+ * outer tuples with a large table reads O(outer * log n) pages.
+ * <p>
+ * The outer input is read in batches whose tuples are sorted on the join
+ * key before probing. Consecutive probes then descend to the same or
+ * neighbouring leaf pages, which are likely still in the buffer pool, and a
+ * key repeated in the batch is looked up once. Output tuples hold the fields
+ * of the outer tuple followed by those of the inner tuple; within a batch
+ * they come out in ascending order of the join key.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of outer tuples sorted and probed together.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final JoinPredicate p;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int batchSize;
+
+    // the scan under child2 whose index is probed, and the filters above it
+    private final SeqScan index;
+    private final List<Predicate> innerFilters;
+
+    private transient Tuple[] batch;
+    private transient int batchLen, batchPos;
+    private transient List<Tuple> matches;
+    private transient Field matchKey;
+    private transient int matchPos;
+    private transient int probes;
+
+    /**
+     * Constructor; probes DEFAULT_BATCH_SIZE outer tuples at a time.
+     *
+     * @param p an EQUALS predicate to join on
+     * @param child1 the outer input
+     * @param child2 the inner input; see {@link #canProbe}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param p an EQUALS predicate to join on
+     * @param child1 the outer input
+     * @param child2 the inner input; see {@link #canProbe}
+     * @param batchSize the number of outer tuples sorted and probed together
+     * @throws IllegalArgumentException if the predicate is not EQUALS or
+     *         child2 cannot be probed on its join field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int batchSize) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("index nested loops join does not support " + p.getOperator());
+        if (!canProbe(child2, p.getField2()))
+            throw new IllegalArgumentException("inner input has no B+ tree on field " + p.getField2());
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size must be positive");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.batchSize = batchSize;
+        this.innerFilters = new ArrayList<>();
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            innerFilters.addAll(((Filter) it).getPredicates());
+            it = ((Filter) it).getChildren()[0];
+        }
+        this.index = (SeqScan) it;
+    }
+
+    /**
+     * @return true if inner is a scan of a BTreeFile keyed on field, possibly
+     *         under filters, so that an IndexNestedLoopJoin can probe it
+     */
+    public static boolean canProbe(OpIterator inner, int field) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        return inner instanceof SeqScan && field != -1 && ((SeqScan) inner).sortedField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @return the number of index lookups since open or rewind
+     */
+    public int probes() {
+        return probes;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        batch = new Tuple[batchSize];
+        matches = new ArrayList<>();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        Arrays.fill(batch, 0, batchLen, null);
+        batchLen = batchPos = 0;
+        matches.clear();
+        matchKey = null;
+        matchPos = 0;
+        probes = 0;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        batch = null;
+        matches = null;
+        matchKey = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        reset();
+    }
+
+    /**
+     * Reads and sorts the next batch of outer tuples.
+     *
+     * @return false if the outer input is exhausted
+     */
+    private boolean nextBatch() throws DbException, TransactionAbortedException {
+        Arrays.fill(batch, 0, batchLen, null);
+        batchLen = batchPos = 0;
+        while (batchLen < batchSize && child1.hasNext())
+            batch[batchLen++] = child1.next();
+        Arrays.sort(batch, 0, batchLen, new TupleComparator(p.getField1(), true));
+        return batchLen > 0;
+    }
+
+    /**
+     * Fills matches with the inner tuples whose key equals key.
+     */
+    private void probe(Field key) throws DbException, TransactionAbortedException {
+        matches.clear();
+        matchKey = key;
+        probes++;
+        DbFileIterator it = index.indexIterator(new IndexPredicate(Predicate.Op.EQUALS, key));
+        it.open();
+        try {
+            next:
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (Predicate f : innerFilters)
+                    if (!f.filter(t))
+                        continue next;
+                matches.add(t);
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (batchPos < batchLen && matchPos < matches.size())
+                return merge(batch[batchPos], matches.get(matchPos++));
+            if (batchPos < batchLen && matchKey != null)
+                batchPos++;
+            if (batchPos == batchLen && !nextBatch())
+                return null;
+            Field key = batch[batchPos].getField(p.getField1());
+            if (!key.equals(matchKey))
+                probe(key);
+            matchPos = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
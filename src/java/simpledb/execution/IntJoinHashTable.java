@@ -0,0 +1,147 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.util.Arrays;
+
+/**
+ * IntJoinHashTable is the build-side table of a hash join on an INT key.
+ * It stores no Field objects and allocates nothing per key: the distinct
+ * keys live in an open-addressing int array probed linearly, and the rows
+ * added under each key form a chain through parallel arrays indexed by row
+ * number.
+ * <p>
+ * Rows are numbered 0, 1, 2, ... in the order they are added. To visit
+ * the rows of a key:
+ * <pre>
+ *     for (int r = table.first(key); r != -1; r = table.next(r))
+ *         ... table.get(r) ...
+ * </pre>
+ * Rows of the same key are visited in the order they were added.
+ */
+public class IntJoinHashTable {
+
+    private static final int EMPTY = -1;
+
+    // open-addressing table over the distinct keys
+    private int[] keys;
+    private int[] heads;
+    private int[] tails;
+    private int numKeys;
+
+    // one entry per row
+    private Tuple[] tuples;
+    private int[] next;
+    private int size;
+
+    /**
+     * @param expectedRows the number of rows the table is sized for; it
+     *                     grows past that as needed
+     */
+    public IntJoinHashTable(int expectedRows) {
+        int slots = Integer.highestOneBit(Math.max(expectedRows, 8) * 2 - 1) << 1;
+        keys = new int[slots];
+        heads = new int[slots];
+        tails = new int[slots];
+        Arrays.fill(heads, EMPTY);
+        tuples = new Tuple[Math.max(expectedRows, 8)];
+        next = new int[tuples.length];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot holding key, or the empty slot where it belongs
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (heads[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Adds a row under key.
+     */
+    public void add(int key, Tuple t) {
+        if (size == tuples.length) {
+            tuples = Arrays.copyOf(tuples, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        int row = size++;
+        tuples[row] = t;
+        next[row] = EMPTY;
+
+        int i = slot(key);
+        if (heads[i] == EMPTY) {
+            keys[i] = key;
+            heads[i] = row;
+            tails[i] = row;
+            if (++numKeys * 2 > keys.length)
+                rehash();
+        } else {
+            next[tails[i]] = row;
+            tails[i] = row;
+        }
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys, oldHeads = heads, oldTails = tails;
+        keys = new int[oldKeys.length * 2];
+        heads = new int[keys.length];
+        tails = new int[keys.length];
+        Arrays.fill(heads, EMPTY);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldHeads[j] == EMPTY)
+                continue;
+            int i = slot(oldKeys[j]);
+            keys[i] = oldKeys[j];
+            heads[i] = oldHeads[j];
+            tails[i] = oldTails[j];
+        }
+    }
+
+    /**
+     * @return the first row added under key, or -1 if there is none
+     */
+    public int first(int key) {
+        return heads[slot(key)];
+    }
+
+    /**
+     * @return the row added under the same key after row, or -1 if there is
+     *         none
+     */
+    public int next(int row) {
+        return next[row];
+    }
+
+    /**
+     * @return the tuple of a row
+     */
+    public Tuple get(int row) {
+        return tuples[row];
+    }
+
+    /**
+     * @return the number of rows in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every row, keeping the allocated arrays for reuse.
+     */
+    public void clear() {
+        if (numKeys > 0)
+            Arrays.fill(heads, EMPTY);
+        Arrays.fill(tuples, 0, size, null);
+        numKeys = 0;
+        size = 0;
+    }
+}
@@ -4,25 +4,95 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Every group is given a dense slot number, and the running aggregate of
+ * each slot is kept in long arrays, so merging a tuple into an existing
+ * group allocates nothing. INT group values are mapped to slots with an
+ * open-addressing table over an int array; other group values use a
+ * HashMap.
+ * <p>
+ * At most maxGroups groups are kept in memory. Once that many exist, the
+ * (group, aggregate) values of tuples of any other group are partitioned
+ * by a hash of the group into {@link SpillFile}s, so every group is either
+ * entirely in memory or entirely in one partition. The iterator returns
+ * the groups in memory first, then aggregates each partition in turn,
+ * partitioning it again on other bits of the hash if it still has too
+ * many groups. After {@link #MAX_LEVELS} such passes the budget is
+ * ignored.
+ * <p>
+ * If the aggregator is given a grant of the {@link MemoryManager}, each
+ * new group is also reserved against it, and a group the grant refuses is
+ * spilled as one over the budget would be.
+ * <p>
+ * AVG is the integer quotient of the sum and the count. SUM_COUNT returns
+ * the sum and the count of every group, so that partial aggregates can be
+ * combined; as the sum may not fit an INT field, it is returned as two
+ * fields, its high and low 32 bits, followed by the count. SC_AVG takes
+ * such a triple, the sum's words at afield and afield + 1 and the count at
+ * afield + 2, and returns the average of the combined sums and counts.
+ * Without grouping, an empty input still produces one row for COUNT, whose
+ * value is 0; the other aggregates of no rows are NULL in SQL, and produce
+ * no row. With grouping, an empty input produces no rows.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    private static final Field NO_GROUP=new IntField(-1);
+
+    /** the default number of groups kept in memory */
+    public static final int MAX_GROUPS = 100000;
+    /** each spill splits the groups that do not fit 2^PARTITION_BITS ways */
+    static final int PARTITION_BITS = 4;
+    /** the number of partitioning passes before the budget is ignored */
+    static final int MAX_LEVELS = 3;
+    /** the estimated bytes of a group: its slot in the arrays and table */
+    static final long GROUP_BYTES = 64;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Op what;
+    private final int maxGroups;
+    private final int level;
+    private final TupleDesc tupleDesc;
+    // the schema of spilled values: (group, aggregate), or for SC_AVG
+    // (group, sum high, sum low, count)
+    private final TupleDesc spillDesc;
+
+    // the running aggregate of each group slot
+    private int numGroups;
+    private long[] values;
+    private long[] counts;
+    private int[] groupKeys;
+    private Field[] groupFields;
+    // open-addressing table from INT group values to slots, -1 if empty
+    private int[] table;
+    private final Map<Field, Integer> fieldSlots;
+
+    // the groups that did not fit, as (group, aggregate) tuples
+    private SpillFile[] partitions;
+    private Tuple spillTuple;
+    private boolean partitionsRead;
+    private long spilledTuples;
+    private MemoryManager.Grant grant;
+
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -34,224 +104,444 @@ public class IntegerAggregator implements Aggregator {
      * @param what
      *            the aggregation operator
      */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, MAX_GROUPS);
+    }
 
     /**
-     * 用于分组
+     * Aggregate constructor
+     *
+     * @param gbfield     the 0-based index of the group-by field in the tuple,
+     *                    or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field, or null if there is
+     *                    no grouping
+     * @param afield      the 0-based index of the aggregate field in the tuple
+     * @param what        the aggregation operator
+     * @param maxGroups   the number of groups to keep in memory
      */
-    private int gbfield;
-    private Type gbfieldtype;
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups) {
+        this(gbfield, gbfieldtype, afield, what, maxGroups, 0);
+    }
 
-    /**
-     * 用于聚合
-     */
-    private int afield;
-    private Op what;
+    private IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups, int level) {
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("maxGroups must be positive");
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        this.maxGroups = maxGroups;
+        this.level = level;
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (gbfield != NO_GROUPING) {
+            types.add(gbfieldtype);
+            names.add("groupValue");
+        }
+        if (what == Op.SUM_COUNT) {
+            types.add(Type.INT_TYPE);
+            names.add("sumHigh");
+            types.add(Type.INT_TYPE);
+            names.add("sumLow");
+            types.add(Type.INT_TYPE);
+            names.add("countValue");
+        } else {
+            types.add(Type.INT_TYPE);
+            names.add("aggregateValue");
+        }
+        tupleDesc = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+        if (gbfield == NO_GROUPING)
+            spillDesc = null;
+        else if (what == Op.SC_AVG)
+            spillDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE});
+        else
+            spillDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+        values = new long[16];
+        counts = new long[16];
+        groupKeys = new int[16];
+        groupFields = new Field[16];
+        table = new int[64];
+        Arrays.fill(table, -1);
+        fieldSlots = new HashMap<>();
+        if (gbfield == NO_GROUPING)
+            newSlot();
+    }
 
     /**
-     * 存放结果
+     * @return the number of partitions written to disk by this aggregator
      */
-    private TupleDesc tupleDesc;
-    private Map<Field, Tuple> aggregate;
+    public int partitionsSpilled() {
+        return partitions == null ? 0 : partitions.length;
+    }
 
     /**
-     * 用于非分组情况下的聚合操作
+     * Has the aggregator reserve its groups against a grant, which the
+     * caller closes once it is done with the aggregator. The groups of the
+     * partitions are aggregated under grants of their own from the same
+     * manager.
+     *
+     * @param grant the grant, or null to count groups only
      */
-    private int counts;
-    private int summary;
+    public void setMemoryGrant(MemoryManager.Grant grant) {
+        this.grant = grant;
+    }
 
     /**
-     * 用于分组情况下的聚合操作
+     * @return the grant the groups are reserved against, or null
      */
-    private Map<Field, Integer> countsMap;
-    private Map<Field, Integer> sumMap;
-    //
-    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
-        this.gbfield=gbfield;
-        this.gbfieldtype=gbfieldtype;
-        this.afield=afield;
-        this.what=what;
-        aggregate=new HashMap<>();
-        if (gbfield==NO_GROUPING)
-        {
-            tupleDesc=new TupleDesc(new Type[]{Type.INT_TYPE},new String[]{"aggregateValue"});
-            Tuple tuple=new Tuple(tupleDesc);
-            aggregate.put(NO_GROUP,tuple);
-        }
-        else {
-            tupleDesc=new TupleDesc(new Type[]{gbfieldtype,Type.INT_TYPE},new String[]{"groupValue", "aggregateValue"});
-        }
-        if (gbfield == NO_GROUPING && what.equals(Op.AVG)) {
-            this.counts = 0;
-            this.summary = 0;
-        } else if (gbfield != NO_GROUPING && what.equals(Op.AVG)) {
-            this.countsMap = new HashMap<>();
-            this.sumMap = new HashMap<>();
-        }
+    public MemoryManager.Grant getMemoryGrant() {
+        return grant;
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
+     * @throws IllegalStateException if spilled groups have already been read
+     *         by an iterator
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
-        IntField operationField = (IntField) tup.getField(afield);
-        if (operationField==null){
+        IntField aggField = (IntField) tup.getField(afield);
+        if (aggField == null)
             return;
+        int s;
+        if (gbfield == NO_GROUPING) {
+            s = 0;
+        } else {
+            Field g = tup.getField(gbfield);
+            s = gbfieldtype == Type.INT_TYPE ? slotOf(((IntField) g).getValue()) : slotOf(g);
+            if (s == -1) {
+                spill(g, aggField, tup);
+                return;
+            }
         }
-        if (gbfield==NO_GROUPING){
-            Tuple tuple = aggregate.get(NO_GROUP);
-            IntField field = (IntField)tuple.getField(0);
-            if (field==null)
-            {
-                if(what.equals(Op.AVG)){
-                    counts++;
-                    summary=operationField.getValue();
-                    tuple.setField(0,operationField);
-            } else if (what.equals(Op.COUNT)) {
-                    tuple.setField(0,new IntField(1));
-                }
-                else {
-                    tuple.setField(0,operationField);
-                }
-                aggregate.put(NO_GROUP,tuple);
+        merge(s, aggField.getValue(), tup);
+    }
+
+    /**
+     * Merges a value into the aggregate of its INT group, as
+     * {@link #mergeTupleIntoGroup} does with a tuple holding them, without
+     * the tuple.
+     *
+     * @param group the group value; ignored if there is no grouping
+     * @param value the value to aggregate
+     * @throws IllegalStateException if the group-by field is not an INT
+     *         field, or the operator is SC_AVG, which takes more fields
+     */
+    public void mergeIntoGroup(int group, int value) {
+        if (what == Op.SC_AVG || (gbfield != NO_GROUPING && gbfieldtype != Type.INT_TYPE))
+            throw new IllegalStateException("cannot merge a value without its tuple");
+        int s = 0;
+        if (gbfield != NO_GROUPING) {
+            s = slotOf(group);
+            if (s == -1) {
+                spill(new IntField(group), new IntField(value), null);
                 return;
             }
-            switch (what){
-                case MIN:
-                    if (operationField.compare(Predicate.Op.LESS_THAN,field)){
-                        tuple.setField(0,operationField);
-                        aggregate.put(NO_GROUP,tuple);
-                    }
-                    return;
-                case MAX:
-                    if (operationField.compare(Predicate.Op.GREATER_THAN,field)){
-                        tuple.setField(0,operationField);
-                        aggregate.put(NO_GROUP,tuple);
-                    }
-                    return;
-                case AVG:
-                    counts++;
-                    summary+=operationField.getValue();
-                    tuple.setField(0,new IntField(summary/counts));
-                    aggregate.put(NO_GROUP,tuple);
-                    return;
-                case COUNT:
-                    tuple.setField(0,new IntField(field.getValue()+1));
-                    aggregate.put(NO_GROUP,tuple);
-                    return;
-                case SUM:
-                    IntField sum = new IntField(operationField.getValue() + field.getValue());
-                    tuple.setField(0,sum);
-                    aggregate.put(NO_GROUP,tuple);
-                    return;
-                default:
-                    return;
+        }
+        merge(s, value, null);
+    }
+
+    /**
+     * Merges value a of a tuple into the aggregate of slot s; tup is needed
+     * only for SC_AVG.
+     */
+    private void merge(int s, long a, Tuple tup) {
+        switch (what) {
+            case MIN:
+                if (counts[s]++ == 0 || a < values[s])
+                    values[s] = a;
+                break;
+            case MAX:
+                if (counts[s]++ == 0 || a > values[s])
+                    values[s] = a;
+                break;
+            case COUNT:
+                counts[s]++;
+                break;
+            case SC_AVG:
+                values[s] += (a << 32) | (((IntField) tup.getField(afield + 1)).getValue() & 0xFFFFFFFFL);
+                counts[s] += ((IntField) tup.getField(afield + 2)).getValue();
+                break;
+            default:
+                values[s] += a;
+                counts[s]++;
+                break;
+        }
+    }
+
+    /**
+     * @return true if a new group may be given a slot. Once a group has been
+     *         spilled no new group is, even if the grant would take it now:
+     *         the spilled group's later tuples would otherwise get a slot of
+     *         their own and the group would be returned twice.
+     */
+    private boolean hasRoom() {
+        if (level >= MAX_LEVELS)
+            return true;
+        return partitions == null && numGroups < maxGroups
+                && (grant == null || grant.reserve(GROUP_BYTES));
+    }
+
+    private int newSlot() {
+        if (numGroups == values.length) {
+            int capacity = numGroups * 2;
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            groupKeys = Arrays.copyOf(groupKeys, capacity);
+            groupFields = Arrays.copyOf(groupFields, capacity);
+        }
+        return numGroups++;
+    }
+
+    private static int hash(int g) {
+        int h = g * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot of INT group value g, adding it if it is new and
+     *         there is room, or -1 if it does not fit
+     */
+    private int slotOf(int g) {
+        int mask = table.length - 1;
+        for (int i = hash(g) & mask; ; i = (i + 1) & mask) {
+            int s = table[i];
+            if (s == -1) {
+                if (!hasRoom())
+                    return -1;
+                s = newSlot();
+                groupKeys[s] = g;
+                table[i] = s;
+                if (numGroups * 2 > table.length)
+                    rehash();
+                return s;
             }
+            if (groupKeys[s] == g)
+                return s;
+        }
+    }
 
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int s = 0; s < numGroups; s++) {
+            int i = hash(groupKeys[s]) & mask;
+            while (table[i] != -1)
+                i = (i + 1) & mask;
+            table[i] = s;
         }
-        else {
-            Field groupField = tup.getField(gbfield);
-            if (!aggregate.containsKey(groupField)){
-                Tuple value = new Tuple(tupleDesc);
-                value.setField(0,groupField);
-                if (what.equals(Op.COUNT)){
-                    value.setField(1,new IntField(1));
-                } else if (what.equals(Op.AVG)) {
-                    countsMap.put(groupField,countsMap.getOrDefault(groupField,0)+1);
-                    sumMap.put(groupField,sumMap.getOrDefault(groupField,0)+ operationField.getValue());
-                    value.setField(1,operationField);
-                }else {
-                    value.setField(1,operationField);
-                }
-                aggregate.put(groupField,value);
-                return;
+    }
+
+    /**
+     * @return the slot of group value g, adding it if it is new and there
+     *         is room, or -1 if it does not fit
+     */
+    private int slotOf(Field g) {
+        Integer s = fieldSlots.get(g);
+        if (s == null) {
+            if (!hasRoom())
+                return -1;
+            s = newSlot();
+            groupFields[s] = g;
+            fieldSlots.put(g, s);
+        }
+        return s;
+    }
+
+    /**
+     * @return the partition of a group value at this level; every level
+     *         uses different bits of its hash
+     */
+    private int partitionOf(Field g) {
+        int h = g.hashCode() * 0x9E3779B9;
+        return Integer.rotateLeft(h, PARTITION_BITS * level) >>> (32 - PARTITION_BITS);
+    }
+
+    /**
+     * Sets the values of a tuple aside in the partition of its group.
+     */
+    private void spill(Field g, IntField a, Tuple tup) {
+        if (partitionsRead)
+            throw new IllegalStateException("spilled groups have already been read");
+        try {
+            if (partitions == null) {
+                partitions = new SpillFile[1 << PARTITION_BITS];
+                for (int i = 0; i < partitions.length; i++)
+                    partitions[i] = new SpillFile(spillDesc);
+                spillTuple = new Tuple(spillDesc);
             }
-            Tuple tuple = aggregate.get(groupField);
-            IntField field = (IntField) tuple.getField(1);
-            switch (what){
-                case MIN:
-                    if (operationField.compare(Predicate.Op.LESS_THAN,field)){
-                        tuple.setField(1,operationField);
-                        aggregate.put(groupField,tuple);
-                    }
-                    return;
-                case MAX:
-                    if (operationField.compare(Predicate.Op.GREATER_THAN,field)){
-                        tuple.setField(1,operationField);
-                        aggregate.put(groupField,tuple);
-                    }
-                    return;
-                case COUNT:
-                    tuple.setField(1,new IntField(field.getValue()+1));
-                    aggregate.put(groupField,tuple);
-                    return;
-                case SUM:
-                    IntField sum=new IntField(operationField.getValue()+field.getValue());
-                    tuple.setField(1,sum);
-                    aggregate.put(groupField,tuple);
-                    return;
-                case AVG:
-                    Integer counts = countsMap.getOrDefault(groupField,0);
-                    Integer summary = sumMap.getOrDefault(groupField,0);
-                    counts++;
-                    summary+=operationField.getValue();
-                    countsMap.put(groupField,counts);
-                    sumMap.put(groupField,summary);
-                    tuple.setField(1,new IntField(summary/counts));
-                    aggregate.put(groupField,tuple);
-                    return;
-                default:
-                    return;
+            spillTuple.setField(0, g);
+            spillTuple.setField(1, a);
+            if (what == Op.SC_AVG) {
+                spillTuple.setField(2, tup.getField(afield + 1));
+                spillTuple.setField(3, tup.getField(afield + 2));
             }
+            partitions[partitionOf(g)].add(spillTuple);
+            spilledTuples++;
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate groups: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deletes the partitions written to disk. The aggregator must not be
+     * used afterwards.
+     */
+    public void deleteSpillFiles() {
+        if (partitions != null) {
+            for (SpillFile f : partitions)
+                f.delete();
+        }
+        partitions = null;
+    }
+
+    /**
+     * @return true if the aggregate of no rows has a value: COUNT of no rows
+     *         is 0, the others are NULL
+     */
+    static boolean definedOnEmpty(Op what) {
+        return what == Op.COUNT;
+    }
+
+    private int result(int slot) {
+        switch (what) {
+            case COUNT:
+                return (int) counts[slot];
+            case AVG:
+            case SC_AVG:
+                return (int) (values[slot] / counts[slot]);
+            default:
+                return (int) values[slot];
         }
     }
 
     /**
      * Create a OpIterator over group aggregate results.
-     * 
+     *
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
      *         the constructor.
      */
     public OpIterator iterator() {
-        // some code goes here
-//        throw new
-//        UnsupportedOperationException("please implement me for lab2");
         return new IntOpIterator(this);
     }
 
-    public class IntOpIterator implements OpIterator{
+    public static class IntOpIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
 
-        private Iterator<Tuple> iterator;
-        private IntegerAggregator aggregator;
-        public IntOpIterator(IntegerAggregator aggregator)
-        {
-            this.aggregator=aggregator;
+        private final IntegerAggregator aggregator;
+        private boolean open;
+        private int slot;
+        private int partition;
+        private IntegerAggregator sub;
+        private OpIterator subIt;
+        private Tuple next;
+
+        public IntOpIterator(IntegerAggregator aggregator) {
+            this.aggregator = aggregator;
         }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            iterator=aggregator.aggregate.values().iterator();
+            open = true;
+            rewind();
+        }
+
+        /**
+         * @return the next result, aggregating the next partitions as needed,
+         *         or null if there are no more
+         */
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            IntegerAggregator agg = aggregator;
+            while (slot < agg.numGroups) {
+                int s = slot++;
+                // the group without grouping exists before a row is seen, but
+                // has a result only if its aggregate is defined on no rows
+                if (agg.counts[s] == 0 && !definedOnEmpty(agg.what))
+                    continue;
+                Tuple t = new Tuple(agg.tupleDesc);
+                int i = 0;
+                if (agg.gbfield != NO_GROUPING)
+                    t.setField(i++, agg.gbfieldtype == Type.INT_TYPE
+                            ? new IntField(agg.groupKeys[s]) : agg.groupFields[s]);
+                if (agg.what == Op.SUM_COUNT) {
+                    t.setField(i++, new IntField((int) (agg.values[s] >>> 32)));
+                    t.setField(i++, new IntField((int) agg.values[s]));
+                    t.setField(i, new IntField((int) agg.counts[s]));
+                } else {
+                    t.setField(i, new IntField(agg.result(s)));
+                }
+                return t;
+            }
+            while (true) {
+                if (subIt != null && subIt.hasNext())
+                    return subIt.next();
+                closeSub();
+                if (agg.partitions == null || partition == agg.partitions.length)
+                    return null;
+                SpillFile part = agg.partitions[partition++];
+                if (part.size() == 0)
+                    continue;
+                if (!agg.partitionsRead && agg.grant != null)
+                    agg.grant.spilled(agg.spilledTuples * MemoryManager.tupleBytes(agg.spillDesc));
+                agg.partitionsRead = true;
+                sub = new IntegerAggregator(0, agg.gbfieldtype, 1, agg.what, agg.maxGroups, agg.level + 1);
+                if (agg.grant != null)
+                    sub.setMemoryGrant(agg.grant.manager().open("IntegerAggregator partition"));
+                try {
+                    part.rewind();
+                    for (Tuple t; (t = part.next()) != null; )
+                        sub.mergeTupleIntoGroup(t);
+                } catch (IOException e) {
+                    throw new DbException("could not read aggregate partition: " + e.getMessage());
+                }
+                subIt = sub.iterator();
+                subIt.open();
+            }
+        }
+
+        private void closeSub() {
+            if (subIt != null)
+                subIt.close();
+            if (sub != null) {
+                sub.deleteSpillFiles();
+                if (sub.grant != null)
+                    sub.grant.close();
+            }
+            subIt = null;
+            sub = null;
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            return iterator.hasNext();
+            if (!open)
+                throw new IllegalStateException("iterator is closed");
+            if (next == null)
+                next = readNext();
+            return next != null;
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            return iterator.next();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
         }
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
-            iterator=aggregator.aggregate.values().iterator();
+            closeSub();
+            slot = 0;
+            partition = 0;
+            next = null;
         }
 
         @Override
@@ -261,7 +551,9 @@ public class IntegerAggregator implements Aggregator {
 
         @Override
         public void close() {
-            iterator=null;
+            closeSub();
+            open = false;
+            next = null;
         }
     }
 }
@@ -0,0 +1,105 @@
+package simpledb.execution;
+
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * LoserTree merges sorted runs into one sorted stream. Each internal node
+ * of a tournament tree over the runs remembers the run that lost the match
+ * played there, so replacing the winner's head replays only the matches on
+ * its path to the root: log2(k) comparisons per tuple for k runs.
+ * <p>
+ * Tuples that compare equal come out in run order, so merging runs cut from
+ * consecutive parts of an input in a stable way is stable as well.
+ */
+class LoserTree {
+
+    private final SpillFile[] runs;
+    private final Comparator<Tuple> cmp;
+    // the current tuple of each run, null once the run is exhausted
+    private final Tuple[] heads;
+    // tree[0] is the overall winner, tree[1..k-1] the losers of each match;
+    // run i plays as leaf k + i
+    private final int[] tree;
+
+    /**
+     * @param runs the runs to merge, each sorted by cmp; they are rewound
+     */
+    LoserTree(List<SpillFile> runs, Comparator<Tuple> cmp) throws IOException {
+        this.runs = runs.toArray(new SpillFile[0]);
+        this.cmp = cmp;
+        this.heads = new Tuple[this.runs.length];
+        this.tree = new int[Math.max(1, this.runs.length)];
+        rewind();
+    }
+
+    /**
+     * Restarts the merge from the first tuple of every run.
+     */
+    void rewind() throws IOException {
+        for (int i = 0; i < runs.length; i++) {
+            runs[i].rewind();
+            heads[i] = runs[i].next();
+        }
+        if (runs.length > 0)
+            tree[0] = play(1);
+    }
+
+    /**
+     * Plays the matches of the subtree rooted at node.
+     *
+     * @return the winner of the subtree
+     */
+    private int play(int node) {
+        int k = runs.length;
+        if (node >= k)
+            return node - k;
+        int a = play(2 * node);
+        int b = play(2 * node + 1);
+        if (beats(a, b)) {
+            tree[node] = b;
+            return a;
+        }
+        tree[node] = a;
+        return b;
+    }
+
+    /**
+     * @return true if the head of run a comes before the head of run b
+     */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * @return the next tuple in sorted order, or null if every run is
+     *         exhausted
+     */
+    Tuple next() throws IOException {
+        if (runs.length == 0)
+            return null;
+        int w = tree[0];
+        Tuple t = heads[w];
+        if (t == null)
+            return null;
+        heads[w] = runs[w].next();
+        for (int node = (w + runs.length) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], w)) {
+                int loser = w;
+                w = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = w;
+        return t;
+    }
+}
@@ -0,0 +1,224 @@
+package simpledb.execution;
+
+import simpledb.storage.TupleDesc;
+
+/**
+ * MemoryManager divides a fixed amount of memory among the operators that
+ * hold tuples in memory: the runs of an {@link OrderBy}, the build side of
+ * a {@link HashEquiJoin} and the groups of an {@link IntegerAggregator}.
+ * Each of them opens a {@link Grant} and reserves memory against it before
+ * it keeps more; when a reservation is refused, the operator spills what
+ * it holds to disk, releases it, and carries on.
+ * <p>
+ * A reservation is refused when the pool is exhausted, or when it would
+ * take the grant past its fair share, the capacity divided among the open
+ * grants. So as more operators run at once each is held to less memory
+ * and is told to spill sooner, instead of all of them growing until the
+ * JVM runs out of heap. A grant may always hold {@link #MIN_GRANT} bytes,
+ * even past the capacity, so that every operator can make progress.
+ * <p>
+ * Memory is counted in estimated bytes; see {@link #tupleBytes}. A grant
+ * takes memory from the pool in chunks of {@link #CHUNK} bytes, so that
+ * most reservations do not synchronize on the manager.
+ *
+ * @Threadsafe; each grant is used by a single thread
+ */
+public class MemoryManager {
+
+    /** the default capacity, a quarter of the largest heap of the JVM */
+    public static final long DEFAULT_BYTES = Runtime.getRuntime().maxMemory() / 4;
+    /** the bytes a grant may hold whatever the other grants hold */
+    public static final long MIN_GRANT = 256 * 1024;
+    /** the bytes a grant takes from the pool at a time */
+    static final long CHUNK = 64 * 1024;
+
+    private final long capacity;
+    private long used;
+    private long peak;
+    private int openGrants;
+    private long spills;
+    private long spilledBytes;
+
+    /**
+     * @param capacity the number of bytes to divide among the grants
+     */
+    public MemoryManager(long capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the estimated number of bytes a tuple of td takes up in
+     *         memory: the tuple and its field array, and each field
+     */
+    public static long tupleBytes(TupleDesc td) {
+        return 32 + 24L * td.numFields() + td.getSize();
+    }
+
+    /**
+     * Opens a grant for an operator, which must close it when it no longer
+     * holds its tuples.
+     *
+     * @param owner a name for the operator, for debugging
+     */
+    public synchronized Grant open(String owner) {
+        openGrants++;
+        return new Grant(owner);
+    }
+
+    /**
+     * @return the number of bytes divided among the grants
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes the open grants hold
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return the most bytes the grants have held at once
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return the number of grants open
+     */
+    public synchronized int getOpenGrants() {
+        return openGrants;
+    }
+
+    /**
+     * @return the number of times closed grants spilled to disk
+     */
+    public synchronized long getSpills() {
+        return spills;
+    }
+
+    /**
+     * @return the estimated bytes closed grants spilled to disk
+     */
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * @return the bytes a grant may hold now
+     */
+    private long share() {
+        return Math.max(MIN_GRANT, capacity / Math.max(openGrants, 1));
+    }
+
+    /**
+     * The memory held by one operator.
+     */
+    public class Grant {
+        private final String owner;
+        // bytes the operator holds, and bytes taken from the pool for it
+        private long held;
+        private long reserved;
+        private long spills;
+        private long spilledBytes;
+        private boolean closed;
+
+        private Grant(String owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Reserves bytes for the operator to keep in memory.
+         *
+         * @return false if the operator must spill what it holds instead
+         * @throws IllegalStateException if the grant is closed
+         */
+        public boolean reserve(long bytes) {
+            if (closed)
+                throw new IllegalStateException("grant of " + owner + " is closed");
+            if (held + bytes <= reserved) {
+                held += bytes;
+                return true;
+            }
+            synchronized (MemoryManager.this) {
+                long more = Math.max(held + bytes - reserved, CHUNK);
+                if (held + bytes > MIN_GRANT
+                        && (used + more > capacity || reserved + more > share()))
+                    return false;
+                reserved += more;
+                used += more;
+                peak = Math.max(peak, used);
+            }
+            held += bytes;
+            return true;
+        }
+
+        /**
+         * Releases all the bytes the operator holds, once it has spilled or
+         * dropped its tuples.
+         */
+        public void releaseAll() {
+            synchronized (MemoryManager.this) {
+                used -= reserved;
+            }
+            held = 0;
+            reserved = 0;
+        }
+
+        /**
+         * Records that the operator wrote tuples of the given estimated size
+         * to disk.
+         */
+        public void spilled(long bytes) {
+            spills++;
+            spilledBytes += bytes;
+        }
+
+        /**
+         * @return the manager the grant is from
+         */
+        public MemoryManager manager() {
+            return MemoryManager.this;
+        }
+
+        /**
+         * @return the bytes the operator holds
+         */
+        public long held() {
+            return held;
+        }
+
+        /**
+         * @return the number of times the operator spilled
+         */
+        public long spills() {
+            return spills;
+        }
+
+        /**
+         * Releases the grant's memory and adds its spills to the totals of
+         * the manager. Closing a grant twice has no effect.
+         */
+        public void close() {
+            if (closed)
+                return;
+            releaseAll();
+            closed = true;
+            synchronized (MemoryManager.this) {
+                openGrants--;
+                MemoryManager.this.spills += spills;
+                MemoryManager.this.spilledBytes += spilledBytes;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return owner + ": " + held + " bytes held, " + spills + " spills";
+        }
+    }
+}
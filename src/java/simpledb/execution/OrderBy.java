@@ -1,26 +1,56 @@
 package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Up to a memory budget of tuples is sorted in memory. Larger inputs are
+ * sorted externally: each budget's worth of tuples is sorted and written to
+ * a {@link SpillFile} as a run, and the runs are merged with a
+ * {@link LoserTree}, first into longer runs if there are more than
+ * MAX_MERGE_WIDTH of them.
+ * <p>
+ * The tuples held in memory are also reserved against a grant of the
+ * {@link MemoryManager}, and a run is spilled early when the grant refuses
+ * more, so that sorts running at the same time share the memory.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of tuples sorted in memory at once.
+     */
+    public static final int SORT_BUFFER_SIZE = 100000;
+
+    /**
+     * Largest number of runs merged at once.
+     */
+    public static final int MAX_MERGE_WIDTH = 64;
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
+    private final int[] orderByFields;
+    private final boolean[] asc;
     private final String orderByFieldName;
+    private final int maxTuples;
     private Iterator<Tuple> it;
-    private final boolean asc;
+
+    private transient List<SpillFile> runs;
+    private transient LoserTree merge;
+    private transient int runsSpilled;
+    private transient MemoryManager.Grant grant;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,27 +63,76 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields, each in its
+     * own direction: tuples are ordered by the first field, ties by the
+     * second, and so on.
+     *
+     * @param orderbyFields the fields to which the sort is applied
+     * @param asc           for each field, true if its order is ascending
+     * @param child         the tuples to sort
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, SORT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param orderbyFields the fields to which the sort is applied
+     * @param asc           for each field, true if its order is ascending
+     * @param child         the tuples to sort
+     * @param maxTuples     the number of tuples to sort in memory at once
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int maxTuples) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one direction per ORDER BY field");
+        if (maxTuples < 1)
+            throw new IllegalArgumentException("maxTuples must be positive");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.maxTuples = maxTuples;
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return the fields sorted on, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return whether each of the fields is sorted in ascending order
+     */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /**
+     * @return the number of sorted runs written to disk since the last open
+     */
+    public int runsSpilled() {
+        return runsSpilled;
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
@@ -62,21 +141,108 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        childTups.clear();
+        runs = new ArrayList<>();
+        runsSpilled = 0;
+        if (grant != null)
+            grant.close();
+        grant = Database.getMemoryManager().open("OrderBy");
+        long tupleBytes = MemoryManager.tupleBytes(td);
+        Comparator<Tuple> cmp = new TupleComparator(orderByFields, asc);
+        try {
+            // load up to maxTuples tuples at a time, or as many as the grant
+            // allows, sort them, and spill them as a run unless they are the
+            // whole input
+            while (child.hasNext()) {
+                childTups.add(child.next());
+                if ((childTups.size() == maxTuples || !grant.reserve(tupleBytes)) && child.hasNext())
+                    spill(childTups, cmp);
+            }
+            childTups.sort(cmp);
+            if (runs.isEmpty()) {
+                it = childTups.iterator();
+            } else {
+                spill(childTups, cmp);
+                while (runs.size() > MAX_MERGE_WIDTH)
+                    mergePass(cmp);
+                merge = new LoserTree(runs, cmp);
+            }
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("could not spill sorted run: " + e.getMessage());
+        }
         super.open();
     }
 
+    /**
+     * Sorts tuples, writes them to a new run and clears them, releasing
+     * their memory.
+     */
+    private void spill(List<Tuple> tuples, Comparator<Tuple> cmp) throws IOException {
+        tuples.sort(cmp);
+        SpillFile run = new SpillFile(td);
+        runs.add(run);
+        runsSpilled++;
+        for (Tuple t : tuples)
+            run.add(t);
+        grant.spilled(tuples.size() * MemoryManager.tupleBytes(td));
+        grant.releaseAll();
+        tuples.clear();
+    }
+
+    /**
+     * Merges each group of MAX_MERGE_WIDTH consecutive runs into one, so that
+     * a pass reads every tuple once. Keeping the merged runs in the order of
+     * their groups keeps the sort stable.
+     */
+    private void mergePass(Comparator<Tuple> cmp) throws IOException {
+        List<SpillFile> merged = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += MAX_MERGE_WIDTH) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + MAX_MERGE_WIDTH, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            LoserTree tree = new LoserTree(group, cmp);
+            SpillFile run = new SpillFile(td);
+            merged.add(run);
+            for (Tuple t = tree.next(); t != null; t = tree.next())
+                run.add(t);
+            for (SpillFile r : group)
+                r.delete();
+        }
+        runs = merged;
+    }
+
+    private void deleteRuns() {
+        if (runs != null)
+            for (SpillFile run : runs)
+                run.delete();
+        runs = null;
+        merge = null;
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        childTups.clear();
+        deleteRuns();
+        if (grant != null)
+            grant.close();
+        grant = null;
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        if (merge == null) {
+            it = childTups.iterator();
+            return;
+        }
+        try {
+            merge.rewind();
+        } catch (IOException e) {
+            throw new DbException("could not read sorted run: " + e.getMessage());
+        }
     }
 
     /**
@@ -86,7 +252,14 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (merge != null) {
+            try {
+                return merge.next();
+            } catch (IOException e) {
+                throw new DbException("could not read sorted run: " + e.getMessage());
+            }
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -104,25 +277,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,152 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipeline fuses a chain of {@link Filter}s and {@link Project}s over a
+ * {@link SeqScan} into a single loop that pushes each tuple of the scanned
+ * file through the whole chain, instead of pulling it through a
+ * hasNext/next pair per operator.
+ * <p>
+ * The chain is compiled once, by {@link #compile}, into nested closures:
+ * consecutive filters become a single matcher from
+ * {@link PredicateCompiler}, and each projection copies field references
+ * into one tuple reused for every row. The loop hands the tuples that come
+ * out of the chain to a {@link Sink}, for instance an {@link Aggregator},
+ * which {@link Aggregate} does when its child is such a chain.
+ */
+public final class Pipeline {
+
+    /**
+     * Receives the tuples a pipeline produces. The tuple passed to
+     * {@link #accept} may be reused for the next one, so a sink must copy
+     * out what it keeps; the fields themselves may be kept.
+     */
+    public interface Sink {
+        void accept(Tuple t);
+    }
+
+    /**
+     * One operator of the chain, as a function from the sink of its output
+     * to the sink of its input.
+     */
+    private interface Stage {
+        Sink wrap(Sink next);
+    }
+
+    private final SeqScan scan;
+    private final List<Stage> stages;
+    private final TupleDesc td;
+
+    private Pipeline(SeqScan scan, List<Stage> stages, TupleDesc td) {
+        this.scan = scan;
+        this.stages = stages;
+        this.td = td;
+    }
+
+    /**
+     * @return the pipeline computing plan, or null if plan is not a chain
+     *         of Filters and Projects over a serial SeqScan
+     */
+    public static Pipeline compile(OpIterator plan) {
+        List<OpIterator> chain = new ArrayList<>();
+        OpIterator op = plan;
+        // only the operators themselves: a subclass may behave differently
+        while (op.getClass() == Filter.class || op.getClass() == Project.class) {
+            chain.add(op);
+            op = ((Operator) op).getChildren()[0];
+        }
+        if (op.getClass() != SeqScan.class || ((SeqScan) op).getParallelism() > 1)
+            return null;
+
+        // build the stages bottom up, merging adjacent filters
+        List<Stage> stages = new ArrayList<>();
+        List<Predicate> predicates = new ArrayList<>();
+        TupleDesc below = op.getTupleDesc();
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            OpIterator o = chain.get(i);
+            if (o instanceof Filter) {
+                predicates.addAll(((Filter) o).getPredicates());
+                continue;
+            }
+            if (!predicates.isEmpty()) {
+                stages.add(filter(PredicateCompiler.compile(predicates, below)));
+                predicates = new ArrayList<>();
+            }
+            Project p = (Project) o;
+            stages.add(project(p.getOutFieldIds(), p.getTupleDesc()));
+            below = p.getTupleDesc();
+        }
+        if (!predicates.isEmpty())
+            stages.add(filter(PredicateCompiler.compile(predicates, below)));
+        return new Pipeline((SeqScan) op, stages, plan.getTupleDesc());
+    }
+
+    private static Stage filter(PredicateCompiler.Matcher m) {
+        return next -> t -> {
+            if (m.matches(t))
+                next.accept(t);
+        };
+    }
+
+    private static Stage project(List<Integer> fields, TupleDesc td) {
+        int[] ids = new int[fields.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = fields.get(i);
+        return next -> {
+            Tuple out = new Tuple(td);
+            return t -> {
+                for (int i = 0; i < ids.length; i++)
+                    out.setField(i, t.getField(ids[i]));
+                next.accept(out);
+            };
+        };
+    }
+
+    /**
+     * @return the scan at the bottom of the chain
+     */
+    public SeqScan getScan() {
+        return scan;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples the pipeline produces, that of the
+     *         top of the chain
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Runs the chain over all the tuples of the scan.
+     */
+    public void run(Sink sink) throws DbException, TransactionAbortedException {
+        run(scan.fileIterator(), sink);
+    }
+
+    /**
+     * Runs the chain over the tuples of source, such as a page range of the
+     * scanned file, handing the tuples it produces to sink. Runs over
+     * different sources may go on in different threads at once.
+     */
+    public void run(DbFileIterator source, Sink sink) throws DbException, TransactionAbortedException {
+        Sink s = sink;
+        for (int i = stages.size() - 1; i >= 0; i--)
+            s = stages.get(i).wrap(s);
+        source.open();
+        try {
+            while (source.hasNext())
+                s.accept(source.next());
+        } finally {
+            source.close();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package simpledb.execution;
 
+import simpledb.storage.EncodedStringField;
 import simpledb.storage.Field;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -49,6 +52,20 @@ public class Predicate implements Serializable {
     private int field;
     private Op op;
     private Field operand;
+    /** the operand's code in the dictionary it was last looked up in */
+    private transient volatile OperandCode operandCode;
+
+    private static class OperandCode {
+        final StringDictionary dictionary;
+        final int dictionarySize;
+        final int code;
+
+        OperandCode(StringDictionary dictionary, int dictionarySize, int code) {
+            this.dictionary = dictionary;
+            this.dictionarySize = dictionarySize;
+            this.code = code;
+        }
+    }
     
     /**
      * Constructor.
@@ -110,9 +127,29 @@ public class Predicate implements Serializable {
             return false;
         }
         Field f = t.getField(this.field);
+        if (f instanceof EncodedStringField && (op == Op.EQUALS || op == Op.NOT_EQUALS)) {
+            EncodedStringField e = (EncodedStringField) f;
+            return (e.getCode() == operandCode(e.getDictionary())) == (op == Op.EQUALS);
+        }
         return f.compare(op,operand);
     }
 
+    /**
+     * @return the code of the operand in dictionary, or -1 if it is not in
+     *         it; looked up once per dictionary, and again only if the operand
+     *         was missing and the dictionary has grown since
+     */
+    private int operandCode(StringDictionary dictionary) {
+        OperandCode c = operandCode;
+        if (c == null || c.dictionary != dictionary
+                || (c.code == -1 && dictionary.size() != c.dictionarySize)) {
+            int size = dictionary.size();
+            c = new OperandCode(dictionary, size, dictionary.lookup(((StringField) operand).getValue()));
+            operandCode = c;
+        }
+        return c.code;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
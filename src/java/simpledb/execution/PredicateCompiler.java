@@ -0,0 +1,230 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PredicateCompiler turns a conjunction of {@link Predicate}s into a
+ * {@link Matcher} specialized for it, once per plan rather than per tuple.
+ * <p>
+ * Predicates over an INT field are folded, per field, into a single range
+ * check: <code>a &gt; 3 AND a &lt;= 10</code> becomes one comparison of the
+ * primitive value against the closed range [4, 10], with the operator
+ * resolved up front instead of switched on for every tuple as in
+ * {@link simpledb.storage.IntField#compare}. A conjunction that no value can
+ * satisfy matches nothing. Predicates over STRING fields are evaluated by
+ * {@link Predicate#filter}, after the INT checks, so that they only see the
+ * tuples those let through.
+ */
+public final class PredicateCompiler {
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * A compiled conjunction of predicates.
+     */
+    public interface Matcher {
+        /** @return true if t satisfies every predicate */
+        boolean matches(Tuple t);
+    }
+
+    /** the matcher of an empty conjunction */
+    static final Matcher ALL = t -> true;
+    /** the matcher of a conjunction no tuple satisfies */
+    static final Matcher NONE = t -> false;
+
+    /**
+     * @param p  the predicate to compile
+     * @param td the TupleDesc of the tuples it will be applied to
+     */
+    public static Matcher compile(Predicate p, TupleDesc td) {
+        List<Predicate> ps = new ArrayList<>(1);
+        ps.add(p);
+        return compile(ps, td);
+    }
+
+    /**
+     * @param ps the predicates to compile, all of which a tuple must satisfy
+     * @param td the TupleDesc of the tuples they will be applied to
+     */
+    public static Matcher compile(List<Predicate> ps, TupleDesc td) {
+        Map<Integer, long[]> ranges = new LinkedHashMap<>();
+        List<Matcher> ints = new ArrayList<>();
+        List<Matcher> others = new ArrayList<>();
+        for (Predicate p : ps) {
+            int f = p.getField();
+            if (td.getFieldType(f) != Type.INT_TYPE) {
+                others.add(p::filter);
+                continue;
+            }
+            long c = ((IntField) p.getOperand()).getValue();
+            if (p.getOp() == Predicate.Op.NOT_EQUALS) {
+                ints.add(new IntNotEquals(f, (int) c));
+                continue;
+            }
+            long[] r = ranges.computeIfAbsent(f, k -> new long[]{Integer.MIN_VALUE, Integer.MAX_VALUE});
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    r[0] = Math.max(r[0], c);
+                    r[1] = Math.min(r[1], c);
+                    break;
+                case GREATER_THAN:
+                    r[0] = Math.max(r[0], c + 1);
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    r[0] = Math.max(r[0], c);
+                    break;
+                case LESS_THAN:
+                    r[1] = Math.min(r[1], c - 1);
+                    break;
+                case LESS_THAN_OR_EQ:
+                    r[1] = Math.min(r[1], c);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported operator " + p.getOp());
+            }
+        }
+        List<Matcher> ms = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> e : ranges.entrySet()) {
+            long lo = e.getValue()[0], hi = e.getValue()[1];
+            if (lo > hi)
+                return NONE;
+            ms.add(range(e.getKey(), (int) lo, (int) hi));
+        }
+        ms.addAll(ints);
+        ms.addAll(others);
+        return and(ms);
+    }
+
+    private static Matcher range(int f, int lo, int hi) {
+        if (lo == hi)
+            return new IntEquals(f, lo);
+        if (hi == Integer.MAX_VALUE)
+            return new IntAtLeast(f, lo);
+        if (lo == Integer.MIN_VALUE)
+            return new IntAtMost(f, hi);
+        return new IntBetween(f, lo, hi);
+    }
+
+    private static Matcher and(List<Matcher> ms) {
+        switch (ms.size()) {
+            case 0:
+                return ALL;
+            case 1:
+                return ms.get(0);
+            case 2:
+                return new And2(ms.get(0), ms.get(1));
+            default:
+                return new AndN(ms.toArray(new Matcher[0]));
+        }
+    }
+
+    private static int intValue(Tuple t, int f) {
+        return ((IntField) t.getField(f)).getValue();
+    }
+
+    private static final class IntEquals implements Matcher {
+        private final int f, c;
+
+        IntEquals(int f, int c) {
+            this.f = f;
+            this.c = c;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, f) == c;
+        }
+    }
+
+    private static final class IntNotEquals implements Matcher {
+        private final int f, c;
+
+        IntNotEquals(int f, int c) {
+            this.f = f;
+            this.c = c;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, f) != c;
+        }
+    }
+
+    private static final class IntAtLeast implements Matcher {
+        private final int f, lo;
+
+        IntAtLeast(int f, int lo) {
+            this.f = f;
+            this.lo = lo;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, f) >= lo;
+        }
+    }
+
+    private static final class IntAtMost implements Matcher {
+        private final int f, hi;
+
+        IntAtMost(int f, int hi) {
+            this.f = f;
+            this.hi = hi;
+        }
+
+        public boolean matches(Tuple t) {
+            return intValue(t, f) <= hi;
+        }
+    }
+
+    private static final class IntBetween implements Matcher {
+        private final int f, lo, width;
+
+        IntBetween(int f, int lo, int hi) {
+            this.f = f;
+            this.lo = lo;
+            this.width = hi - lo;
+        }
+
+        public boolean matches(Tuple t) {
+            // one unsigned comparison checks both bounds
+            return Integer.compareUnsigned(intValue(t, f) - lo, width) <= 0;
+        }
+    }
+
+    private static final class And2 implements Matcher {
+        private final Matcher a, b;
+
+        And2(Matcher a, Matcher b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        public boolean matches(Tuple t) {
+            return a.matches(t) && b.matches(t);
+        }
+    }
+
+    private static final class AndN implements Matcher {
+        private final Matcher[] ms;
+
+        AndN(Matcher[] ms) {
+            this.ms = ms;
+        }
+
+        public boolean matches(Tuple t) {
+            for (Matcher m : ms) {
+                if (!m.matches(t))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
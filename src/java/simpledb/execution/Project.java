@@ -48,6 +48,14 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the ids of the child's fields that are projected out, in
+     *         output order
+     */
+    public List<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
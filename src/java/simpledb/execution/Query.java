@@ -1,6 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.transaction.AdmissionController;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.DbException;
@@ -15,6 +17,12 @@ import java.util.*;
  * plan in the form of a high level OpIterator (built by initiating the
  * constructors of query plans) and runs it as a part of a specified
  * transaction.
+ * <p>
+ * A query waits in {@link #start} until the admission controller lets it
+ * run, as an analytic query if its plan joins, sorts, aggregates or runs
+ * in parallel, and as an OLTP query otherwise. Like a transaction's wait,
+ * the wait is bounded: start throws TransactionAbortedException if the
+ * query is not admitted in time.
  * 
  * @author Sam Madden
  */
@@ -27,6 +35,9 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
+    // the controller that admitted the query, or null
+    transient private AdmissionController admission;
+    transient private AdmissionController.Workload workload;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -57,13 +68,53 @@ public class Query implements Serializable {
         tid = t;
     }
 
+    /**
+     * @return the queue the query is admitted from
+     */
+    public AdmissionController.Workload getWorkload() {
+        return isAnalytic(op) ? AdmissionController.Workload.ANALYTIC : AdmissionController.Workload.OLTP;
+    }
+
+    private static boolean isAnalytic(OpIterator it) {
+        if (it instanceof Aggregate || it instanceof SortedAggregate || it instanceof OrderBy
+                || it instanceof TopN || it instanceof Exchange || it instanceof BatchToRow)
+            return true;
+        if (!(it instanceof Operator))
+            return false;
+        OpIterator[] children = ((Operator) it).getChildren();
+        if (children.length > 1)
+            return true;
+        for (OpIterator child : children)
+            if (child != null && isAnalytic(child))
+                return true;
+        return false;
+    }
+
     public void start() throws DbException,
             TransactionAbortedException {
-        op.open();
+        if (admission == null) {
+            AdmissionController ac = Database.getAdmissionController();
+            AdmissionController.Workload w = getWorkload();
+            ac.admitQuery(tid, w);
+            admission = ac;
+            workload = w;
+        }
+        try {
+            op.open();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            release();
+            throw e;
+        }
 
         started = true;
     }
 
+    private void release() {
+        if (admission != null)
+            admission.queryComplete(tid, workload);
+        admission = null;
+    }
+
     public TupleDesc getOutputTupleDesc() {
         return this.op.getTupleDesc();
     }
@@ -97,6 +148,7 @@ public class Query implements Serializable {
     public void close() {
         op.close();
         started = false;
+        release();
     }
 
     public void execute() throws DbException, TransactionAbortedException {
@@ -0,0 +1,202 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repartition is an {@link Exchange} that runs its inputs in parallel and
+ * splits their tuples by a hash of one field into several outputs, so that
+ * all tuples with the same value of the field come out of the same output.
+ * The outputs are meant to be read by different threads, for instance by
+ * the inputs of a {@link Gather}; they are created together by
+ * {@link #outputs}.
+ * <p>
+ * Each output has a bounded queue, so the inputs only run ahead of the
+ * slowest output by {@link #QUEUE_PACKETS} packets. The inputs start when
+ * the first output is opened and stop once every output has been closed;
+ * the tuples of an output that is closed early are dropped. An output can
+ * be read only once: it cannot be rewound or opened again.
+ */
+public class Repartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Shared shared;
+    private final int output;
+
+    private transient Iterator<Tuple> packet;
+
+    private Repartition(Shared shared, int output) {
+        this.shared = shared;
+        this.output = output;
+    }
+
+    /**
+     * Creates the outputs of a repartitioning of the given inputs.
+     *
+     * @param inputs the plan fragments to run in parallel
+     * @param field  the field whose hash chooses the output of a tuple
+     * @param ways   the number of outputs
+     * @return the outputs, in partition order
+     */
+    public static Repartition[] outputs(OpIterator[] inputs, int field, int ways) {
+        checkInputs(inputs);
+        if (ways < 1)
+            throw new IllegalArgumentException("need at least one output");
+        Shared shared = new Shared(inputs.clone(), field, ways);
+        Repartition[] outputs = new Repartition[ways];
+        for (int i = 0; i < ways; i++)
+            outputs[i] = new Repartition(shared, i);
+        return outputs;
+    }
+
+    public String getName() {
+        return "repartition(" + shared.producers.inputs().length + "->" + (output + 1)
+                + "/" + shared.queues.length + ")";
+    }
+
+    /**
+     * @return the field whose hash chooses the output of a tuple
+     */
+    public int getField() {
+        return shared.field;
+    }
+
+    /**
+     * @return the number of outputs
+     */
+    public int getWays() {
+        return shared.queues.length;
+    }
+
+    /**
+     * The state shared by the outputs of one repartitioning.
+     */
+    private static final class Shared implements ExchangeProducers.Router {
+        final ExchangeProducers producers;
+        final int field;
+        final BlockingQueue<List<Tuple>>[] queues;
+        // per output: 0 not opened yet, 1 open, 2 closed
+        final int[] state;
+        volatile boolean finished;
+        volatile Exception error;
+
+        @SuppressWarnings("unchecked")
+        Shared(OpIterator[] inputs, int field, int ways) {
+            this.field = field;
+            this.queues = (BlockingQueue<List<Tuple>>[]) new BlockingQueue<?>[ways];
+            for (int i = 0; i < ways; i++)
+                queues[i] = new ArrayBlockingQueue<>(QUEUE_PACKETS);
+            this.state = new int[ways];
+            this.producers = new ExchangeProducers(inputs, this, "repartition");
+        }
+
+        public int destinations() {
+            return queues.length;
+        }
+
+        public int route(Tuple t) {
+            int h = t.getField(field).hashCode() * 0x9E3779B9;
+            return Math.floorMod(h ^ (h >>> 16), queues.length);
+        }
+
+        private synchronized boolean isClosed(int i) {
+            return state[i] == 2;
+        }
+
+        public void deliver(int destination, List<Tuple> p) throws InterruptedException {
+            while (!isClosed(destination) && !producers.isStopped()) {
+                if (queues[destination].offer(p, 10, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        }
+
+        public void finished(Exception e) {
+            error = e;
+            finished = true;
+        }
+
+        synchronized void open(int i) throws DbException {
+            if (state[i] != 0)
+                throw new DbException("a repartitioned stream can be read only once");
+            state[i] = 1;
+            if (!producers.isStarted())
+                producers.start();
+        }
+
+        void close(int i) {
+            boolean last;
+            synchronized (this) {
+                state[i] = 2;
+                queues[i].clear();
+                last = true;
+                for (int s : state)
+                    last &= s == 2;
+            }
+            if (last)
+                producers.stop();
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        shared.open(output);
+        packet = Collections.emptyIterator();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        BlockingQueue<List<Tuple>> queue = shared.queues[output];
+        while (!packet.hasNext()) {
+            List<Tuple> p;
+            try {
+                p = queue.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while repartitioning tuples");
+            }
+            if (p != null) {
+                packet = p.iterator();
+            } else if (shared.finished && queue.isEmpty()) {
+                rethrow(shared.error);
+                return null;
+            }
+        }
+        return packet.next();
+    }
+
+    /**
+     * @throws DbException always: the inputs are not run again
+     */
+    public void rewind() throws DbException {
+        throw new DbException("a repartitioned stream cannot be rewound");
+    }
+
+    public void close() {
+        super.close();
+        if (packet != null)
+            shared.close(output);
+        packet = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return shared.producers.inputs().clone();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always: the inputs are shared
+     *         with the other outputs
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        throw new UnsupportedOperationException("the inputs of a repartitioning are shared by its outputs");
+    }
+}
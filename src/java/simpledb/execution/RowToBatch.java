@@ -0,0 +1,54 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * RowToBatch feeds the tuples of a row operator to batch operators, by
+ * gathering them into batches of {@link TupleBatch#DEFAULT_CAPACITY} rows.
+ *
+ * @see BatchToRow
+ */
+public class RowToBatch extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the row operator to read tuples from
+     */
+    public RowToBatch(OpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc());
+        super.open();
+    }
+
+    protected TupleBatch fetchNext() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.add(child.next());
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearNext();
+        child.rewind();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+}
@@ -2,7 +2,11 @@ package simpledb.execution;
 
 import simpledb.common.Catalog;
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxColumnIterator;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
@@ -22,6 +26,15 @@ public class SeqScan implements OpIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The column index that stands, in {@link #setColumns}, for a reference
+     * to the row each tuple was read from; see {@link HeapFile#rowReference}.
+     */
+    public static final int ROW_REFERENCE = -1;
+
+    /** the name of the row reference field, after the table alias */
+    public static final String ROW_REFERENCE_NAME = "$rowref";
+
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
@@ -30,6 +43,16 @@ public class SeqScan implements OpIterator {
     private TupleDesc tupleDesc;
     private DbFile file;
     private DbFileIterator iterator;
+    private final List<Predicate> pageFilters = new ArrayList<>();
+    private int startPage = 0;
+    private int endPage = Integer.MAX_VALUE;
+    private int parallelism = 1;
+    private Gather gather;
+    private int[] columns;
+    private int runtimeField;
+    private BloomFilter runtimeFilter;
+    private transient Tuple lookahead;
+    private transient int runtimeDropped;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -104,6 +127,8 @@ public class SeqScan implements OpIterator {
         this.tableName = this.catalog.getTableName(tableid);
         this.file= catalog.getDatabaseFile(tableid);
         this.tupleDesc = changeTupleDesc(catalog.getTupleDesc(tableid), tableAlias);
+        this.pageFilters.clear();
+        this.columns = null;
         try {
             open();
         } catch (DbException | TransactionAbortedException e) {
@@ -111,16 +136,379 @@ public class SeqScan implements OpIterator {
         }
     }
 
+    /**
+     * Makes the scan return only the given fields of the table, in that
+     * order, so that the operators above it carry narrower tuples. Field
+     * indexes passed to the scan afterwards, and those of the tuples its
+     * iterators return, refer to its narrowed TupleDesc. Must be called
+     * before any page filter is added.
+     * <p>
+     * A scan of a HeapFile may also return, as an INT field named
+     * alias.{@value #ROW_REFERENCE_NAME}, a reference to the row each tuple
+     * comes from, given as {@link #ROW_REFERENCE} among the fields. A
+     * {@link Fetch} then reads the other fields of the rows later on.
+     *
+     * @param fields the indexes of the fields in the table's TupleDesc, or
+     *               null for all of them
+     * @throws IllegalStateException if the scan already has page filters,
+     *         or a row reference is asked of a table other than a HeapFile
+     */
+    public void setColumns(int[] fields) {
+        if (!pageFilters.isEmpty())
+            throw new IllegalStateException("columns must be set before page filters");
+        TupleDesc td = changeTupleDesc(catalog.getTupleDesc(tableid), tableAlias);
+        if (fields == null) {
+            this.columns = null;
+            this.tupleDesc = td;
+            return;
+        }
+        ArrayList<TupleDesc.TDItem> items = new ArrayList<>();
+        for (int f : fields) {
+            if (f != ROW_REFERENCE) {
+                items.add(td.getTdItems().get(f));
+            } else if (file instanceof HeapFile) {
+                items.add(new TupleDesc.TDItem(Type.INT_TYPE, tableAlias + "." + ROW_REFERENCE_NAME));
+            } else {
+                throw new IllegalStateException("table " + tableName + " is not a heap file");
+            }
+        }
+        TupleDesc narrow = new TupleDesc();
+        narrow.setTdItems(items);
+        this.columns = fields.clone();
+        this.tupleDesc = narrow;
+    }
+
+    /**
+     * @return the indexes in the table's TupleDesc of the fields the scan
+     *         returns, or null if it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the index in the table's TupleDesc of field f of this scan
+     */
+    private int tableField(int f) {
+        return columns == null ? f : columns[f];
+    }
+
+    /**
+     * @return it, returning only the scan's columns of the tuples it reads
+     */
+    private DbFileIterator narrow(DbFileIterator it) {
+        return columns == null ? it : new Narrow(it, columns, tupleDesc);
+    }
+
+    /**
+     * @return true if the scanned table is a HeapFile stored in the PAX
+     *         layout, so its INT columns can be read with {@link #columnIterator}.
+     */
+    public boolean isColumnar() {
+        return file instanceof HeapFile && ((HeapFile) file).getLayout() == HeapFile.Layout.PAX;
+    }
+
+    /**
+     * Returns an iterator that reads only the given INT fields of the
+     * scanned table, page by page, as part of this scan's transaction. It
+     * reads the pages of this scan's page range, but does not apply its
+     * runtime filter.
+     *
+     * @param fields the indexes of the fields to read, in this scan's TupleDesc
+     * @throws IllegalStateException if the table is not columnar
+     * @see #isColumnar()
+     */
+    public PaxColumnIterator columnIterator(int[] fields) {
+        if (!isColumnar())
+            throw new IllegalStateException("table " + tableName + " is not stored in the PAX layout");
+        int[] tableFields = new int[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            tableFields[i] = tableField(fields[i]);
+        return new PaxColumnIterator((HeapFile) file, tid, tableFields, startPage, endPage);
+    }
+
+    /**
+     * @return the number of pages of the scanned table if it is a HeapFile,
+     *         whose page ranges can be read with {@link #pageRangeIterator},
+     *         or -1 otherwise
+     */
+    public int heapPages() {
+        return file instanceof HeapFile ? ((HeapFile) file).numPages() : -1;
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages startPage (inclusive) to
+     * endPage (exclusive) of the scanned HeapFile, as part of this scan's
+     * transaction. Iterators over disjoint ranges may be read by different
+     * threads at once. The tuples hold this scan's columns, but carry the
+     * table's own field names rather than this scan's aliased ones.
+     *
+     * @throws IllegalStateException if the table is not a HeapFile
+     * @see #heapPages()
+     */
+    public DbFileIterator pageRangeIterator(int startPage, int endPage) {
+        if (!(file instanceof HeapFile))
+            throw new IllegalStateException("table " + tableName + " is not a heap file");
+        return narrow(((HeapFile) file).iterator(tid, startPage, endPage));
+    }
+
+    /**
+     * @return the field by which the scan returns tuples in ascending
+     *         order, or -1 if there is none. Only scans of a BTreeFile, which
+     *         return tuples in key order, are sorted, and only if they
+     *         return its key.
+     */
+    public int sortedField() {
+        if (!(file instanceof BTreeFile))
+            return -1;
+        int key = ((BTreeFile) file).keyField();
+        if (columns == null)
+            return key;
+        for (int i = 0; i < columns.length; i++)
+            if (columns[i] == key)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Returns an iterator over the tuples of the scanned BTreeFile whose key
+     * satisfies ipred, as part of this scan's transaction. The tuples hold
+     * this scan's columns, but carry the table's own field names rather
+     * than this scan's aliased ones.
+     *
+     * @throws IllegalStateException if the table is not a BTreeFile
+     * @see #sortedField()
+     */
+    public DbFileIterator indexIterator(IndexPredicate ipred) {
+        if (!(file instanceof BTreeFile))
+            throw new IllegalStateException("table " + tableName + " is not a B+ tree");
+        return narrow(((BTreeFile) file).indexIterator(tid, ipred));
+    }
+
+    /**
+     * Lets the scan skip pages of a HeapFile whose zone map shows that no
+     * tuple on them satisfies p. The scan may still return tuples that do not
+     * satisfy p, so it must be applied by a Filter above the scan as well.
+     * Takes effect the next time the scan is opened.
+     *
+     * @param p a predicate over the fields of this scan's TupleDesc
+     * @see simpledb.storage.ZoneMap
+     */
+    public void addPageFilter(Predicate p) {
+        // the zone maps are kept by field of the table
+        pageFilters.add(columns == null ? p
+                : new Predicate(tableField(p.getField()), p.getOp(), p.getOperand()));
+    }
+
+    /**
+     * Makes the scan drop, until it is closed, the tuples whose field is
+     * certainly not in filter. A {@link HashEquiJoin} sets it, once its
+     * build side is read, on the scan of its probe side, so that tuples
+     * without a match are dropped before the operators between them. Takes
+     * effect from the next tuple the scan returns.
+     *
+     * @param field  the field of this scan's TupleDesc to test
+     * @param filter the keys to keep, or null to keep every tuple
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtimeField = field;
+        this.runtimeFilter = filter;
+    }
+
+    /**
+     * @return true if the scan has a runtime filter
+     */
+    public boolean hasRuntimeFilter() {
+        return runtimeFilter != null;
+    }
+
+    /**
+     * @return the number of tuples dropped by the runtime filter since the
+     *         scan was opened
+     */
+    public int runtimeFiltered() {
+        return runtimeDropped;
+    }
+
+    /**
+     * Returns a scan of pages startPage (inclusive) to endPage (exclusive) of
+     * the same HeapFile, with the same alias and page filters, as part of
+     * the same transaction. Scans of disjoint page ranges may be read by
+     * different threads at once.
+     *
+     * @throws IllegalStateException if the table is not a HeapFile
+     * @see #heapPages()
+     */
+    public SeqScan pageRange(int startPage, int endPage) {
+        if (!(file instanceof HeapFile))
+            throw new IllegalStateException("table " + tableName + " is not a heap file");
+        SeqScan scan = new SeqScan(tid, tableid, tableAlias);
+        scan.setColumns(columns);
+        scan.pageFilters.addAll(pageFilters);
+        scan.startPage = startPage;
+        scan.endPage = endPage;
+        return scan;
+    }
+
+    /**
+     * @return the first page this scan reads
+     */
+    public int getStartPage() {
+        return startPage;
+    }
+
+    /**
+     * @return the page after the last page this scan reads, which may be
+     *         past the end of the table
+     */
+    public int getEndPage() {
+        return endPage;
+    }
+
+    /**
+     * Sets the number of threads the scan reads the table with, each
+     * reading a part of it as split by {@link DbFile#splitIterators}. With
+     * more than one thread the tuples come in no particular order, and
+     * rewinding the scan reads the table again. Takes effect the next time
+     * the scan is opened.
+     *
+     * @param n the number of threads, 1 for a serial scan
+     */
+    public void setParallelism(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        parallelism = n;
+    }
+
+    /**
+     * @return the number of threads the scan reads the table with
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * One part of a parallel scan, read on a thread of a {@link Gather}.
+     */
+    private static class Split implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final DbFileIterator it;
+        private final TupleDesc td;
+
+        Split(DbFileIterator it, TupleDesc td) {
+            this.it = it;
+            this.td = td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return it.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            it.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            it.close();
+        }
+    }
+
+    /**
+     * Keeps the given fields of the tuples of an iterator over the table.
+     */
+    private static class Narrow implements DbFileIterator {
+        private final DbFileIterator it;
+        private final int[] columns;
+        private final TupleDesc td;
+
+        Narrow(DbFileIterator it, int[] columns, TupleDesc td) {
+            this.it = it;
+            this.columns = columns;
+            this.td = td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return it.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            Tuple t = it.next();
+            Tuple out = new Tuple(td);
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] == ROW_REFERENCE)
+                    out.setField(i, new IntField(HeapFile.rowReference(t.getRecordId())));
+                else
+                    out.setField(i, t.getField(columns[i]));
+            }
+            // keep the record id, so that the tuple can still be deleted
+            out.setRecordId(t.getRecordId());
+            return out;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            it.rewind();
+        }
+
+        public void close() {
+            it.close();
+        }
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.iterator=this.file.iterator(tid);
+        gather = null;
+        lookahead = null;
+        runtimeDropped = 0;
+        if (parallelism > 1) {
+            List<DbFileIterator> parts = file instanceof HeapFile
+                    ? ((HeapFile) file).splitIterators(tid, new ArrayList<>(pageFilters), startPage, endPage, parallelism)
+                    : file.splitIterators(tid, parallelism);
+            if (parts.size() > 1) {
+                OpIterator[] inputs = new OpIterator[parts.size()];
+                for (int i = 0; i < inputs.length; i++)
+                    inputs[i] = new Split(narrow(parts.get(i)), tupleDesc);
+                gather = new Gather(inputs);
+                gather.open();
+                return;
+            }
+        }
+        this.iterator=fileIterator();
         iterator.open();
     }
 
+    /**
+     * Returns an iterator over the tuples a serial run of this scan reads,
+     * with its page range, page filters and columns, as part of this scan's
+     * transaction. The tuples carry the table's own field names rather than
+     * this scan's aliased ones.
+     */
+    public DbFileIterator fileIterator() {
+        if (file instanceof HeapFile && (!pageFilters.isEmpty() || startPage > 0 || endPage < Integer.MAX_VALUE))
+            return narrow(((HeapFile) file).iterator(tid, new ArrayList<>(pageFilters), startPage, endPage));
+        return narrow(file.iterator(tid));
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -128,6 +516,8 @@ public class SeqScan implements OpIterator {
      * name.  The alias and name should be separated with a "." character
      * (e.g., "alias.fieldName").
      *
+     * Only the fields set with {@link #setColumns} are included.
+     *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
@@ -137,7 +527,34 @@ public class SeqScan implements OpIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (runtimeFilter == null)
+            return lookahead != null || readHasNext();
+        while (lookahead == null && readHasNext()) {
+            Tuple t = readNext();
+            if (runtimeFilter.mightContain(t.getField(runtimeField)))
+                lookahead = t;
+            else
+                runtimeDropped++;
+        }
+        return lookahead != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (runtimeFilter != null && !hasNext())
+            throw new NoSuchElementException();
+        if (lookahead != null) {
+            Tuple t = lookahead;
+            lookahead = null;
+            return t;
+        }
+        return readNext();
+    }
+
+    private boolean readHasNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (gather != null)
+            return gather.hasNext();
         if (iterator==null)
         {
             return false;
@@ -145,9 +562,11 @@ public class SeqScan implements OpIterator {
         return iterator.hasNext();
     }
 
-    public Tuple next() throws NoSuchElementException,
+    private Tuple readNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
+        if (gather != null)
+            return gather.next();
         if (iterator==null)
         {
             throw new NoSuchElementException();
@@ -157,12 +576,24 @@ public class SeqScan implements OpIterator {
 
     public void close() {
         // some code goes here
+        lookahead = null;
+        runtimeFilter = null;
+        if (gather != null) {
+            gather.close();
+            gather = null;
+            return;
+        }
         iterator.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        lookahead = null;
+        if (gather != null) {
+            gather.rewind();
+            return;
+        }
         iterator.rewind();
     }
 }
@@ -0,0 +1,217 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs sorted on their join fields, for the
+ * EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and GREATER_THAN_OR_EQ
+ * predicates. An input that is not already sorted on its join field (see
+ * {@link Sortedness}) is sorted first.
+ * <p>
+ * For equality both inputs are streamed: the right tuples sharing a key are
+ * buffered and matched with every left tuple of that key. For the
+ * inequalities, the right input is held in memory and, since the left input
+ * ascends, the matches of each left tuple are a prefix or suffix of the
+ * right input whose boundary only moves forward.
+ * <p>
+ * Output tuples hold the fields of the left tuple followed by those of the
+ * right tuple, in ascending order of the left join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    private transient OpIterator left, right;
+    private transient Tuple t1;
+    // equality: the buffered right tuples of groupKey, and the next right tuple
+    private transient List<Tuple> group;
+    private transient Field groupKey;
+    private transient Tuple peek;
+    // inequalities: the sorted right input, and the boundary of the matches
+    private transient List<Tuple> rightTuples;
+    private transient int bound;
+    private transient int pos, end;
+
+    /**
+     * @param p the predicate to join on
+     * @param child1 the left input
+     * @param child2 the right input
+     * @throws IllegalArgumentException if the predicate's operator is
+     *         NOT_EQUALS or LIKE
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join does not support " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate the operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    private static OpIterator sorted(OpIterator child, int field) {
+        return Sortedness.isSortedOn(child, field) ? child : new OrderBy(field, true, child);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = sorted(child1, p.getField1());
+        left.open();
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            right = sorted(child2, p.getField2());
+            right.open();
+            group = new ArrayList<>();
+        } else {
+            right = child2;
+            right.open();
+            rightTuples = new ArrayList<>();
+            while (right.hasNext())
+                rightTuples.add(right.next());
+            if (!Sortedness.isSortedOn(child2, p.getField2()))
+                rightTuples.sort(new TupleComparator(p.getField2(), true));
+        }
+        reset();
+        super.open();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        t1 = null;
+        groupKey = null;
+        if (group != null) {
+            group.clear();
+            peek = right.hasNext() ? right.next() : null;
+        }
+        bound = 0;
+        pos = end = 0;
+    }
+
+    public void close() {
+        super.close();
+        left.close();
+        right.close();
+        left = right = null;
+        t1 = peek = null;
+        group = null;
+        rightTuples = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        if (group != null)
+            right.rewind();
+        reset();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return group != null ? fetchEquals() : fetchRange();
+    }
+
+    private Tuple fetchEquals() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (t1 != null && pos < group.size())
+                return merge(t1, group.get(pos++));
+            if (!left.hasNext())
+                return null;
+            t1 = left.next();
+            pos = 0;
+            Field key = t1.getField(p.getField1());
+            if (groupKey != null && key.equals(groupKey))
+                continue;
+
+            // move the right input up to key and buffer the tuples equal to it
+            group.clear();
+            groupKey = null;
+            while (peek != null && peek.getField(p.getField2()).compare(Predicate.Op.LESS_THAN, key))
+                peek = right.hasNext() ? right.next() : null;
+            if (peek == null)
+                return null;
+            if (peek.getField(p.getField2()).equals(key)) {
+                groupKey = key;
+                while (peek != null && peek.getField(p.getField2()).equals(key)) {
+                    group.add(peek);
+                    peek = right.hasNext() ? right.next() : null;
+                }
+            }
+        }
+    }
+
+    private Tuple fetchRange() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (pos < end)
+                return merge(t1, rightTuples.get(pos++));
+            if (!left.hasNext())
+                return null;
+            t1 = left.next();
+            Field a = t1.getField(p.getField1());
+            Predicate.Op op = p.getOperator();
+            // advance the boundary past the right tuples that a no longer
+            // sits below (for < and <=) or that it now sits above (for > and >=)
+            Predicate.Op skip = op == Predicate.Op.LESS_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ
+                    ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+            while (bound < rightTuples.size()
+                    && rightTuples.get(bound).getField(p.getField2()).compare(skip, a))
+                bound++;
+            if (op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ) {
+                pos = bound;
+                end = rightTuples.size();
+            } else {
+                pos = 0;
+                end = bound;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * SortedAggregate computes the same grouped aggregate as {@link Aggregate},
+ * for a child whose tuples come grouped by the group-by field, for instance
+ * sorted on it (see {@link Sortedness}). Instead of building a table of all
+ * the groups, it returns each group as soon as the next one starts, so it
+ * keeps a single group in memory and its first tuples come out before the
+ * child is exhausted. The groups come out in the order of the child.
+ * <p>
+ * Supports MIN, MAX, SUM, AVG and COUNT over INT fields, and COUNT over
+ * STRING fields.
+ */
+public class SortedAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private TupleDesc td;
+
+    private transient Tuple pending;
+    private transient long value;
+    private transient long count;
+
+    /**
+     * @param child  The OpIterator that is feeding us tuples, grouped by gfield
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result
+     * @param aop    The aggregation operator to use
+     * @throws IllegalArgumentException if there is no grouping, or aop is not
+     *         supported for the type of afield
+     */
+    public SortedAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        if (gfield == Aggregator.NO_GROUPING)
+            throw new IllegalArgumentException("a sorted aggregate needs a group-by field");
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        if (child.getTupleDesc().getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported over STRING fields");
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        setChildren(new OpIterator[]{child});
+    }
+
+    /**
+     * @return the groupby field index in the <b>INPUT</b> tuples
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return the name of the groupby field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName() {
+        return child.getTupleDesc().getFieldName(gfield);
+    }
+
+    /**
+     * @return the aggregate field
+     */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /**
+     * @return the name of the aggregate field in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName() {
+        return child.getTupleDesc().getFieldName(afield);
+    }
+
+    /**
+     * @return the aggregate operator
+     */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+        pending = child.hasNext() ? child.next() : null;
+        super.open();
+    }
+
+    /**
+     * Returns the next group: reads the child until the group-by field
+     * changes, keeping the first tuple of the next group for the next call.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pending == null)
+            return null;
+        Field group = pending.getField(gfield);
+        value = 0;
+        count = 0;
+        merge(pending);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!t.getField(gfield).equals(group)) {
+                pending = t;
+                break;
+            }
+            merge(t);
+        }
+        Tuple result = new Tuple(td);
+        result.setField(0, group);
+        result.setField(1, new IntField(result()));
+        return result;
+    }
+
+    private void merge(Tuple t) {
+        if (aop == Aggregator.Op.COUNT) {
+            count++;
+            return;
+        }
+        int a = ((IntField) t.getField(afield)).getValue();
+        switch (aop) {
+            case MIN:
+                if (count == 0 || a < value)
+                    value = a;
+                break;
+            case MAX:
+                if (count == 0 || a > value)
+                    value = a;
+                break;
+            default:
+                value += a;
+                break;
+        }
+        count++;
+    }
+
+    private int result() {
+        switch (aop) {
+            case COUNT:
+                return (int) count;
+            case AVG:
+                return (int) (value / count);
+            default:
+                return (int) value;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        pending = child.hasNext() ? child.next() : null;
+    }
+
+    /**
+     * @return the same TupleDesc as the equivalent {@link Aggregate}: the
+     *         group-by field, then the aggregate value
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        pending = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+        Type groupType = child.getTupleDesc().getFieldType(gfield);
+        this.td = new TupleDesc(new Type[]{groupType, Type.INT_TYPE},
+                new String[]{"groupValue", "aggregateValue"});
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.execution;
+
+import simpledb.index.BTreeScan;
+
+/**
+ * Sortedness works out whether the output of a plan is already sorted, so
+ * that operators that need sorted input, such as {@link SortMergeJoin}, can
+ * skip sorting it again.
+ */
+public class Sortedness {
+
+    private Sortedness() {
+    }
+
+    /**
+     * Returns a field by which the tuples of an iterator are known to come
+     * out in ascending order. Scans of B+ trees are sorted on their key,
+     * ascending OrderBys and TopNs on their field, sort-merge joins on
+     * their left join field, and sorted aggregates over sorted input on
+     * their group; filters, limits, fetches and projections keep the order
+     * of their child.
+     *
+     * @return the index of the field in the iterator's TupleDesc, or -1 if
+     *         the iterator is not known to be sorted
+     */
+    public static int ascendingField(OpIterator it) {
+        if (it instanceof SeqScan)
+            return ((SeqScan) it).sortedField();
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).sortedField();
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() ? o.getOrderByField() : -1;
+        }
+        if (it instanceof TopN) {
+            TopN t = (TopN) it;
+            return t.isASC() ? t.getOrderByField() : -1;
+        }
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin) it).getJoinPredicate().getField1();
+        if (it instanceof SortedAggregate) {
+            // the groups come out in the order of the child
+            SortedAggregate a = (SortedAggregate) it;
+            return isSortedOn(a.getChildren()[0], a.groupField()) ? 0 : -1;
+        }
+        if (it instanceof Filter)
+            return ascendingField(((Filter) it).getChildren()[0]);
+        if (it instanceof Limit)
+            return ascendingField(((Limit) it).getChildren()[0]);
+        if (it instanceof Fetch)
+            // the fetched fields come after those of the child
+            return ascendingField(((Fetch) it).getChildren()[0]);
+        if (it instanceof Project) {
+            Project project = (Project) it;
+            int field = ascendingField(project.getChildren()[0]);
+            // -1 also when the sort field was projected out
+            return field == -1 ? -1 : project.getOutFieldIds().indexOf(field);
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the tuples of it are known to come out in ascending
+     *         order of the given field
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        return field != -1 && ascendingField(it) == field;
+    }
+}
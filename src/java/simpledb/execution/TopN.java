@@ -0,0 +1,126 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN returns the first n tuples of its child in the order an
+ * {@link OrderBy} on the same fields would produce, that is ORDER BY ...
+ * LIMIT n. It keeps only the best n tuples seen so far, in a bounded heap
+ * whose root is the worst of them, so it needs O(n) memory and
+ * O(m log n) comparisons for m input tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int limit;
+
+    private transient Tuple[] top;
+    private transient int pos;
+
+    /**
+     * @param orderbyFields the fields to which the sort is applied
+     * @param asc           for each field, true if its order is ascending
+     * @param limit         the number of tuples to return
+     * @param child         the tuples to sort
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one direction per ORDER BY field");
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    public boolean isASC() {
+        return asc[0];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** a tuple and its position in the input, which breaks ties */
+    private static class Ranked {
+        final Tuple t;
+        final long seq;
+
+        Ranked(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        TupleComparator cmp = new TupleComparator(orderByFields, asc);
+        Comparator<Ranked> order = (a, b) -> {
+            int c = cmp.compare(a.t, b.t);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        // the root of the heap is the worst of the tuples kept
+        PriorityQueue<Ranked> heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)),
+                order.reversed());
+        long seq = 0;
+        while (child.hasNext()) {
+            Ranked r = new Ranked(child.next(), seq++);
+            if (heap.size() < limit) {
+                heap.add(r);
+            } else if (limit > 0 && order.compare(r, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(r);
+            }
+        }
+        top = new Tuple[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--)
+            top[i] = heap.poll().t;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+    }
+
+    public void rewind() {
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() {
+        return top != null && pos < top.length ? top[pos++] : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of a TupleDesc column by
+ * column: INT fields as an int[] vector, and every other field as a Field[]
+ * vector. It is the unit of work passed between {@link BatchIterator}s.
+ * <p>
+ * Only the first {@link #size()} entries of each vector are valid. Batch
+ * operators read and write the vectors directly in tight loops instead of
+ * going through Tuple and Field objects.
+ */
+public class TupleBatch {
+
+    /** the number of rows a batch holds unless another capacity is given */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private int capacity;
+    private int[][] ints;
+    private Field[][] fields;
+    private int size;
+
+    /**
+     * Creates an empty batch of DEFAULT_CAPACITY rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows of the batch
+     * @param capacity the number of rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, Field[][] fields, int size) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.fields = fields;
+        this.size = size;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of valid rows in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sets the number of valid rows, after the vectors have been filled in
+     * directly.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > capacity)
+            throw new IllegalArgumentException("size " + size + " out of range for capacity " + capacity);
+        this.size = size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Empties the batch so it can be refilled.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return true if field col is stored as an int[] vector
+     */
+    public boolean isInt(int col) {
+        return ints[col] != null;
+    }
+
+    /**
+     * @return the values of INT field col
+     * @throws IllegalArgumentException if the field is not an INT field
+     */
+    public int[] ints(int col) {
+        if (ints[col] == null)
+            throw new IllegalArgumentException("field " + col + " is not an INT field");
+        return ints[col];
+    }
+
+    /**
+     * @return the values of non-INT field col
+     * @throws IllegalArgumentException if the field is an INT field
+     */
+    public Field[] fields(int col) {
+        if (fields[col] == null)
+            throw new IllegalArgumentException("field " + col + " is an INT field");
+        return fields[col];
+    }
+
+    public Field getField(int row, int col) {
+        return ints[col] != null ? new IntField(ints[col][row]) : fields[col][row];
+    }
+
+    /**
+     * @return a new Tuple holding the values of the given row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(row, i));
+        return t;
+    }
+
+    /**
+     * Adds a row holding the fields of t.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][size] = ((IntField) t.getField(i)).getValue();
+            else
+                fields[i][size] = t.getField(i);
+        }
+        size++;
+    }
+
+    /**
+     * Copies every field of one row of this batch into dest, starting at
+     * field destCol of row destRow. Does not change the size of dest.
+     */
+    public void copyRow(int row, TupleBatch dest, int destRow, int destCol) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                dest.ints[destCol + i][destRow] = ints[i][row];
+            else
+                dest.fields[destCol + i][destRow] = fields[i][row];
+        }
+    }
+
+    /**
+     * Adds every row of src to the end of this batch, growing it as needed.
+     * Used to materialize the input of blocking operators.
+     */
+    public void appendAll(TupleBatch src) {
+        if (size + src.size > capacity) {
+            capacity = Math.max(capacity * 2, size + src.size);
+            for (int i = 0; i < ints.length; i++) {
+                if (ints[i] != null)
+                    ints[i] = Arrays.copyOf(ints[i], capacity);
+                else
+                    fields[i] = Arrays.copyOf(fields[i], capacity);
+            }
+        }
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                System.arraycopy(src.ints[i], 0, ints[i], size, src.size);
+            else
+                System.arraycopy(src.fields[i], 0, fields[i], size, src.size);
+        }
+        size += src.size;
+    }
+
+    /**
+     * Keeps only the rows listed in sel, in that order, moving them to the
+     * front of the batch. The rows in sel must be in increasing order.
+     *
+     * @param sel the indexes of the rows to keep
+     * @param n the number of valid entries of sel
+     */
+    public void retain(int[] sel, int n) {
+        if (n == size)
+            return;
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                int[] v = ints[i];
+                for (int j = 0; j < n; j++)
+                    v[j] = v[sel[j]];
+            } else {
+                Field[] v = fields[i];
+                for (int j = 0; j < n; j++)
+                    v[j] = v[sel[j]];
+            }
+        }
+        size = n;
+    }
+
+    /**
+     * Returns a batch holding the given fields of this batch. The returned
+     * batch shares its vectors with this one and is only valid until this
+     * batch changes.
+     *
+     * @param cols the indexes of the fields to keep
+     * @param td the schema of the projected rows
+     */
+    public TupleBatch project(int[] cols, TupleDesc td) {
+        int[][] pints = new int[cols.length][];
+        Field[][] pfields = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pints[i] = ints[cols[i]];
+            pfields[i] = fields[cols[i]];
+        }
+        return new TupleBatch(td, capacity, pints, pfields, size);
+    }
+}
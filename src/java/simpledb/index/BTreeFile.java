@@ -32,6 +32,8 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	/** the compressed pages of the file, or null if its pages are stored as is */
+	private final CompressedPageFile compressed;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,10 +44,42 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, optionally with
+	 * its pages compressed on disk. In a compressed file the root pointer page
+	 * is page 0 of the {@link CompressedPageFile} and every other page is
+	 * stored under its page number.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compress - whether f is a compressed page file
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compress) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		if (compress) {
+			try {
+				this.compressed = new CompressedPageFile(f);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot read the page map of " + f, e);
+			}
+		} else {
+			this.compressed = null;
+		}
+	}
+
+	/**
+	 * @return true if the pages of this file are compressed on disk.
+	 */
+	public boolean isCompressed() {
+		return compressed != null;
 	}
 
 	/**
@@ -87,6 +121,16 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
+		if (compressed != null) {
+			try {
+				if (id.pgcateg() == BTreePageId.ROOT_PTR)
+					return createPage(id, compressed.read(0, BTreeRootPtrPage.getPageSize()));
+				return createPage(id, compressed.read(id.getPageNumber(), BufferPool.getPageSize()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
@@ -99,7 +143,7 @@ public class BTreeFile implements DbFile {
                             + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
+                return createPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
                 if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
@@ -116,13 +160,7 @@ public class BTreeFile implements DbFile {
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+                return createPage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -131,6 +169,21 @@ public class BTreeFile implements DbFile {
         // Ignore failures closing the file
     }
 
+	/**
+	 * Construct the page with the given id from its on-disk bytes.
+	 */
+	private Page createPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, pageBuf);
+		} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -141,6 +194,10 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
+		if (compressed != null) {
+			compressed.write(id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : id.getPageNumber(), data);
+			return;
+		}
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			rf.write(data);
@@ -157,6 +214,8 @@ public class BTreeFile implements DbFile {
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
+		if (compressed != null)
+			return Math.max(compressed.numPages() - 1, 0);
 		// we only ever write full pages
 		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
@@ -1050,7 +1109,11 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(compressed != null && compressed.numPages() == 0) {
+				compressed.append(BTreeRootPtrPage.createEmptyPageData());
+				compressed.append(BTreeLeafPage.createEmptyPageData());
+			}
+			else if(compressed == null && f.length() == 0) {
 				// create the root pointer page and the root page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
@@ -1114,11 +1177,15 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				if (compressed != null) {
+					compressed.append(emptyData);
+				} else {
+					BufferedOutputStream bw = new BufferedOutputStream(
+							new FileOutputStream(f, true));
+					bw.write(emptyData);
+					bw.close();
+				}
 				emptyPageNo = numPages();
 			}
 		}
@@ -1149,10 +1216,14 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		if (compressed != null) {
+			compressed.write(emptyPageNo, BTreePage.createEmptyPageData());
+		} else {
+			RandomAccessFile rf = new RandomAccessFile(f, "rw");
+			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
+			rf.write(BTreePage.createEmptyPageData());
+			rf.close();
+		}
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -201,21 +201,23 @@ public class BTreeFileEncoder {
 	public static BTreeFile convert(File inFile, File hFile, File bFile, int npagebytes,
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
-		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
+		// convert the inFile to HeapFile first, parsing it on all cores.
+		HeapFileEncoder.convertParallel(inFile, hFile, BufferPool.getPageSize(), numFields, typeAr, fieldSeparator);
 		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
 		// read all the tuples from the heap file and sort them on the keyField
-		List<Tuple> tuples = new ArrayList<>();
+		List<Tuple> tupleList = new ArrayList<>();
 		TransactionId tid = new TransactionId();
 		DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
 		it.open();
 		while (it.hasNext()) {
 			Tuple tup = it.next();
-			tuples.add(tup);
+			tupleList.add(tup);
 		}
 		it.close();
-		tuples.sort(new TupleComparator(keyField));
+		Tuple[] sorted = tupleList.toArray(new Tuple[0]);
+		Arrays.parallelSort(sorted, new TupleComparator(keyField));
+		List<Tuple> tuples = Arrays.asList(sorted);
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
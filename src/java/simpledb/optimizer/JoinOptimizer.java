@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,20 +75,25 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
+        if (lj.probeIndex && IndexNestedLoopJoin.canProbe(plan2, t2id)) {
+            // few outer tuples against a B+ tree on the inner join field
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            if (Sortedness.isSortedOn(plan1, t1id) && Sortedness.isSortedOn(plan2, t2id)) {
+                // both inputs come out sorted, e.g. from B+ trees keyed on
+                // the join fields, so they can be merged as they are
+                j = new SortMergeJoin(p, plan1, plan2);
+            } else {
+                // HashEquiJoin hashes INT join keys with an IntJoinHashTable
+                // and any other keys with a map of Fields
+                j = new HashEquiJoin(p, plan1, plan2);
             }
+        } else if (SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2);
         } else {
-            j = new Join(p, plan1, plan2);
+            // NOT_EQUALS and LIKE compare every pair; read the outer input
+            // in blocks so the inner input is scanned once per block
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
         }
 
         return j;
@@ -130,10 +137,84 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
+            boolean sorted1 = isSortedTable(j.t1Alias, j.f1PureName);
+            boolean sorted2 = isSortedTable(j.t2Alias, j.f2PureName);
+            if (j.p == Predicate.Op.EQUALS && sorted1 && sorted2) {
+                // sort-merge join of two sorted scans: read both once
+                return cost1 + cost2 + card1 + card2;
+            }
+            if (j.p != Predicate.Op.EQUALS && SortMergeJoin.supports(j.p)) {
+                // sort-merge join: sort each unsorted input, then one pass
+                // over both that produces the ~0.3 * card1 * card2 matches
+                double sort1 = sorted1 ? 0 : card1 * log2(card1);
+                double sort2 = sorted2 ? 0 : card2 * log2(card2);
+                return cost1 + cost2 + sort1 + sort2 + card1 + card2 + 0.3 * card1 * card2;
+            }
+            if (j.p != Predicate.Op.EQUALS) {
+                // block nested loops join: one scan of the inner input per
+                // block of outer tuples, and a predicate per pair
+                double blocks = Math.ceil((double) card1 / blockSize(j.t1Alias));
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            }
             return cost1+(card1*cost2)+(card1*card2);
         }
     }
 
+    /**
+     * @return the number of tuples of the table with the given alias that a
+     *         BlockNestedLoopJoin holds per outer block
+     */
+    private int blockSize(String alias) {
+        Integer tableId = p.getTableAliasToIdMapping().get(alias);
+        if (tableId == null)
+            return 1;
+        return BlockNestedLoopJoin.tuplesPerBlock(Database.getCatalog().getTupleDesc(tableId),
+                BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Estimate the cost of an index nested loops join, which looks up each
+     * of the card1 outer tuples in a B+ tree on the inner join field.
+     *
+     * @param cost2
+     *            Estimated cost of one full scan of the inner table, which
+     *            must be a base table
+     * @return the estimated cost, or Double.MAX_VALUE if the join cannot
+     *         probe an index
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS
+                || !isSortedTable(j.t2Alias, j.f2PureName))
+            return Double.MAX_VALUE;
+        int pages = Math.max(1, ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                p.getTableAliasToIdMapping().get(j.t2Alias))).numPages());
+        // each probe reads a root-to-leaf path of about log(pages) pages and
+        // compares the key on each
+        double probe = (cost2 / pages) * (1 + log2(pages)) + log2(card2);
+        return cost1 + card1 * probe;
+    }
+
+    private static double log2(int n) {
+        return n > 1 ? Math.log(n) / Math.log(2) : 0;
+    }
+
+    /**
+     * @return true if the table with the given alias is a B+ tree keyed on
+     *         the given field, so that scanning it returns tuples sorted on
+     *         that field
+     */
+    private boolean isSortedTable(String alias, String pureFieldName) {
+        Integer tableId = p.getTableAliasToIdMapping().get(alias);
+        if (tableId == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return false;
+        int key = ((BTreeFile) f).keyField();
+        return pureFieldName.equals(f.getTupleDesc().getFieldName(key));
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -268,6 +349,10 @@ public class JoinOptimizer {
             throws ParsingException {
         // some code goes here
         //Replace the following
+        if (joins.isEmpty()) {
+            // a query over a single table
+            return new ArrayList<>();
+        }
         PlanCache planCache = new PlanCache();
         CostCard bestCostCard = new CostCard();
         int size = joins.size();
@@ -425,6 +510,24 @@ public class JoinOptimizer {
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+
+        // an inner side that is a base table with a B+ tree on its join
+        // field may instead be probed once per outer tuple
+        double probeCost1 = doesJoin(prevBest, j.t2Alias) ? Double.MAX_VALUE
+                : estimateIndexJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double probeCost2 = doesJoin(prevBest, j.t1Alias) ? Double.MAX_VALUE
+                : estimateIndexJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        if (probeCost1 < cost1) {
+            // copy j, which other subplans share
+            j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName, j.f2PureName, j.p);
+            j.probeIndex = true;
+            cost1 = probeCost1;
+        }
+        if (probeCost2 < cost2) {
+            j2.probeIndex = true;
+            cost2 = probeCost2;
+        }
+
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
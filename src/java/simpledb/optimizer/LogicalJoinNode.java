@@ -25,6 +25,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the optimizer chose to probe a B+ tree on t2.f2 once per
+     * tuple of t1 rather than scan t2 (see IndexNestedLoopJoin). */
+    public boolean probeIndex;
+
     public LogicalJoinNode() {
     }
 
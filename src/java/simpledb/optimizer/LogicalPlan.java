@@ -36,8 +36,11 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    private int limit = -1;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
     private String query;
 //    private Query owner;
 
@@ -206,19 +209,39 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds a
+        field that breaks the ties of the fields added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAscs.add(asc);
         hasOrderBy = true;
     }
 
+    /** Limit the result to its first n tuples, or to the first n in the ORDER BY order if there is one.
+        @param n the number of tuples to return
+    */
+    public void setLimit(int n) {
+        limit = n;
+    }
+
+    /** @return the number of tuples the result is limited to, or -1 if there is no limit */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Set the number of threads large scans, and the joins over them, are split across; see
+        {@link Parallelizer}.  Plans are not parallelized if n is below 2.
+        @param n the number of threads, by default the number of available processors
+    */
+    public void setParallelism(int n) {
+        parallelism = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -274,6 +297,74 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Collect the fields of each table that the operators of the plan read: those of the
+     *  aggregate, GROUP BY and ORDER BY, and of the filters and joins.
+     *  @return the qualified names of the fields used, by table alias
+     */
+    private Map<String,Set<String>> operatorFields() {
+        Map<String,Set<String>> fields = new HashMap<>();
+        if (aggField != null)
+            addField(fields, aggField);
+        if (groupByField != null)
+            addField(fields, groupByField);
+        for (String f : oByFields)
+            addField(fields, f);
+        for (LogicalFilterNode lf : filters)
+            addField(fields, lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            addField(fields, lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                addField(fields, lj.f2QuantifiedName);
+        }
+        return fields;
+    }
+
+    /** @return the qualified names of the fields in the select list, by table alias, or null
+     *    if the select list includes every field
+     */
+    private Map<String,Set<String>> selectedFields() {
+        Map<String,Set<String>> fields = new HashMap<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            addField(fields, si.fname);
+        }
+        return fields;
+    }
+
+    private static void addField(Map<String,Set<String>> fields, String name) {
+        fields.computeIfAbsent(name.split("[.]")[0], k -> new HashSet<>()).add(name);
+    }
+
+    /** @return the indexes, in table order, of the fields of a scan's TupleDesc td named in names */
+    private static List<Integer> fieldIndexes(TupleDesc td, Set<String> names) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++)
+            if (names.contains(td.getFieldName(i)))
+                indexes.add(i);
+        return indexes;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = list.get(i);
+        return result;
+    }
+
+    /** @return the indexes, in table order, of the fields of a scan's TupleDesc td named in
+     *    names, or null if that is all of them. A table none of whose fields is used still
+     *    returns its first one, so that its tuples are not empty.
+     */
+    static int[] scanColumns(TupleDesc td, Set<String> names) {
+        List<Integer> columns = fieldIndexes(td, names);
+        if (columns.size() == td.numFields())
+            return null;
+        if (columns.isEmpty())
+            columns.add(0);
+        return toArray(columns);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,6 +383,12 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,SeqScan> scanMap = new HashMap<>();
+        Map<String,Set<String>> used = operatorFields();
+        Map<String,Set<String>> selected = selectedFields();
+        // when joins drop rows, the fields only the select list needs are read for the rows left
+        boolean late = selected != null && !hasAgg && !joins.isEmpty();
+        Map<String,int[]> fetched = new LinkedHashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -301,8 +398,31 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-            
+            if (selected != null) {
+                // read only the fields the rest of the plan uses
+                TupleDesc td = ss.getTupleDesc();
+                Set<String> early = used.getOrDefault(table.alias, Collections.emptySet());
+                Set<String> all = new HashSet<>(early);
+                all.addAll(selected.getOrDefault(table.alias, Collections.emptySet()));
+                List<Integer> lateColumns = new ArrayList<>();
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                // a table too large for row references is read whole
+                if (late && file instanceof HeapFile && ((HeapFile) file).canReferenceRows()) {
+                    all.removeAll(early);
+                    lateColumns = fieldIndexes(td, all);
+                }
+                if (lateColumns.isEmpty()) {
+                    ss.setColumns(scanColumns(td, all));
+                } else {
+                    List<Integer> columns = fieldIndexes(td, early);
+                    columns.add(SeqScan.ROW_REFERENCE);
+                    ss.setColumns(toArray(columns));
+                    fetched.put(table.alias, toArray(lateColumns));
+                }
+            }
+
             subplanMap.put(table.alias,ss);
+            scanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -335,11 +455,23 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof Filter) {
+                // one filter applies all the predicates on a table, compiled together
+                Filter prev = (Filter) subplan;
+                List<Predicate> ps = new ArrayList<>(prev.getPredicates());
+                ps.add(p);
+                subplanMap.put(lf.tableAlias, new Filter(ps, prev.getChildren()[0]));
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
+            // filters do not change field positions, so p applies to the scan too
+            scanMap.get(lf.tableAlias).addPageFilter(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are kept by field of the table, not of the narrowed scan
+            int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel = s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -406,6 +538,16 @@ public class LogicalPlan {
         }
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        node = Parallelizer.parallelize(node, parallelism, Parallelizer.MIN_PAGES);
+
+        // complete the rows that come out of the joins with the fields left in the tables
+        Fetch firstFetch = null;
+        for (Map.Entry<String,int[]> e : fetched.entrySet()) {
+            int ref = node.getTupleDesc().fieldNameToIndex(e.getKey() + "." + SeqScan.ROW_REFERENCE_NAME);
+            node = new Fetch(t, node, ref, getTableId(e.getKey()), e.getKey(), e.getValue());
+            if (firstFetch == null)
+                firstFetch = (Fetch) node;
+        }
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
@@ -457,14 +599,23 @@ public class LogicalPlan {
                 }
         }
 
+        OpIterator fetchedNode = node;
+        if (firstFetch != null) {
+            // sort and limit the rows before fetching, so that only those returned are read
+            node = firstFetch.getChildren()[0];
+        }
+
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            Operator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (Sortedness.isSortedOn(node, gfield)) {
+                    // the groups come one after another, so stream them out
+                    aggNode = new SortedAggregate(node, td.fieldNameToIndex(aggField), gfield, getAggOp(aggOp));
+                } else {
+                    aggNode = new Aggregate(node, td.fieldNameToIndex(aggField), gfield, getAggOp(aggOp));
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -472,7 +623,29 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                oByIndexes[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                asc[i] = oByAscs.get(i);
+            }
+            if (oByIndexes.length == 1 && asc[0] && Sortedness.isSortedOn(node, oByIndexes[0])) {
+                // already in order, e.g. a scan of a B+ tree on its key
+                if (limit >= 0)
+                    node = new Limit(limit, node);
+            } else if (limit >= 0) {
+                // keep only the first tuples instead of sorting them all
+                node = new TopN(oByIndexes, asc, limit, node);
+            } else {
+                node = new OrderBy(oByIndexes, asc, node);
+            }
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
+        }
+
+        if (firstFetch != null) {
+            firstFetch.setChildren(new OpIterator[]{node});
+            node = fetchedNode;
         }
 
         return new Project(outFields, outTypes, node);
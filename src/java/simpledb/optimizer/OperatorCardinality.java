@@ -29,10 +29,50 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof BlockNestedLoopJoin) {
+            BlockNestedLoopJoin j = (BlockNestedLoopJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
-            return updateAggregateCardinality((Aggregate) o, tableAliasToId,
+            Aggregate a = (Aggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
+        } else if (o instanceof SortedAggregate) {
+            SortedAggregate a = (SortedAggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
+        } else if (o instanceof TopN || o instanceof Limit) {
+            int limit = o instanceof TopN ? ((TopN) o).getLimit() : ((Limit) o).getLimit();
+            OpIterator child = o.getChildren()[0];
+            boolean hasJoinPK = false;
+            int childC = 1;
+            if (child instanceof Operator) {
+                hasJoinPK = updateOperatorCardinality((Operator) child,
+                        tableAliasToId, tableStats);
+                childC = ((Operator) child).getEstimatedCardinality();
+            } else if (child instanceof SeqScan) {
+                childC = tableStats.get(((SeqScan) child).getTableName())
+                        .estimateTableCardinality(1.0);
+            }
+            o.setEstimatedCardinality(Math.min(childC, limit));
+            return hasJoinPK;
+        } else if (o instanceof Exchange) {
+            return updateExchangeCardinality((Exchange) o, tableAliasToId,
                     tableStats);
         } else {
             OpIterator[] children = o.getChildren();
@@ -54,24 +94,53 @@ public class OperatorCardinality {
         }
     }
 
+    private static boolean updateExchangeCardinality(Exchange e,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        // the inputs are estimated as if each covered the whole table, since
+        // the table statistics do not tell page ranges apart
+        boolean hasJoinPK = false;
+        int childC = 1;
+        for (OpIterator child : e.getChildren()) {
+            if (child instanceof Operator) {
+                hasJoinPK |= updateOperatorCardinality((Operator) child,
+                        tableAliasToId, tableStats);
+            }
+        }
+        OpIterator child = e.getChildren()[0];
+        if (child instanceof Operator) {
+            childC = ((Operator) child).getEstimatedCardinality();
+        } else if (child instanceof SeqScan) {
+            childC = tableStats.get(((SeqScan) child).getTableName())
+                    .estimateTableCardinality(1.0);
+        }
+        if (e instanceof Repartition)
+            childC = Math.max(1, childC / ((Repartition) e).getWays());
+        e.setEstimatedCardinality(childC);
+        return hasJoinPK;
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
+        // the predicates of a filter are over the same table, and are
+        // taken to be independent
+        String tableAlias = child.getTupleDesc()
+                .getFieldName(f.getPredicate().getField()).split("[.]")[0];
         Integer tableId = tableAliasToId.get(tableAlias);
         double selectivity = 1.0;
         if (tableId != null) {
-            selectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .estimateSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            pred.getOp(), pred.getOperand());
+            for (Predicate pred : f.getPredicates()) {
+                String pureFieldName = child.getTupleDesc()
+                        .getFieldName(pred.getField()).split("[.]")[1];
+                selectivity *= tableStats.get(
+                        Database.getCatalog().getTableName(tableId))
+                        .estimateSelectivity(
+                                Database.getCatalog().getTupleDesc(tableId)
+                                        .fieldNameToIndex(pureFieldName),
+                                pred.getOp(), pred.getOperand());
+            }
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -146,9 +215,14 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
-                                                         Map<String, Integer> tableAliasToId,
-                                                         Map<String, TableStats> tableStats) {
+    /**
+     * Updates the cardinality of a two-input join operator other than Join,
+     * given its predicate and the qualified names of its join fields.
+     */
+    private static boolean updateJoinCardinality(Operator j, JoinPredicate predicate,
+                                                 String field1Name, String field2Name,
+                                                 Map<String, Integer> tableAliasToId,
+                                                 Map<String, TableStats> tableStats) {
 
         OpIterator[] children = j.getChildren();
         OpIterator child1 = children[0];
@@ -156,10 +230,10 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = field1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = field2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -194,14 +268,15 @@ public class OperatorCardinality {
                     .getTableName()).estimateTableCardinality(1.0);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(predicate
+                .getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateAggregateCardinality(Aggregate a,
+    private static boolean updateAggregateCardinality(Operator a,
+            int groupField, String groupFieldName,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = a.getChildren()[0];
@@ -214,7 +289,7 @@ public class OperatorCardinality {
             childCard = oChild.getEstimatedCardinality();
         }
 
-        if (a.groupField() == Aggregator.NO_GROUPING) {
+        if (groupField == Aggregator.NO_GROUPING) {
             a.setEstimatedCardinality(1);
             return hasJoinPK;
         }
@@ -224,7 +299,7 @@ public class OperatorCardinality {
                     .estimateTableCardinality(1.0);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
+        String[] tmp = groupFieldName.split("[.]");
         String tableAlias = tmp[0];
         String pureFieldName = tmp[1];
         Integer tableId = tableAliasToId.get(tableAlias);
@@ -0,0 +1,238 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.TupleDesc;
+
+/**
+ * Parallelizer rewrites a physical plan so that its large scans, and the
+ * filters and joins above them, run on several threads, connected by
+ * {@link Exchange} operators:
+ * <ul>
+ * <li>a scan of a HeapFile of at least minPages pages, with the filters
+ * over it, is split into fragments over disjoint page ranges whose tuples
+ * a {@link Gather} collects;</li>
+ * <li>a join with such a scan as one input is split the same way: each
+ * fragment joins a page range of that input with all of the other input,
+ * which a {@link Broadcast} reads once and shares among the fragments.
+ * The other input is kept in memory, and a hash join builds a table of it
+ * in every fragment, so this is only done if it is a scan estimated to
+ * fit a byte budget that many times over;</li>
+ * <li>a hash join of two such scans that are too large to broadcast is
+ * split by a hash of the join keys instead: a {@link Repartition} of each
+ * input sends the tuples with the same key to the same fragment, which
+ * joins its share of both inputs, spilling as a serial join would.</li>
+ * </ul>
+ * Any other join is left serial, though its inputs may still be split.
+ * Sort-merge joins are left as they are, since splitting their inputs
+ * would lose the order they rely on, and so is the index side of index
+ * nested-loop joins. The inner input of a nested-loop join, which is read
+ * again for every outer block, is only split as part of splitting the
+ * join. The rewritten plan returns the same tuples in another order.
+ */
+public class Parallelizer {
+
+    /** scans of fewer pages than this are not worth splitting */
+    public static final int MIN_PAGES = 512;
+
+    private final int workers;
+    private final int minPages;
+    private final long broadcastBytes;
+
+    private Parallelizer(int workers, int minPages, long broadcastBytes) {
+        this.workers = workers;
+        this.minPages = minPages;
+        this.broadcastBytes = broadcastBytes;
+    }
+
+    /**
+     * Rewrites a plan with a broadcast budget of a quarter of the capacity
+     * of the memory manager.
+     *
+     * @see #parallelize(OpIterator, int, int, long)
+     */
+    public static OpIterator parallelize(OpIterator plan, int workers, int minPages) {
+        return parallelize(plan, workers, minPages, Database.getMemoryManager().getCapacity() / 4);
+    }
+
+    /**
+     * @param plan           the plan to rewrite
+     * @param workers        the number of fragments to split a scan into;
+     *                       below 2 the plan is returned as it is
+     * @param minPages       the number of pages from which a scan is split
+     * @param broadcastBytes the estimated bytes of memory the copies of a
+     *                       broadcast join input may take up
+     * @return the rewritten plan
+     */
+    public static OpIterator parallelize(OpIterator plan, int workers, int minPages, long broadcastBytes) {
+        if (workers < 2)
+            return plan;
+        return new Parallelizer(workers, minPages, broadcastBytes).rewrite(plan, false);
+    }
+
+    /**
+     * @param rewound true if the parent of op reads it more than once, so
+     *                that its threads would be started again every time
+     */
+    private OpIterator rewrite(OpIterator op, boolean rewound) {
+        if (!rewound && isSplittable(op))
+            return new Gather(split(op));
+        if (!(op instanceof Operator) || op instanceof SortMergeJoin || op instanceof Exchange)
+            return op;
+        Operator o = (Operator) op;
+        OpIterator[] children = o.getChildren();
+
+        if (!rewound && isSplittableJoin(o)) {
+            int side = splitSide(o, children);
+            if (side >= 0 && canBroadcast(o, children[1 - side], side))
+                return splitJoin(o, children, side);
+            if (o instanceof HashEquiJoin && isSplittable(children[0]) && isSplittable(children[1]))
+                return repartitionJoin((HashEquiJoin) o, children);
+        }
+
+        if (o instanceof IndexNestedLoopJoin) {
+            children[0] = rewrite(children[0], rewound);
+        } else if (o instanceof Join || o instanceof BlockNestedLoopJoin) {
+            children[0] = rewrite(children[0], rewound);
+            children[1] = rewrite(children[1], true);
+        } else {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null)
+                    children[i] = rewrite(children[i], rewound);
+            }
+        }
+        o.setChildren(children);
+        return o;
+    }
+
+    /**
+     * @return true if op is a large enough scan of a whole HeapFile, under
+     *         any number of filters
+     */
+    private boolean isSplittable(OpIterator op) {
+        while (op instanceof Filter)
+            op = ((Filter) op).getChildren()[0];
+        if (!(op instanceof SeqScan))
+            return false;
+        SeqScan scan = (SeqScan) op;
+        return scan.heapPages() >= minPages && scan.getStartPage() == 0
+                && scan.getEndPage() == Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return a copy of a splittable op for each of workers disjoint page
+     *         ranges
+     */
+    private OpIterator[] split(OpIterator op) {
+        if (op instanceof Filter) {
+            Filter f = (Filter) op;
+            OpIterator[] parts = split(f.getChildren()[0]);
+            for (int i = 0; i < parts.length; i++)
+                parts[i] = new Filter(f.getPredicates(), parts[i]);
+            return parts;
+        }
+        SeqScan scan = (SeqScan) op;
+        int pages = scan.heapPages();
+        OpIterator[] parts = new OpIterator[workers];
+        for (int i = 0; i < workers; i++) {
+            int start = (int) ((long) pages * i / workers);
+            // the last range also covers pages added after planning
+            int end = i == workers - 1 ? Integer.MAX_VALUE : (int) ((long) pages * (i + 1) / workers);
+            parts[i] = scan.pageRange(start, end);
+        }
+        return parts;
+    }
+
+    private static boolean isSplittableJoin(Operator o) {
+        return o instanceof Join || o instanceof BlockNestedLoopJoin || o instanceof HashEquiJoin;
+    }
+
+    /**
+     * @return the input of a join to split, or -1 if neither can be: the
+     *         probe input of a hash join or the outer input of a nested-loop
+     *         join if possible, else the other one
+     */
+    private int splitSide(Operator join, OpIterator[] children) {
+        int preferred = join instanceof HashEquiJoin ? 1 : 0;
+        if (isSplittable(children[preferred]))
+            return preferred;
+        if (isSplittable(children[1 - preferred]))
+            return 1 - preferred;
+        return -1;
+    }
+
+    /**
+     * @return true if the estimated bytes of the copies of the input a split
+     *         join would broadcast fit the budget: one copy, plus one hash
+     *         table per fragment if it is the build input of a hash join
+     */
+    private boolean canBroadcast(Operator join, OpIterator broadcast, int side) {
+        long bytes = estimatedBytes(broadcast);
+        if (bytes < 0)
+            return false;
+        int copies = join instanceof HashEquiJoin && side == 1 ? workers + 1 : 1;
+        return bytes <= broadcastBytes / copies;
+    }
+
+    /**
+     * @return an upper bound on the bytes the tuples of op take up in
+     *         memory, counting every slot of its pages as full, or -1 if op
+     *         is not a scan of a HeapFile under any number of filters
+     */
+    private static long estimatedBytes(OpIterator op) {
+        while (op instanceof Filter)
+            op = ((Filter) op).getChildren()[0];
+        if (!(op instanceof SeqScan) || ((SeqScan) op).heapPages() < 0)
+            return -1;
+        SeqScan scan = (SeqScan) op;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(
+                Database.getCatalog().getTableId(scan.getTableName()));
+        long tuplesPerPage = BufferPool.getPageSize() * 8L / (tableTd.getSize() * 8L + 1);
+        return scan.heapPages() * tuplesPerPage * MemoryManager.tupleBytes(scan.getTupleDesc());
+    }
+
+    /**
+     * Splits both inputs of a hash join into page ranges, repartitions them
+     * on their join fields, and joins each partition in a fragment of its
+     * own.
+     */
+    private OpIterator repartitionJoin(HashEquiJoin join, OpIterator[] children) {
+        JoinPredicate p = join.getJoinPredicate();
+        Repartition[] build = Repartition.outputs(split(children[0]), p.getField1(), workers);
+        Repartition[] probe = Repartition.outputs(split(children[1]), p.getField2(), workers);
+        OpIterator[] fragments = new OpIterator[workers];
+        for (int i = 0; i < workers; i++)
+            fragments[i] = copyJoin(join, build[i], probe[i]);
+        return new Gather(fragments);
+    }
+
+    /**
+     * Splits one input of a join into page ranges and broadcasts the other
+     * to a copy of the join per range.
+     */
+    private OpIterator splitJoin(Operator join, OpIterator[] children, int side) {
+        OpIterator[] parts = split(children[side]);
+        OpIterator other = rewrite(children[1 - side], false);
+        Broadcast[] copies = Broadcast.outputs(new OpIterator[]{other}, parts.length);
+        OpIterator[] fragments = new OpIterator[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            OpIterator left = side == 0 ? parts[i] : copies[i];
+            OpIterator right = side == 0 ? copies[i] : parts[i];
+            fragments[i] = copyJoin(join, left, right);
+        }
+        return new Gather(fragments);
+    }
+
+    private static Operator copyJoin(Operator join, OpIterator child1, OpIterator child2) {
+        if (join instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) join;
+            return new HashEquiJoin(j.getJoinPredicate(), child1, child2, j.getMaxBuildTuples());
+        }
+        if (join instanceof BlockNestedLoopJoin) {
+            BlockNestedLoopJoin j = (BlockNestedLoopJoin) join;
+            return new BlockNestedLoopJoin(j.getJoinPredicate(), child1, child2, j.getBlockSize());
+        }
+        return new Join(((Join) join).getJoinPredicate(), child1, child2);
+    }
+}
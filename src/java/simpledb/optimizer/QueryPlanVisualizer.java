@@ -12,11 +12,17 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String BLOCK_JOIN = "⨝(block)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
+    static final String FETCH = "fetch";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "top";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -29,7 +35,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || joinLabel(o) != null) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -42,6 +48,32 @@ public class QueryPlanVisualizer {
         return 2;
     }
 
+    /**
+     * @return the label of a join operator other than Join, or null if o
+     *         is not one
+     */
+    private static String joinLabel(Operator o) {
+        if (o instanceof HashEquiJoin)
+            return HASH_JOIN;
+        if (o instanceof SortMergeJoin)
+            return MERGE_JOIN;
+        if (o instanceof BlockNestedLoopJoin)
+            return BLOCK_JOIN;
+        if (o instanceof IndexNestedLoopJoin)
+            return INDEX_JOIN;
+        return null;
+    }
+
+    private static JoinPredicate joinPredicate(Operator o) {
+        if (o instanceof HashEquiJoin)
+            return ((HashEquiJoin) o).getJoinPredicate();
+        if (o instanceof SortMergeJoin)
+            return ((SortMergeJoin) o).getJoinPredicate();
+        if (o instanceof BlockNestedLoopJoin)
+            return ((BlockNestedLoopJoin) o).getJoinPredicate();
+        return ((IndexNestedLoopJoin) o).getJoinPredicate();
+    }
+
     private static class SubTreeDescriptor {
         int width;
         int upBarPosition;
@@ -138,18 +170,19 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
+            } else if (joinLabel(plan) != null) {
+                Operator j = plan;
+                String label = joinLabel(plan);
+                JoinPredicate jp = joinPredicate(plan);
                 TupleDesc td = j.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", label, field1
                         + jp.getOperator() + field2,j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (label.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = label.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -158,7 +191,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - label.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -167,21 +200,36 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
-            else if (plan instanceof Aggregate) {
-                Aggregate a = (Aggregate) plan;
+            else if (plan instanceof Aggregate || plan instanceof SortedAggregate) {
+                Operator a = plan;
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                int gfield;
+                String gname, aname;
+                Aggregator.Op aop;
+                if (a instanceof Aggregate) {
+                    Aggregate agg = (Aggregate) a;
+                    gfield = agg.groupField();
+                    gname = agg.groupFieldName();
+                    aname = agg.aggregateFieldName();
+                    aop = agg.aggregateOp();
+                } else {
+                    SortedAggregate agg = (SortedAggregate) a;
+                    gfield = agg.groupField();
+                    gname = agg.groupFieldName();
+                    aname = agg.aggregateFieldName();
+                    aop = agg.aggregateOp();
+                }
 
                 if (gfield == Aggregator.NO_GROUPING) {
                     thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                            aop, aname,a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(0);
                 } else {
                     thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                            GROUPBY, gname, aop,
+                            aname,a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -200,11 +248,15 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                StringBuilder preds = new StringBuilder();
+                for (Predicate p : f.getPredicates()) {
+                    if (preds.length() > 0)
+                        preds.append(" AND ");
+                    preds.append(children[0].getTupleDesc().getFieldName(p.getField()))
+                            .append(p.getOp()).append(p.getOperand());
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        preds, f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -240,6 +292,34 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String label;
+                if (plan instanceof TopN) {
+                    TopN t = (TopN) plan;
+                    label = TOPN;
+                    thisNode.text = String.format("%1$s%2$d(%3$s),card:%4$d", TOPN, t.getLimit(),
+                            children[0].getTupleDesc().getFieldName(t.getOrderByField()),
+                            t.getEstimatedCardinality());
+                } else {
+                    Limit l = (Limit) plan;
+                    label = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d", LIMIT, l.getLimit(),
+                            l.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (label.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = label.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - label.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -263,15 +343,33 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
-                String name="Exchange";
-                int card=0;
-                try {
-                    name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } 
+            else if (plan instanceof Fetch) {
+                Fetch f = (Fetch) plan;
+                TupleDesc td = f.getTupleDesc();
+                StringBuilder fields = new StringBuilder();
+                for (int i = f.getChildren()[0].getTupleDesc().numFields(); i < td.numFields(); i++)
+                    fields.append(td.getFieldName(i)).append(",");
+                fields = new StringBuilder(fields.substring(0, fields.length() - 1));
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", FETCH, fields.toString(), f.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (FETCH.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = FETCH.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - FETCH.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
+            else if (plan instanceof Exchange) {
+                Exchange e = (Exchange) plan;
+                String name = e.getName();
+                int card = e.getEstimatedCardinality();
 
                 thisNode.text = String.format("%1$s,card:%2$d", name,card);
                 int upBarShift = parentUpperBarStartShift;
@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -100,7 +101,8 @@ public class TableStats {
         this.tableid = tableid;
         this.ioCostPerPage=ioCostPerPage;
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        this.numPages = ((HeapFile) dbFile).numPages();
+        this.numPages = dbFile instanceof BTreeFile ? ((BTreeFile) dbFile).numPages()
+                : ((HeapFile) dbFile).numPages();
         this.tupleDesc = dbFile.getTupleDesc();
         this.totalTuples = 0;
         this.intHistogramMap = new HashMap<>();
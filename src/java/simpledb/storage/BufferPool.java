@@ -12,6 +12,8 @@ import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -40,6 +42,8 @@ public class BufferPool {
 
     private Deque<PageId> FIFO;
     private LockManager lockManager;
+    /** the reads of pages that are not in the pool yet, by page */
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> loading = new ConcurrentHashMap<>();
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -85,6 +89,55 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
+        lockPage(tid, pid, perm);
+        // parallel scans miss on different pages at once: each page is read
+        // outside the monitor, by the first thread to miss on it, while the
+        // others wait for that read
+        while (true) {
+            Page cached = pageMap.get(pid);
+            if (cached != null)
+                return cached;
+            FutureTask<Page> read = new FutureTask<>(
+                    () -> Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
+            FutureTask<Page> reading = loading.putIfAbsent(pid, read);
+            if (reading != null) {
+                // the reader adds the page; look again
+                awaitRead(reading);
+                continue;
+            }
+            try {
+                // another reader may have added the page since we looked
+                Page page = pageMap.get(pid);
+                if (page != null)
+                    return page;
+                read.run();
+                page = awaitRead(read);
+                synchronized (this) {
+                    if (pageMap.size() >= numPages)
+                        evictPage();
+                    FIFO.add(pid);
+                    pageMap.put(pid, page);
+                }
+                return page;
+            } finally {
+                loading.remove(pid, read);
+            }
+        }
+    }
+
+    /**
+     * Acquires the lock {@link #getPage} would on a page, without reading the
+     * page. A scan that skips a page it can tell holds no tuple it wants
+     * locks the page all the same, so that no such tuple can be added to it
+     * before the scanning transaction completes.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the permissions the lock is for
+     * @throws TransactionAbortedException if the lock was not granted in time
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
         int acquireType=0;
         if (perm == Permissions.READ_WRITE) {
             acquireType = 1;
@@ -97,25 +150,34 @@ public class BufferPool {
                     break;
                 }
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                // the thread is being stopped, e.g. by a closing Exchange
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
             }
             long now = System.currentTimeMillis();
             if (now - start > timeout) {
                 throw new TransactionAbortedException();
             }
         }
-        if (!pageMap.containsKey(pid))
-        {
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            FIFO.add(pid);
-            if (pageMap.size()==numPages)
-            {
-                evictPage();
-            }
-            pageMap.put(pid,page);
+    }
+
+    /**
+     * Waits for a page read started by getPage, and rethrows what the read
+     * threw.
+     */
+    private Page awaitRead(FutureTask<Page> read) throws TransactionAbortedException, DbException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new DbException("cannot read a page: " + e.getCause());
         }
-        return pageMap.get(pid);
     }
 
     /**
@@ -316,6 +378,9 @@ public class BufferPool {
         boolean isAllDirty=true;
         for (int i = 0; i < pageMap.size(); i++) {
             pageId=FIFO.poll();
+            if (pageId==null){
+                break;
+            }
             page=pageMap.get(pageId);
             if (page==null){
                 continue;
@@ -0,0 +1,381 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageFile stores the pages of a DbFile compressed with
+ * {@link Deflater}. Each page occupies a variable-size extent of the data
+ * file; a page-offset map, kept in a side file, records where the extent of
+ * every page starts, how many compressed bytes it holds, and how many bytes
+ * were allocated for it.
+ * <p>
+ * The map side file ({@link #mapFile}) holds one fixed-size entry of
+ * {@link #MAP_ENTRY_SIZE} bytes per page, in page order: the extent offset
+ * (long), the compressed length (int) and the extent capacity (int). It is
+ * read into memory when the file is opened and written through on every
+ * change.
+ * <p>
+ * A page is never overwritten in place: each write goes to a free extent,
+ * is forced to disk, and only then is the page's map entry written and
+ * forced, so that after a crash the map points at either the old or the new
+ * extent, both whole. The old extent is then free, and free extents are
+ * reused before the data file grows. Free extents are not recorded on
+ * disk; they are the gaps between the extents of the map when the file is
+ * opened.
+ * <p>
+ * Reads only take the lock to look up the map, and read and decompress
+ * outside it, so pages can be read by many threads at once. Writes are
+ * serialized.
+ * <p>
+ * Pages are addressed by their index in the file, starting at 0, and are
+ * always decompressed to the size they were written with.
+ */
+public class CompressedPageFile {
+
+    /** the size of an entry of the page-offset map */
+    public static final int MAP_ENTRY_SIZE = 16;
+    /** extents are allocated in multiples of this many bytes */
+    private static final int EXTENT_ALIGN = 64;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final File file;
+    private final File map;
+    private final FileChannel data;
+    private final FileChannel mapChannel;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int numPages;
+    private long end;
+    /** the free extents before end, by offset, with their sizes */
+    private final TreeMap<Long, Integer> free = new TreeMap<>();
+    /** the number of times a free extent was reused; a read retries if it changed */
+    private long reuses;
+    /** serializes writes, which do their I/O without holding the map lock */
+    private final Object writeLock = new Object();
+
+    /**
+     * Opens the compressed file stored in f and its page-offset map, or an
+     * empty one if f does not exist yet.
+     */
+    public CompressedPageFile(File f) throws IOException {
+        this.file = f;
+        this.map = mapFile(f);
+        int n = map.exists() ? (int) (map.length() / MAP_ENTRY_SIZE) : 0;
+        this.offsets = new long[Math.max(n, 16)];
+        this.lengths = new int[offsets.length];
+        this.capacities = new int[offsets.length];
+        if (n > 0) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(map)));
+            try {
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = dis.readLong();
+                    lengths[i] = dis.readInt();
+                    capacities[i] = dis.readInt();
+                }
+            } finally {
+                dis.close();
+            }
+        }
+        this.numPages = n;
+        findFreeExtents();
+        this.data = FileChannel.open(f.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.mapChannel = FileChannel.open(map.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Sets end past the last extent in use, and records the gaps between
+     * the extents in use as free.
+     */
+    private void findFreeExtents() {
+        Integer[] byOffset = new Integer[numPages];
+        for (int i = 0; i < numPages; i++)
+            byOffset[i] = i;
+        Arrays.sort(byOffset, (a, b) -> Long.compare(offsets[a], offsets[b]));
+        for (int i : byOffset) {
+            if (offsets[i] > end)
+                free.put(end, (int) (offsets[i] - end));
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+    }
+
+    /**
+     * @return the file holding the page-offset map of the compressed file f
+     */
+    public static File mapFile(File f) {
+        return new File(f.getPath() + ".pmap");
+    }
+
+    /**
+     * @return the number of pages in the file
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Reads and decompresses a page.
+     *
+     * @param pageNo the index of the page
+     * @param pageSize the uncompressed size of the page
+     * @throws IllegalArgumentException if the page does not exist
+     */
+    public byte[] read(int pageNo, int pageSize) throws IOException {
+        while (true) {
+            long offset;
+            int length;
+            long seen;
+            synchronized (this) {
+                if (pageNo < 0 || pageNo >= numPages)
+                    throw new IllegalArgumentException("Read past end of table");
+                offset = offsets[pageNo];
+                length = lengths[pageNo];
+                seen = reuses;
+            }
+            ByteBuffer compressed = ByteBuffer.allocate(length);
+            while (compressed.hasRemaining()) {
+                if (data.read(compressed, offset + compressed.position()) < 0)
+                    throw new EOFException("page " + pageNo + " of " + file + " is past the end of the file");
+            }
+            synchronized (this) {
+                // the extent was freed and reused by another page while it was read
+                if (reuses != seen)
+                    continue;
+            }
+            return inflate(pageNo, compressed.array(), pageSize);
+        }
+    }
+
+    private byte[] inflate(int pageNo, byte[] compressed, int pageSize) throws IOException {
+        byte[] data = new byte[pageSize];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < pageSize && !inflater.finished()) {
+                int k = inflater.inflate(data, n, pageSize - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if (n != pageSize)
+                throw new IOException("page " + pageNo + " of " + file + " is truncated");
+        } catch (DataFormatException e) {
+            throw new IOException("page " + pageNo + " of " + file + " is corrupt", e);
+        }
+        return data;
+    }
+
+    /**
+     * Compresses and writes a page, adding it to the end of the file if
+     * pageNo is numPages().
+     *
+     * @throws IllegalArgumentException if pageNo is greater than numPages()
+     */
+    public void write(int pageNo, byte[] data) throws IOException {
+        write(pageNo, data, true);
+    }
+
+    /**
+     * @param force whether to force the page and its map entry to disk, in
+     *        that order; if not, the caller must {@link #force} them
+     */
+    private void write(int pageNo, byte[] data, boolean force) throws IOException {
+        byte[] compressed = deflate(data);
+        int capacity = (compressed.length + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+        synchronized (writeLock) {
+            long offset;
+            synchronized (this) {
+                if (pageNo < 0 || pageNo > numPages)
+                    throw new IllegalArgumentException("page " + pageNo + " is past the end of " + file);
+                offset = allocate(capacity);
+            }
+            try {
+                writeFully(this.data, ByteBuffer.wrap(compressed), offset);
+                if (force)
+                    this.data.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    release(offset, capacity);
+                }
+                throw e;
+            }
+
+            boolean moved;
+            long oldOffset;
+            int oldCapacity;
+            synchronized (this) {
+                moved = pageNo < numPages;
+                if (pageNo == numPages) {
+                    if (numPages == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, numPages * 2);
+                        lengths = Arrays.copyOf(lengths, numPages * 2);
+                        capacities = Arrays.copyOf(capacities, numPages * 2);
+                    }
+                    numPages++;
+                }
+                oldOffset = offsets[pageNo];
+                oldCapacity = capacities[pageNo];
+                offsets[pageNo] = offset;
+                lengths[pageNo] = compressed.length;
+                capacities[pageNo] = capacity;
+            }
+            writeMapEntry(pageNo, offset, compressed.length, capacity);
+            if (force)
+                mapChannel.force(false);
+            // the old extent may only be reused once no map on disk points at it
+            if (moved) {
+                synchronized (this) {
+                    release(oldOffset, oldCapacity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses and adds a page to the end of the file.
+     *
+     * @return the index of the new page
+     */
+    public int append(byte[] data) throws IOException {
+        synchronized (writeLock) {
+            int pageNo = numPages();
+            write(pageNo, data);
+            return pageNo;
+        }
+    }
+
+    /**
+     * @return the offset of a new extent of the given size: the first free
+     *         extent that is large enough, or else one at the end of the file
+     */
+    private long allocate(int capacity) {
+        for (Map.Entry<Long, Integer> e : free.entrySet()) {
+            if (e.getValue() >= capacity) {
+                long offset = e.getKey();
+                free.remove(offset);
+                if (e.getValue() > capacity)
+                    free.put(offset + capacity, e.getValue() - capacity);
+                reuses++;
+                return offset;
+            }
+        }
+        long offset = end;
+        end += capacity;
+        return offset;
+    }
+
+    /**
+     * Frees an extent, merging it with the free extents next to it.
+     */
+    private void release(long offset, int capacity) {
+        Map.Entry<Long, Integer> before = free.lowerEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            free.remove(before.getKey());
+            offset = before.getKey();
+            capacity += before.getValue();
+        }
+        Integer after = free.remove(offset + capacity);
+        if (after != null)
+            capacity += after;
+        free.put(offset, capacity);
+    }
+
+    /**
+     * @return the bytes of data compressed
+     */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            n += deflater.deflate(buffer, n, buffer.length - n);
+        }
+        return Arrays.copyOf(buffer, n);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining())
+            position += channel.write(buf, position);
+    }
+
+    /**
+     * Writes the map entry of a page. An entry never straddles a disk
+     * sector, so it is either written whole or not at all.
+     */
+    private void writeMapEntry(int pageNo, long offset, int length, int capacity) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(MAP_ENTRY_SIZE);
+        entry.putLong(offset).putInt(length).putInt(capacity).flip();
+        writeFully(mapChannel, entry, (long) pageNo * MAP_ENTRY_SIZE);
+    }
+
+    /**
+     * Forces the pages, then the map, to disk.
+     */
+    private void force() throws IOException {
+        data.force(false);
+        mapChannel.force(false);
+    }
+
+    /**
+     * Closes the data and map files; the file must not be used afterwards.
+     */
+    public void close() throws IOException {
+        data.close();
+        mapChannel.close();
+    }
+
+    /**
+     * Compresses an uncompressed page file, such as one produced by
+     * {@link HeapFileEncoder}, into a compressed file and its map. The zone
+     * map of in, if any, becomes the zone map of out.
+     *
+     * @param in the uncompressed file
+     * @param out the compressed file to create
+     * @param firstPageSize the size of the first page of in
+     * @param pageSize the size of every other page of in
+     */
+    public static void compress(File in, File out, int firstPageSize, int pageSize) throws IOException {
+        out.delete();
+        mapFile(out).delete();
+        CompressedPageFile cf = new CompressedPageFile(out);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(in)));
+        try {
+            long remaining = in.length();
+            int size = firstPageSize;
+            while (remaining >= size) {
+                byte[] page = new byte[size];
+                dis.readFully(page);
+                // a new file: force it once at the end rather than per page
+                cf.write(cf.numPages(), page, false);
+                remaining -= size;
+                size = pageSize;
+            }
+            cf.force();
+        } finally {
+            dis.close();
+            cf.close();
+        }
+        ZoneMap.copy(in, out);
+    }
+}
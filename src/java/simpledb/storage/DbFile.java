@@ -73,6 +73,19 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns iterators over up to n disjoint parts of this DbFile, which
+     * together return all of its tuples. The iterators may be read by
+     * different threads at once, as part of the same transaction. Files
+     * that cannot be split return a single iterator over all their tuples.
+     *
+     * @param n the number of parts wanted
+     * @return the iterators, in file order
+     */
+    default List<DbFileIterator> splitIterators(TransactionId tid, int n) {
+        return Collections.singletonList(iterator(tid));
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,68 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * A StringField read from a dictionary-encoded column. It carries the code
+ * of its value as well as the value, so that equality between two fields of
+ * the same dictionary is an integer comparison.
+ * <p>
+ * Hash codes are those of the string value, so encoded and plain fields
+ * with the same value remain interchangeable as hash keys.
+ *
+ * @see StringDictionary
+ */
+public class EncodedStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient StringDictionary dictionary;
+    private final int code;
+
+    /**
+     * @param dictionary the dictionary of the column the value was read from
+     * @param code the code of the value in that dictionary
+     */
+    public EncodedStringField(StringDictionary dictionary, int code) {
+        super(dictionary.decode(code), Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    private boolean sameDictionary(Object field) {
+        return field instanceof EncodedStringField
+                && ((EncodedStringField) field).dictionary == dictionary
+                && dictionary != null;
+    }
+
+    public boolean equals(Object field) {
+        if (sameDictionary(field))
+            return ((EncodedStringField) field).code == code;
+        return super.equals(field);
+    }
+
+    /**
+     * Compares codes for equality tests against a field of the same
+     * dictionary; everything else compares the string values.
+     *
+     * @see StringField#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS)
+                return ((EncodedStringField) val).code == code;
+            if (op == Predicate.Op.NOT_EQUALS)
+                return ((EncodedStringField) val).code != code;
+        }
+        return super.compare(op, val);
+    }
+}
@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -22,6 +24,16 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The format of the pages of a HeapFile.
+     */
+    public enum Layout {
+        /** tuples are stored one after the other, see {@link HeapPage} */
+        ROW,
+        /** values are grouped by column into minipages, see {@link PaxPage} */
+        PAX
+    }
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -32,11 +44,178 @@ public class HeapFile implements DbFile {
     private File file;
     private TupleDesc td;
     private BufferPool bufferPool;
+    private final Layout layout;
+    private final ZoneMap zoneMap;
+    /** the dictionary of each dictionary-encoded field, or null if there are none */
+    private final StringDictionary[] dictionaries;
+    /** the total version of the dictionaries when they were last written out */
+    private int savedDictionaryVersion;
+    /** the compressed pages of the file, or null if its pages are stored as is */
+    private final CompressedPageFile compressed;
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, Layout.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * stored in the given layout.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param layout
+     *            the format of the pages in f
+     */
+    public HeapFile(File f, TupleDesc td, Layout layout) {
+        this(f, td, layout, new int[0]);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * stored in the given layout, and whose given STRING fields are
+     * dictionary-encoded: pages store a 4-byte code per value, and the
+     * dictionaries are kept in {@link StringDictionary#sideFile(File)}.
+     * Inserted values are added to the dictionary of their field until it
+     * is full; pages appended after that store the field as plain strings.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param layout
+     *            the format of the pages in f
+     * @param dictFields
+     *            the indexes of the dictionary-encoded fields
+     * @throws IllegalArgumentException if a dictionary field is not a STRING field
+     */
+    public HeapFile(File f, TupleDesc td, Layout layout, int[] dictFields) {
+        this(f, td, layout, dictFields, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally with
+     * its pages compressed on disk; see {@link CompressedPageFile}. Pages are
+     * compressed when written and decompressed when read, so compression is
+     * invisible to the BufferPool.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param layout
+     *            the format of the pages in f
+     * @param dictFields
+     *            the indexes of the dictionary-encoded fields
+     * @param compress
+     *            whether f is a compressed page file
+     */
+    public HeapFile(File f, TupleDesc td, Layout layout, int[] dictFields, boolean compress) {
         // some code goes here
         this.file=f;
         this.td=td;
+        this.layout=layout;
+        try {
+            this.zoneMap=ZoneMap.open(td, f);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read the zone map of " + f, e);
+        }
         this.bufferPool=Database.getBufferPool();
+        if (dictFields.length == 0) {
+            this.dictionaries=null;
+        } else {
+            this.dictionaries=new StringDictionary[td.numFields()];
+            for (int field : dictFields) {
+                if (td.getFieldType(field) != Type.STRING_TYPE)
+                    throw new IllegalArgumentException("field " + field + " is not a STRING field");
+                dictionaries[field]=new StringDictionary();
+            }
+            File sideFile = StringDictionary.sideFile(f);
+            if (sideFile.exists()) {
+                try {
+                    StringDictionary.readAll(sideFile, dictionaries);
+                } catch (IOException e) {
+                    throw new IllegalStateException("cannot read the dictionaries of " + f, e);
+                }
+            }
+            this.savedDictionaryVersion=dictionaryVersion();
+        }
+        if (compress) {
+            try {
+                this.compressed=new CompressedPageFile(f);
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot read the page map of " + f, e);
+            }
+        } else {
+            this.compressed=null;
+        }
+    }
+
+    /**
+     * @return true if the pages of this file are compressed on disk.
+     */
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /**
+     * @return the dictionary of field i, or null if the field is not
+     *         dictionary-encoded
+     */
+    public StringDictionary getDictionary(int i) {
+        return dictionaries == null ? null : dictionaries[i];
+    }
+
+    /**
+     * @return the dictionaries of the fields stored as codes on a page, or
+     *         null if there are none
+     */
+    StringDictionary[] getDictionaries(int pageNo) {
+        if (dictionaries == null)
+            return null;
+        StringDictionary[] onPage = dictionaries;
+        for (int i = 0; i < dictionaries.length; i++) {
+            if (dictionaries[i] != null && dictionaries[i].plainFrom() <= pageNo) {
+                if (onPage == dictionaries)
+                    onPage = dictionaries.clone();
+                onPage[i] = null;
+            }
+        }
+        return onPage;
+    }
+
+    private int dictionaryVersion() {
+        int version = 0;
+        for (StringDictionary d : dictionaries) {
+            if (d != null)
+                version += d.version();
+        }
+        return version;
+    }
+
+    /**
+     * Writes the dictionaries out if they changed since they were last
+     * written, so that every code on disk can be decoded.
+     */
+    private synchronized void saveDictionaries() throws IOException {
+        if (dictionaries == null)
+            return;
+        int version = dictionaryVersion();
+        if (version != savedDictionaryVersion) {
+            StringDictionary.writeAll(StringDictionary.sideFile(file), dictionaries);
+            savedDictionaryVersion = version;
+        }
+    }
+
+    /**
+     * @return the format of the pages of this file.
+     */
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the per-page min/max summaries of the INT fields of this file.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
     }
 
     /**
@@ -83,16 +262,25 @@ public class HeapFile implements DbFile {
         Page page=null;
         RandomAccessFile randomAccessFile = null;
         try {
-            randomAccessFile=new RandomAccessFile(file,"r");
-            byte[] data = new byte[pageSize];
-            randomAccessFile.seek(offset);
-            randomAccessFile.read(data);
-            page = new HeapPage(((HeapPageId) pid), data);
+            byte[] data;
+            if (compressed != null) {
+                data = compressed.read(pageNumber, pageSize);
+            } else {
+                randomAccessFile=new RandomAccessFile(file,"r");
+                data = new byte[pageSize];
+                randomAccessFile.seek(offset);
+                randomAccessFile.read(data);
+            }
+            if (layout == Layout.PAX)
+                page = new PaxPage((HeapPageId) pid, data);
+            else
+                page = new HeapPage(((HeapPageId) pid), data);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
             try {
-                randomAccessFile.close();
+                if (randomAccessFile != null)
+                    randomAccessFile.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -107,11 +295,19 @@ public class HeapFile implements DbFile {
         int pageSize=BufferPool.getPageSize();
         int pageNumber = page.getId().getPageNumber();
         int offset=pageSize*pageNumber;
-        RandomAccessFile randomAccessFile = null;
-        randomAccessFile=new RandomAccessFile(file,"rw");
-        randomAccessFile.seek(offset);
-        randomAccessFile.write(page.getPageData());
-        randomAccessFile.close();
+        byte[] data = page.getPageData();
+        saveDictionaries();
+        zoneMap.beforeWrite(pageNumber);
+        if (compressed != null) {
+            compressed.write(pageNumber, data);
+        } else {
+            RandomAccessFile randomAccessFile = null;
+            randomAccessFile=new RandomAccessFile(file,"rw");
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(data);
+            randomAccessFile.close();
+        }
+        zoneMap.afterWrite((HeapPage) page);
     }
 
     /**
@@ -119,10 +315,66 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
+        if (compressed != null)
+            return compressed.numPages();
         long length = this.file.length();
         return ((int) Math.ceil(length * 1.0 / BufferPool.getPageSize()));
     }
 
+    /**
+     * @return the number of low bits of a row reference that hold the slot,
+     *         enough for any page of the current page size
+     */
+    private static int slotBits() {
+        return 32 - Integer.numberOfLeadingZeros(BufferPool.getPageSize() - 1);
+    }
+
+    /**
+     * @return true if row references can point to every tuple of this file,
+     *         with room for it to grow as large again while it is scanned;
+     *         the page number of a reference has only the bits the slot
+     *         leaves, enough for about 2GB of pages
+     */
+    public boolean canReferenceRows() {
+        long referenceable = (Integer.MAX_VALUE >>> slotBits()) + 1L;
+        return numPages() <= referenceable / 2;
+    }
+
+    /**
+     * Packs the record id of a tuple of a HeapFile into a single int, which
+     * {@link #getTuple(TransactionId, int)} resolves back to the tuple.
+     * Operators can carry it as an INT field in place of the fields of the
+     * tuple that are not needed yet.
+     *
+     * @throws DbException if the page number is too large to fit
+     */
+    public static int rowReference(RecordId rid) throws DbException {
+        int bits = slotBits();
+        int pageNo = rid.getPageId().getPageNumber();
+        if (pageNo > (Integer.MAX_VALUE >>> bits))
+            throw new DbException("page " + pageNo + " is too far into the file for a row reference");
+        return pageNo << bits | rid.getTupleNumber();
+    }
+
+    /**
+     * Reads the tuple a row reference from {@link #rowReference} points to,
+     * as part of transaction tid.
+     *
+     * @throws DbException if there is no tuple there
+     */
+    public Tuple getTuple(TransactionId tid, int ref) throws DbException, TransactionAbortedException {
+        int bits = slotBits();
+        HeapPageId pid = new HeapPageId(getId(), ref >>> bits);
+        if (pid.getPageNumber() >= numPages())
+            throw new DbException("no page for row reference " + ref);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        try {
+            return page.getTuple(ref & ((1 << bits) - 1));
+        } catch (NoSuchElementException e) {
+            throw new DbException("no tuple for row reference " + ref);
+        }
+    }
+
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
@@ -131,23 +383,39 @@ public class HeapFile implements DbFile {
         List<Page> modified = new ArrayList<>();
         for (int i = 0; i < numPages(); i++) {
             HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(),i),Permissions.READ_WRITE);
-            if (page.getNumEmptySlots()==0){
+            if (page.getNumEmptySlots()==0||!page.canEncode(t)){
                 bufferPool.unsafeReleasePage(tid, page.getId());
                 continue;
             }
             page.insertTuple(t);
+            zoneMap.include(i, t);
             modified.add(page);
             return modified;
         }
         // 当所有的页都满时,我们需要创建新的页并写入文件中
-        BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
+        if (dictionaries != null) {
+            // a value the full dictionary of its field has no code for is
+            // stored as is, on this page and every page after it
+            for (int i = 0; i < dictionaries.length; i++) {
+                StringDictionary d = dictionaries[i];
+                if (d != null && !d.canEncode(((StringField) t.getField(i)).getValue()))
+                    d.setPlainFrom(numPages());
+            }
+        }
         byte[] emptyPageData = HeapPage.createEmptyPageData();
         // 向文件末尾添加数据
-        outputStream.write(emptyPageData);
-        outputStream.close();
+        if (compressed != null) {
+            compressed.append(emptyPageData);
+        } else {
+            BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
+            outputStream.write(emptyPageData);
+            outputStream.close();
+        }
+        zoneMap.appended(numPages() - 1);
         // 加载到缓存中,使用numPages() - 1是因为此时numPages()已经变为插入后的大小了
         HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), numPages() - 1), Permissions.READ_WRITE);
         page.insertTuple(t);
+        zoneMap.include(page.getId().getPageNumber(), t);
         modified.add(page);
         return modified;
     }
@@ -159,6 +427,7 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         HeapPage page = (HeapPage) bufferPool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        zoneMap.invalidate(page.getId().getPageNumber());
         ArrayList<Page> modified = new ArrayList<>();
         modified.add(page);
         return modified;
@@ -170,21 +439,133 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this,tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * the zone map shows cannot hold a tuple satisfying every predicate.
+     * The iterator may still return tuples that do not satisfy them.
+     *
+     * @param pageFilters predicates over the fields of this file
+     * @see ZoneMap#mightMatch
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> pageFilters) {
+        return new HeapFileIterator(this,tid,pageFilters);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages startPage (inclusive) to
+     * endPage (exclusive) of this file. Iterators over disjoint page ranges
+     * may be used from different threads at once.
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return iterator(tid,Collections.emptyList(),startPage,endPage);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages startPage (inclusive) to
+     * endPage (exclusive) of this file that skips the pages the zone map
+     * shows cannot hold a tuple satisfying every predicate.
+     *
+     * @see #iterator(TransactionId, List)
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> pageFilters, int startPage, int endPage) {
+        return new HeapFileIterator(this,tid,pageFilters,startPage,endPage);
+    }
+
+    /**
+     * Splits this file into up to n runs of consecutive pages of about the
+     * same length. The last run is open-ended, so it also reads pages
+     * added after the split.
+     */
+    public List<DbFileIterator> splitIterators(TransactionId tid, int n) {
+        return splitIterators(tid,Collections.emptyList(),0,Integer.MAX_VALUE,n);
+    }
+
+    /**
+     * Splits pages startPage (inclusive) to endPage (exclusive) of this file
+     * into up to n runs of consecutive pages, each read by an iterator that
+     * skips the pages the zone map rules out for pageFilters.
+     *
+     * @see #splitIterators(TransactionId, int)
+     * @see #iterator(TransactionId, List, int, int)
+     */
+    public List<DbFileIterator> splitIterators(TransactionId tid, List<Predicate> pageFilters,
+                                               int startPage, int endPage, int n) {
+        int last = Math.min(endPage, numPages());
+        int pages = Math.max(0, last - startPage);
+        n = Math.max(1, Math.min(n, pages));
+        List<DbFileIterator> parts = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int start = startPage + (int) ((long) pages * i / n);
+            int end = i == n - 1 ? endPage : startPage + (int) ((long) pages * (i + 1) / n);
+            parts.add(iterator(tid,pageFilters,start,end));
+        }
+        return parts;
+    }
+
     public class HeapFileIterator implements DbFileIterator{
         private TransactionId tid;
         private HeapFile heapFile;
+        private List<Predicate> pageFilters;
         private Iterator<Tuple> iterator;
         private int pageNumber;
+        private final int startPage;
+        private final int endPage;
         public HeapFileIterator(HeapFile heapFile,TransactionId tid)
+        {
+            this(heapFile,tid,Collections.emptyList());
+        }
+
+        public HeapFileIterator(HeapFile heapFile,TransactionId tid,List<Predicate> pageFilters)
+        {
+            this(heapFile,tid,pageFilters,0,Integer.MAX_VALUE);
+        }
+
+        public HeapFileIterator(HeapFile heapFile,TransactionId tid,List<Predicate> pageFilters,
+                                int startPage,int endPage)
         {
             this.tid=tid;
             this.heapFile=heapFile;
+            this.pageFilters=pageFilters;
+            this.startPage=startPage;
+            this.endPage=endPage;
+        }
+
+        /**
+         * @return the page after the last page to read
+         */
+        private int endPage() {
+            return Math.min(endPage,numPages());
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            this.pageNumber=0;
-            this.iterator=getPageTuples(pageNumber);
+            this.pageNumber=nextPage(startPage);
+            if (pageNumber<endPage())
+                this.iterator=getPageTuples(pageNumber);
+            else
+                this.iterator=Collections.emptyIterator();
+        }
+
+        /**
+         * Skipped pages are locked as if read, so a tuple matching the
+         * filters cannot be inserted into one before the scan completes.
+         *
+         * @return the first page from pageNo on that may hold matching
+         *         tuples, or endPage() if there is none
+         */
+        private int nextPage(int pageNo) throws TransactionAbortedException {
+            int n=endPage();
+            if (!pageFilters.isEmpty()) {
+                while (pageNo<n) {
+                    // lock before consulting the summary an insert widens
+                    Database.getBufferPool().lockPage(tid,new HeapPageId(heapFile.getId(),pageNo),
+                            Permissions.READ_ONLY);
+                    if (zoneMap.mightMatch(pageNo,pageFilters))
+                        break;
+                    pageNo++;
+                }
+            }
+            return pageNo;
         }
 
         private Iterator<Tuple> getPageTuples(int pageNo) throws TransactionAbortedException, DbException{
@@ -192,6 +573,9 @@ public class HeapFile implements DbFile {
             {
                 HeapPageId heapPageId=new HeapPageId(heapFile.getId(), pageNo);
                 HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
+                // only a clean page is known to hold exactly what is on disk
+                if (page.isDirty()==null&&!zoneMap.isKnown(pageNo))
+                    zoneMap.summarize(page);
                 return page.iterator();
             }
             else{
@@ -207,8 +591,9 @@ public class HeapFile implements DbFile {
             }
             while (iterator!=null&&!iterator.hasNext())
             {
-                if (pageNumber<numPages()-1){
-                    pageNumber++;
+                int next=nextPage(pageNumber+1);
+                if (next<endPage()){
+                    pageNumber=next;
                     iterator=getPageTuples(pageNumber);
                 }
                 else {
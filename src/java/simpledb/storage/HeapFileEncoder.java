@@ -4,8 +4,17 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -17,6 +26,9 @@ import java.util.List;
 
 public class HeapFileEncoder {
 
+  /** Number of input bytes handed to a single parse task by convertParallel. */
+  public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -106,6 +118,15 @@ public class HeapFileEncoder {
         nheaderbytes++;  //ceiling
     int nheaderbits = nheaderbytes * 8;
 
+    // the zone map of the file, and the column of each INT field in it
+    ZoneMap zoneMap = new ZoneMap(new TupleDesc(Arrays.copyOf(typeAr, numFields)));
+    int[] intColumn = new int[numFields];
+    int nints = 0;
+    for (int i = 0; i < numFields; i++)
+        intColumn[i] = typeAr[i] == Type.INT_TYPE ? nints++ : -1;
+    int[] lo = newRange(nints, Integer.MAX_VALUE);
+    int[] hi = newRange(nints, Integer.MIN_VALUE);
+
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
 
@@ -142,7 +163,10 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    lo[intColumn[fieldNo]] = Math.min(lo[intColumn[fieldNo]], v);
+                    hi[intColumn[fieldNo]] = Math.max(hi[intColumn[fieldNo]], v);
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -210,12 +234,15 @@ public class HeapFileEncoder {
             headerBAOS.writeTo(os);
             pageStream.flush();
             pageBAOS.writeTo(os);
+            zoneMap.summarize(npages, lo, hi);
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
             headerStream = new DataOutputStream(headerBAOS);
             pageBAOS = new ByteArrayOutputStream(npagebytes);
             pageStream = new DataOutputStream(pageBAOS);
+            lo = newRange(nints, Integer.MAX_VALUE);
+            hi = newRange(nints, Integer.MIN_VALUE);
             
             recordcount = 0;
             npages++;
@@ -223,5 +250,365 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    zoneMap.save(outFile);
+  }
+
+  private static int[] newRange(int n, int value) {
+      int[] range = new int[n];
+      Arrays.fill(range, value);
+      return range;
+  }
+
+  /** Convert the specified input text file into a binary page file, parsing
+   * and encoding the input on the common fork-join pool. <br>
+   *
+   * @see #convertParallel(File, File, int, int, Type[], char, HeapFile.Layout, int[], ForkJoinPool, int)
+   */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convertParallel(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              HeapFile.Layout.ROW);
+  }
+
+  /** Convert the specified input text file into a binary page file with
+   * pages in the given layout, parsing and encoding the input on the common
+   * fork-join pool. <br>
+   *
+   * @see #convertParallel(File, File, int, int, Type[], char, HeapFile.Layout, int[], ForkJoinPool, int)
+   */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, HeapFile.Layout layout)
+      throws IOException {
+      convertParallel(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              layout, new int[0]);
+  }
+
+  /** Convert the specified input text file into a binary page file with
+   * pages in the given layout and the given STRING fields dictionary-encoded,
+   * parsing and encoding the input on the common fork-join pool. <br>
+   *
+   * @see #convertParallel(File, File, int, int, Type[], char, HeapFile.Layout, int[], ForkJoinPool, int)
+   */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, HeapFile.Layout layout,
+                 int[] dictFields)
+      throws IOException {
+      convertParallel(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              layout, dictFields, ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+  }
+
+   /** Convert the specified input text file into a binary page file using
+    * several threads. <br>
+    * The input is split into byte ranges of roughly chunkBytes bytes, each
+    * extended to the end of its last line. Every range is parsed and encoded
+    * into complete heap pages by a task on the given pool, and the encoded
+    * pages are written to outFile in input order through a single
+    * FileChannel. At most twice the pool's parallelism of ranges are in
+    * flight at once, so memory use does not depend on the input size.
+    * <p>
+    * The input format is the same as for {@link #convert(File, File, int, int, Type[], char)};
+    * the output is a regular heap file with pages in the given layout, but
+    * the last page of every range may be partially filled. Values of the
+    * dictionary-encoded fields are stored as codes, and the dictionaries are
+    * written to {@link StringDictionary#sideFile(File)} of outFile. The
+    * summaries of the INT fields of every page are written to
+    * {@link ZoneMap#sideFile(File)} of outFile.
+    *
+    * @see HeapPage
+    * @see HeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the types of the fields
+    * @param fieldSeparator the character separating fields on a line
+    * @param layout the format of the output pages
+    * @param dictFields the indexes of the STRING fields to dictionary-encode
+    * @param pool the pool that parses and encodes the input ranges
+    * @param chunkBytes the approximate number of input bytes per range
+    * @throws IOException if the input/output file can't be opened or a
+    *   malformed input line is encountered
+    */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 HeapFile.Layout pageLayout, int[] dictFields, ForkJoinPool pool, int chunkBytes)
+      throws IOException {
+      StringDictionary[] dictionaries = new StringDictionary[numFields];
+      for (int field : dictFields)
+          dictionaries[field] = new StringDictionary();
+      PageLayout layout = new PageLayout(npagebytes, numFields, typeAr, pageLayout, dictionaries);
+      ZoneMap zoneMap = new ZoneMap(new TupleDesc(layout.typeAr));
+      int window = Math.max(2, pool.getParallelism() * 2);
+
+      try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+           FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+                   StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          Deque<ForkJoinTask<EncodedRange>> inFlight = new ArrayDeque<>();
+          long written = 0;
+          long start = 0;
+          long size = in.size();
+          try {
+              while (start < size) {
+                  long end = lineEnd(in, Math.min(size, start + chunkBytes));
+                  final long rangeStart = start;
+                  inFlight.add(pool.submit(() -> encodeRange(in, rangeStart, end, layout, fieldSeparator)));
+                  start = end;
+                  if (inFlight.size() >= window)
+                      written += writeRange(out, awaitPages(inFlight.poll()), written, layout, zoneMap);
+              }
+              while (!inFlight.isEmpty())
+                  written += writeRange(out, awaitPages(inFlight.poll()), written, layout, zoneMap);
+          } finally {
+              for (ForkJoinTask<EncodedRange> task : inFlight)
+                  task.cancel(true);
+          }
+
+          // like convert, an empty input still produces one empty page
+          if (written == 0)
+              writeFully(out, new byte[npagebytes]);
+      }
+      if (dictFields.length > 0)
+          StringDictionary.writeAll(StringDictionary.sideFile(outFile), dictionaries);
+      zoneMap.save(outFile);
+  }
+
+  /**
+   * Returns the offset just past the first newline at or after pos, or the
+   * end of the channel if there is none.
+   */
+  private static long lineEnd(FileChannel in, long pos) throws IOException {
+      long size = in.size();
+      if (pos >= size)
+          return size;
+      ByteBuffer buf = ByteBuffer.allocate(4096);
+      while (pos < size) {
+          buf.clear();
+          int n = in.read(buf, pos);
+          if (n <= 0)
+              break;
+          for (int i = 0; i < n; i++) {
+              if (buf.get(i) == '\n')
+                  return pos + i + 1;
+          }
+          pos += n;
+      }
+      return size;
+  }
+
+  private static EncodedRange awaitPages(ForkJoinTask<EncodedRange> task) throws IOException {
+      try {
+          return task.get();
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while encoding pages");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          throw new IOException(e.getCause());
+      }
+  }
+
+  /**
+   * Writes the pages of a range at the given offset of the output, and adds
+   * their summaries to the zone map.
+   */
+  private static long writeRange(FileChannel out, EncodedRange range, long offset,
+                                 PageLayout layout, ZoneMap zoneMap) throws IOException {
+      int firstPage = (int) (offset / layout.npagebytes);
+      for (int i = 0; i < range.lo.size(); i++)
+          zoneMap.summarize(firstPage + i, range.lo.get(i), range.hi.get(i));
+      return writeFully(out, range.pages);
+  }
+
+  private static long writeFully(FileChannel out, byte[] pages) throws IOException {
+      ByteBuffer buf = ByteBuffer.wrap(pages);
+      while (buf.hasRemaining())
+          out.write(buf);
+      return pages.length;
+  }
+
+  /**
+   * The heap pages encoded from a range of the input, and the range of each
+   * INT field on each page.
+   */
+  private static class EncodedRange {
+      final byte[] pages;
+      final List<int[]> lo;
+      final List<int[]> hi;
+
+      EncodedRange(byte[] pages, List<int[]> lo, List<int[]> hi) {
+          this.pages = pages;
+          this.lo = lo;
+          this.hi = hi;
+      }
+  }
+
+  /**
+   * Parses the lines in [start, end) of the input and encodes them into
+   * consecutive heap pages.
+   */
+  private static EncodedRange encodeRange(FileChannel in, long start, long end,
+                                    PageLayout layout, char fieldSeparator) throws IOException {
+      byte[] data = new byte[(int) (end - start)];
+      ByteBuffer buf = ByteBuffer.wrap(data);
+      while (buf.hasRemaining()) {
+          int n = in.read(buf, start + buf.position());
+          if (n < 0)
+              throw new EOFException("input file shrank while converting");
+      }
+
+      ByteArrayOutputStream pages = new ByteArrayOutputStream(
+              (data.length / layout.nrecbytes / layout.nrecords + 1) * layout.npagebytes);
+      ByteBuffer page = ByteBuffer.allocate(layout.npagebytes);
+      List<int[]> los = new ArrayList<>();
+      List<int[]> his = new ArrayList<>();
+      int[] lo = newRange(layout.nints, Integer.MAX_VALUE);
+      int[] hi = newRange(layout.nints, Integer.MIN_VALUE);
+      int recordcount = 0;
+      int pos = 0;
+      while (pos < data.length) {
+          int eol = pos;
+          while (eol < data.length && data[eol] != '\n')
+              eol++;
+          int lineEnd = eol;
+          if (lineEnd > pos && data[lineEnd - 1] == '\r')
+              lineEnd--;
+          if (lineEnd > pos) {
+              layout.encodeRecord(data, pos, lineEnd, (byte) fieldSeparator, page, recordcount++, lo, hi);
+              if (recordcount == layout.nrecords) {
+                  pages.write(page.array(), 0, layout.npagebytes);
+                  los.add(lo);
+                  his.add(hi);
+                  page = ByteBuffer.allocate(layout.npagebytes);
+                  lo = newRange(layout.nints, Integer.MAX_VALUE);
+                  hi = newRange(layout.nints, Integer.MIN_VALUE);
+                  recordcount = 0;
+              }
+          }
+          pos = eol + 1;
+      }
+      if (recordcount > 0) {
+          pages.write(page.array(), 0, layout.npagebytes);
+          los.add(lo);
+          his.add(hi);
+      }
+      return new EncodedRange(pages.toByteArray(), los, his);
+  }
+
+  /**
+   * The slot geometry of a heap page for a given schema and page layout, and
+   * the logic to encode one input line into a slot.
+   */
+  private static class PageLayout {
+      final int npagebytes;
+      final Type[] typeAr;
+      final int nrecbytes;
+      final int nrecords;
+      final int nheaderbytes;
+      /** the dictionary of each field, null for fields stored as is */
+      final StringDictionary[] dictionaries;
+      /** offset of field f in slot s is fieldOffsets[f] + s * slotStride[f] */
+      final int[] fieldOffsets;
+      final int[] slotStride;
+      /** the column of each field in a zone map, or -1 for non-INT fields */
+      final int[] intColumn;
+      final int nints;
+
+      PageLayout(int npagebytes, int numFields, Type[] typeAr, HeapFile.Layout layout,
+                 StringDictionary[] dictionaries) {
+          this.npagebytes = npagebytes;
+          this.typeAr = Arrays.copyOf(typeAr, numFields);
+          this.dictionaries = dictionaries;
+          int recbytes = 0;
+          for (int i = 0; i < numFields; i++)
+              recbytes += fieldLen(i);
+          this.nrecbytes = recbytes;
+          this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+          this.nheaderbytes = (nrecords + 7) / 8;
+
+          this.intColumn = new int[numFields];
+          int ints = 0;
+          for (int i = 0; i < numFields; i++)
+              intColumn[i] = typeAr[i] == Type.INT_TYPE ? ints++ : -1;
+          this.nints = ints;
+
+          this.fieldOffsets = new int[numFields];
+          this.slotStride = new int[numFields];
+          int offset = nheaderbytes;
+          for (int i = 0; i < numFields; i++) {
+              fieldOffsets[i] = offset;
+              if (layout == HeapFile.Layout.PAX) {
+                  // one minipage of nrecords values per field
+                  slotStride[i] = fieldLen(i);
+                  offset += nrecords * fieldLen(i);
+              } else {
+                  slotStride[i] = nrecbytes;
+                  offset += fieldLen(i);
+              }
+          }
+      }
+
+      private int fieldLen(int i) {
+          return dictionaries[i] != null ? 4 : typeAr[i].getLen();
+      }
+
+      void encodeRecord(byte[] line, int from, int to, byte fieldSeparator,
+                        ByteBuffer page, int slot, int[] lo, int[] hi) throws IOException {
+          page.put(slot / 8, (byte) (page.get(slot / 8) | (1 << (slot % 8))));
+          int fieldStart = from;
+          for (int f = 0; f < typeAr.length; f++) {
+              page.position(fieldOffsets[f] + slot * slotStride[f]);
+              int fieldEnd = fieldStart;
+              while (fieldEnd < to && line[fieldEnd] != fieldSeparator)
+                  fieldEnd++;
+              if (fieldEnd == to && f < typeAr.length - 1)
+                  throw new IOException("BAD LINE : " + new String(line, from, to - from, "ISO-8859-1"));
+
+              // trim the field the same way String.trim() does
+              int s = fieldStart, e = fieldEnd;
+              while (s < e && (line[s] & 0xff) <= ' ')
+                  s++;
+              while (e > s && (line[e - 1] & 0xff) <= ' ')
+                  e--;
+
+              if (dictionaries[f] != null) {
+                  int len = Math.min(e - s, Type.STRING_LEN);
+                  page.putInt(dictionaries[f].encode(new String(line, s, len, "ISO-8859-1")));
+              } else if (typeAr[f] == Type.INT_TYPE) {
+                  int v = parseInt(line, s, e);
+                  page.putInt(v);
+                  lo[intColumn[f]] = Math.min(lo[intColumn[f]], v);
+                  hi[intColumn[f]] = Math.max(hi[intColumn[f]], v);
+              } else if (typeAr[f] == Type.STRING_TYPE) {
+                  int len = Math.min(e - s, Type.STRING_LEN);
+                  page.putInt(len);
+                  page.put(line, s, len);
+              }
+              fieldStart = fieldEnd + 1;
+          }
+      }
+
+      private static int parseInt(byte[] b, int from, int to) throws IOException {
+          int i = from;
+          boolean negative = false;
+          if (i < to && (b[i] == '-' || b[i] == '+')) {
+              negative = b[i] == '-';
+              i++;
+          }
+          if (i == to)
+              throw new IOException("BAD LINE : " + new String(b, from, to - from, "ISO-8859-1"));
+          long value = 0;
+          for (; i < to; i++) {
+              int digit = b[i] - '0';
+              if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L)
+                  throw new IOException("BAD LINE : " + new String(b, from, to - from, "ISO-8859-1"));
+              value = value * 10 + digit;
+          }
+          value = negative ? -value : value;
+          if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+              throw new IOException("BAD LINE : " + new String(b, from, to - from, "ISO-8859-1"));
+          return (int) value;
+      }
   }
 }
@@ -24,6 +24,10 @@ public class HeapPage implements Page {
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    /** the dictionary of each dictionary-encoded field, or null if there are none */
+    final StringDictionary[] dictionaries;
+    /** the size of a slot: td.getSize(), less the space saved by dictionary codes */
+    final int recordSize;
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
@@ -39,6 +43,8 @@ public class HeapPage implements Page {
      *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * Fields of dictionary-encoded columns are stored as a 4-byte code
+     * instead of the string itself; see {@link HeapFile#getDictionary}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
@@ -50,6 +56,8 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.dictionaries = dictionariesOf(id);
+        this.recordSize = recordSize();
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -73,12 +81,98 @@ public class HeapPage implements Page {
         this.dirty=false;
     }
 
+    /**
+     * Create a HeapPage with the slot geometry of its table but with an
+     * empty header and no tuples. Used by subclasses that decode a different
+     * on-disk format into the header and tuple slots themselves.
+     */
+    HeapPage(HeapPageId id) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.dictionaries = dictionariesOf(id);
+        this.recordSize = recordSize();
+        this.numSlots = getNumTuples();
+        this.header = new byte[getHeaderSize()];
+        this.tuples = new Tuple[numSlots];
+    }
+
+    private static StringDictionary[] dictionariesOf(HeapPageId id) {
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        return file instanceof HeapFile ? ((HeapFile) file).getDictionaries(id.getPageNumber()) : null;
+    }
+
+    /**
+     * @return the number of bytes field j takes up in a slot
+     */
+    int fieldLen(int j) {
+        if (dictionaries != null && dictionaries[j] != null)
+            return 4;
+        return td.getFieldType(j).getLen();
+    }
+
+    private int recordSize() {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += fieldLen(j);
+        return size;
+    }
+
+    /**
+     * @return the field j of a tuple, decoded from its dictionary code if
+     *         the field is dictionary-encoded
+     */
+    Field decodeField(int j, int code) {
+        return new EncodedStringField(dictionaries[j], code);
+    }
+
+    /**
+     * @return the dictionary code of field j of a tuple, which was added to
+     *         the dictionary when the tuple was inserted
+     */
+    int encodeField(int j, Field f) {
+        if (hasCode(j, f))
+            return ((EncodedStringField) f).getCode();
+        int code = dictionaries[j].lookup(((StringField) f).getValue());
+        if (code == -1)
+            throw new IllegalStateException("field " + j + " of a tuple on " + pid + " has no code");
+        return code;
+    }
+
+    /**
+     * @return true if every value of t that this page stores as a code has
+     *         one, or can be given one
+     */
+    boolean canEncode(Tuple t) {
+        if (dictionaries == null)
+            return true;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (isEncoded(j) && !hasCode(j, t.getField(j))
+                    && !dictionaries[j].canEncode(((StringField) t.getField(j)).getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if f carries its code in the dictionary of field j
+     */
+    private boolean hasCode(int j, Field f) {
+        return f instanceof EncodedStringField && ((EncodedStringField) f).getDictionary() == dictionaries[j];
+    }
+
+    /**
+     * @return true if field j is stored as a dictionary code
+     */
+    boolean isEncoded(int j) {
+        return dictionaries != null && dictionaries[j] != null;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
         // some code goes here
-        int tuple_size=td.getSize();
+        int tuple_size=recordSize;
         int counts=(int)Math.floor((BufferPool.getPageSize()*8*1.0) / (tuple_size * 8 + 1));
         return counts;
     }
@@ -101,7 +195,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return createPage(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -110,6 +204,13 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Decode a page of the same table and format as this one from data.
+     */
+    HeapPage createPage(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
@@ -133,7 +234,7 @@ public class HeapPage implements Page {
         // if associated bit is not set, read forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+            for (int i=0; i<recordSize; i++) {
                 try {
                     dis.readByte();
                 } catch (IOException e) {
@@ -149,9 +250,12 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = isEncoded(j) ? decodeField(j, dis.readInt()) : td.getFieldType(j).parse(dis);
                 t.setField(j, f);
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
@@ -191,7 +295,7 @@ public class HeapPage implements Page {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                for (int j=0; j<recordSize; j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -206,7 +310,10 @@ public class HeapPage implements Page {
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    if (isEncoded(j))
+                        dos.writeInt(encodeField(j, f));
+                    else
+                        f.serialize(dos);
                 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -215,7 +322,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + recordSize * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -281,6 +388,13 @@ public class HeapPage implements Page {
         {
            throw new DbException("this page is full or tupledesc is mismatch");
         }
+        // codes are added here, so that writing a page never adds any
+        for (int j=0;j<td.numFields();j++)
+        {
+            if (isEncoded(j)&&!hasCode(j,t.getField(j))
+                    &&dictionaries[j].tryEncode(((StringField) t.getField(j)).getValue())==-1)
+                throw new DbException("the dictionary of field " + j + " is full");
+        }
         for (int i=0;i<numSlots;i++)
         {
             if (!isSlotUsed(i)){
@@ -354,6 +468,16 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * @return the tuple in slot i of this page
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            throw new NoSuchElementException("slot " + i + " of page " + pid.getPageNumber() + " is empty");
+        return tuples[i];
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
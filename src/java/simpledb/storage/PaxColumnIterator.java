@@ -0,0 +1,107 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * PaxColumnIterator reads a subset of the INT columns of a PAX-layout
+ * HeapFile one page at a time, without decoding the other columns or
+ * building Tuple objects.
+ * <p>
+ * Typical use:
+ * <pre>
+ *     it.open();
+ *     while (it.nextPage()) {
+ *         int[] values = it.column(0);
+ *         for (int i = 0; i &lt; it.count(); i++)
+ *             ... values[i] ...
+ *     }
+ *     it.close();
+ * </pre>
+ *
+ * @see PaxPage#readIntColumn
+ */
+public class PaxColumnIterator {
+
+    private final HeapFile file;
+    private final TransactionId tid;
+    private final int[] fields;
+    private final int startPage;
+    private final int endPage;
+    private int[][] columns;
+    private int pageNo;
+    private int count;
+
+    /**
+     * @param file the PAX-layout file to read
+     * @param tid the transaction reading the file
+     * @param fields the indexes of the INT fields to read
+     */
+    public PaxColumnIterator(HeapFile file, TransactionId tid, int[] fields) {
+        this(file, tid, fields, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param file the PAX-layout file to read
+     * @param tid the transaction reading the file
+     * @param fields the indexes of the INT fields to read
+     * @param startPage the first page to read
+     * @param endPage the page after the last page to read, which may be past
+     *                the end of the file
+     */
+    public PaxColumnIterator(HeapFile file, TransactionId tid, int[] fields, int startPage, int endPage) {
+        if (file.getLayout() != HeapFile.Layout.PAX)
+            throw new IllegalArgumentException("file is not stored in the PAX layout");
+        this.file = file;
+        this.tid = tid;
+        this.fields = fields.clone();
+        this.startPage = startPage;
+        this.endPage = endPage;
+    }
+
+    public void open() {
+        pageNo = startPage;
+        count = 0;
+    }
+
+    /**
+     * Reads the requested columns of the next page.
+     *
+     * @return false if there are no more pages
+     */
+    public boolean nextPage() throws DbException, TransactionAbortedException {
+        if (pageNo >= Math.min(endPage, file.numPages()))
+            return false;
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(file.getId(), pageNo++), Permissions.READ_ONLY);
+        if (columns == null)
+            columns = new int[fields.length][page.getNumSlots()];
+        for (int i = 0; i < fields.length; i++)
+            count = page.readIntColumn(fields[i], columns[i]);
+        return true;
+    }
+
+    /**
+     * @return the number of values read from the current page
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @param i the position of the field in the array passed to the constructor
+     * @return the values of that field on the current page; only the first
+     *         {@link #count()} entries are valid
+     */
+    public int[] column(int i) {
+        return columns[i];
+    }
+
+    public void close() {
+        columns = null;
+        count = 0;
+    }
+}
@@ -0,0 +1,178 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * PaxPage is a HeapPage stored in the PAX (Partition Attributes Across)
+ * format: the page is divided into one minipage per column, so that all the
+ * values of a column are stored contiguously.
+ * <p>
+ * The page starts with the same slot bitmap as a row-format HeapPage and
+ * has the same number of slots. It is followed by one minipage per field,
+ * in field order; the minipage of field j holds numSlots values of
+ * td.getFieldType(j).getLen() bytes each (4 for a dictionary code), slot i
+ * at position i. The
+ * remainder of the page is zero padded.
+ * <p>
+ * Tuples are only decoded when they are first needed. Column readers such as
+ * {@link #readIntColumn} read values straight out of the page bytes, so a
+ * scan that needs one column of a wide table touches only that minipage.
+ *
+ * @see HeapFile.Layout#PAX
+ */
+public class PaxPage extends HeapPage {
+
+    /** the page bytes as read from disk; only valid until tuples are decoded */
+    private final byte[] data;
+    /** byte offset of each field's minipage */
+    private final int[] columnOffsets;
+    private volatile boolean decoded;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     */
+    public PaxPage(HeapPageId id, byte[] data) {
+        super(id);
+        this.data = data;
+        this.columnOffsets = new int[td.numFields()];
+        int offset = header.length;
+        for (int j = 0; j < columnOffsets.length; j++) {
+            columnOffsets[j] = offset;
+            offset += numSlots * fieldLen(j);
+        }
+        System.arraycopy(data, 0, header, 0, header.length);
+        this.decoded = false;
+        setBeforeImage();
+    }
+
+    @Override
+    HeapPage createPage(byte[] data) {
+        return new PaxPage(pid, data);
+    }
+
+    /**
+     * @return the number of tuple slots on this page, used and unused.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Copies the values of the INT field of every used slot, in slot order,
+     * into dest, which must have room for {@link #getNumSlots()} values.
+     *
+     * @param field the index of an INT_TYPE field
+     * @param dest the array to fill
+     * @return the number of values copied
+     */
+    public int readIntColumn(int field, int[] dest) {
+        if (td.getFieldType(field) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + field + " is not an INT field");
+        int n = 0;
+        if (decoded) {
+            for (int i = 0; i < numSlots; i++) {
+                if (isSlotUsed(i))
+                    dest[n++] = ((IntField) tuples[i].getField(field)).getValue();
+            }
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            int base = columnOffsets[field];
+            for (int i = 0; i < numSlots; i++) {
+                if (isSlotUsed(i))
+                    dest[n++] = buf.getInt(base + i * 4);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Decodes every used slot into a Tuple; done once, before the first
+     * access that needs Tuple objects.
+     */
+    private void decodeTuples() {
+        if (decoded)
+            return;
+        synchronized (this) {
+            if (decoded)
+                return;
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, i));
+                for (int j = 0; j < td.numFields(); j++) {
+                    Type type = td.getFieldType(j);
+                    int pos = columnOffsets[j] + i * fieldLen(j);
+                    if (isEncoded(j)) {
+                        t.setField(j, decodeField(j, buf.getInt(pos)));
+                    } else if (type == Type.INT_TYPE) {
+                        t.setField(j, new IntField(buf.getInt(pos)));
+                    } else {
+                        int len = buf.getInt(pos);
+                        t.setField(j, new StringField(new String(data, pos + 4, len), Type.STRING_LEN));
+                    }
+                }
+                tuples[i] = t;
+            }
+            decoded = true;
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page in the
+     * PAX format described in the class comment.
+     */
+    @Override
+    public byte[] getPageData() {
+        if (!decoded)
+            return data.clone();
+
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.put(header);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                buf.position(columnOffsets[j] + i * fieldLen(j));
+                Field f = tuples[i].getField(j);
+                if (isEncoded(j)) {
+                    buf.putInt(encodeField(j, f));
+                } else if (type == Type.INT_TYPE) {
+                    buf.putInt(((IntField) f).getValue());
+                } else {
+                    String s = ((StringField) f).getValue();
+                    int len = Math.min(s.length(), Type.STRING_LEN);
+                    buf.putInt(len);
+                    for (int c = 0; c < len; c++)
+                        buf.put((byte) s.charAt(c));
+                }
+            }
+        }
+        return buf.array();
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        decodeTuples();
+        super.deleteTuple(t);
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        decodeTuples();
+        super.insertTuple(t);
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        decodeTuples();
+        return super.iterator();
+    }
+}
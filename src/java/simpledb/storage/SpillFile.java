@@ -0,0 +1,117 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file of tuples, used by operators that run out
+ * of memory to set part of their input aside and read it back later.
+ * Tuples are appended with {@link #add}, then read back in the same order
+ * with {@link #rewind} and {@link #next}, any number of times.
+ * <p>
+ * INT fields are stored as four bytes and STRING fields in modified UTF-8,
+ * without padding. Record ids are not kept.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private int size;
+    private int read;
+
+    /**
+     * Creates an empty spill file in the default temporary directory.
+     *
+     * @param td the schema of the tuples to store
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has already been read
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file " + file + " is being read");
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                out.writeInt(((IntField) f).getValue());
+            else
+                out.writeUTF(((StringField) f).getValue());
+        }
+        size++;
+    }
+
+    /**
+     * Finishes writing, if need be, and positions the file before its first
+     * tuple.
+     */
+    public void rewind() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (in != null)
+            in.close();
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        read = 0;
+    }
+
+    /**
+     * @return the next tuple, or null if all of them have been read
+     * @throws IllegalStateException if the file has not been rewound
+     */
+    public Tuple next() throws IOException {
+        if (in == null)
+            throw new IllegalStateException("spill file " + file + " has not been rewound");
+        if (read == size)
+            return null;
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                t.setField(i, new IntField(in.readInt()));
+            else
+                t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+        }
+        read++;
+        return t;
+    }
+
+    /**
+     * Closes and deletes the file.
+     */
+    public void delete() {
+        try {
+            if (out != null)
+                out.close();
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+            // the file is being deleted anyway
+        }
+        out = null;
+        in = null;
+        file.delete();
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StringDictionary maps the distinct values of a dictionary-encoded STRING
+ * column to dense integer codes 0, 1, 2, ... in the order they were first
+ * seen. Codes are never reassigned, so a code stored on a page stays valid
+ * for the life of the table.
+ * <p>
+ * Tuples inserted into a table add codes only while the dictionary has fewer
+ * than {@link #getMaxSize()} values; see {@link #tryEncode}. Past that, the
+ * pages appended to the table from {@link #plainFrom()} on store the column
+ * as plain strings.
+ * <p>
+ * The dictionaries of a table are stored together in a side file next to
+ * the table's data file; see {@link #sideFile}.
+ *
+ * @see EncodedStringField
+ */
+public class StringDictionary {
+
+    private static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    private static int maxSize = DEFAULT_MAX_SIZE;
+
+    private final List<String> values = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+    /** the first page storing the column as plain strings */
+    private int plainFrom = Integer.MAX_VALUE;
+    /** counts the changes to the dictionary, to tell when to write it out */
+    private int version;
+
+    /**
+     * @return the number of values past which inserts stop adding codes
+     */
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setMaxSize(int maxSize) {
+        StringDictionary.maxSize = maxSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetMaxSize() {
+        StringDictionary.maxSize = DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * @return the code of s, adding s to the dictionary if it is new
+     */
+    public synchronized int encode(String s) {
+        Integer code = codes.get(s);
+        if (code == null) {
+            code = values.size();
+            values.add(s);
+            codes.put(s, code);
+            version++;
+        }
+        return code;
+    }
+
+    /**
+     * @return the code of s, adding s to the dictionary if it is new and the
+     *         dictionary has room for it, or -1 if it has not
+     */
+    public synchronized int tryEncode(String s) {
+        Integer code = codes.get(s);
+        if (code != null)
+            return code;
+        return values.size() < maxSize ? encode(s) : -1;
+    }
+
+    /**
+     * @return true if {@link #tryEncode} would give s a code
+     */
+    public synchronized boolean canEncode(String s) {
+        return values.size() < maxSize || codes.containsKey(s);
+    }
+
+    /**
+     * @return the number of the first page of the table that stores the
+     *         column as plain strings, or Integer.MAX_VALUE if there is none
+     */
+    public synchronized int plainFrom() {
+        return plainFrom;
+    }
+
+    /**
+     * Stores the column as plain strings on pages from pageNo on, unless
+     * some earlier page already does.
+     */
+    synchronized void setPlainFrom(int pageNo) {
+        if (pageNo < plainFrom) {
+            plainFrom = pageNo;
+            version++;
+        }
+    }
+
+    /**
+     * @return a number that changes whenever the dictionary does
+     */
+    synchronized int version() {
+        return version;
+    }
+
+    /**
+     * @return the code of s, or -1 if s is not in the dictionary
+     */
+    public synchronized int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the string with the given code
+     * @throws IndexOutOfBoundsException if no string has that code
+     */
+    public synchronized String decode(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * @return the number of distinct strings in the dictionary
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the file holding the dictionaries of the table stored in dataFile
+     */
+    public static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".dict");
+    }
+
+    /**
+     * Writes the non-null dictionaries of a table, indexed by field, to f.
+     * The file holds the number of dictionaries, then for each one its field
+     * index, its first plain page, its size and its strings in code order.
+     */
+    public static void writeAll(File f, StringDictionary[] dictionaries) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            int n = 0;
+            for (StringDictionary d : dictionaries) {
+                if (d != null)
+                    n++;
+            }
+            dos.writeInt(n);
+            for (int i = 0; i < dictionaries.length; i++) {
+                StringDictionary d = dictionaries[i];
+                if (d == null)
+                    continue;
+                synchronized (d) {
+                    dos.writeInt(i);
+                    dos.writeInt(d.plainFrom);
+                    dos.writeInt(d.values.size());
+                    for (String s : d.values)
+                        dos.writeUTF(s);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Reads a file written by {@link #writeAll} into the given dictionaries,
+     * which must be empty and non-null for every field stored in the file.
+     */
+    public static void readAll(File f, StringDictionary[] dictionaries) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            int n = dis.readInt();
+            for (int k = 0; k < n; k++) {
+                int field = dis.readInt();
+                int plainFrom = dis.readInt();
+                int size = dis.readInt();
+                if (field >= dictionaries.length || dictionaries[field] == null)
+                    throw new IOException("unexpected dictionary for field " + field + " in " + f);
+                dictionaries[field].setPlainFrom(plainFrom);
+                for (int i = 0; i < size; i++)
+                    dictionaries[field].encode(dis.readUTF());
+            }
+        } finally {
+            dis.close();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the minimum and maximum value
+ * of each INT field on that page, so that scans can skip pages on which a
+ * predicate cannot match.
+ * <p>
+ * Summaries are conservative: a page's range always contains every value
+ * that may be on the page, but may be wider. A summary is built from a page
+ * the first time the page is read while it is clean, or when the page is
+ * written to disk. Inserts widen the summary of their page; deletes forget
+ * it until the page is next written or read clean, so that the range is
+ * never narrowed by a change that may still be rolled back.
+ * <p>
+ * A zone map may be backed by a side file next to the table's data file,
+ * see {@link #sideFile}, so that scans skip pages from the first scan after
+ * the table is opened. {@link HeapFileEncoder} writes the side file along
+ * with the data file, and {@link HeapFile#writePage} writes the summary of
+ * a page through after the page. A summary on disk is marked unknown, and
+ * forced to disk, before its page is overwritten, so that a crash in
+ * between leaves no stale summary. Summaries built when a page is read
+ * clean are kept in memory only. The side file records the length of the
+ * data file it describes, and is discarded when opened against a file of
+ * another length.
+ */
+public class ZoneMap {
+
+    /** the indexes of the INT fields of td */
+    private final int[] intFields;
+    /** column of each field in the min/max arrays, or -1 for non-INT fields */
+    private final int[] columnOf;
+    private int[][] min;
+    private int[][] max;
+    private boolean[] known;
+    /** whether the record of each page in the side file may be known */
+    private boolean[] knownOnDisk;
+    /** the data file summarized, or null if the zone map is in memory only */
+    private final File dataFile;
+    /** the side file, opened on the first write to it */
+    private FileChannel channel;
+    /** the data file length in the side file header, or -1 if there is none */
+    private long recordedLength = -1;
+
+    // the side file holds the length of the data file and the number of INT
+    // fields, then a record per page: a known flag and each field's min and max
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Creates an empty zone map kept in memory only.
+     *
+     * @param td the schema of the pages summarized by this zone map
+     */
+    public ZoneMap(TupleDesc td) {
+        this(td, null);
+    }
+
+    private ZoneMap(TupleDesc td, File dataFile) {
+        this.dataFile = dataFile;
+        this.columnOf = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            columnOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        this.intFields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (columnOf[i] != -1)
+                intFields[columnOf[i]] = i;
+        }
+        this.min = new int[0][];
+        this.max = new int[0][];
+        this.known = new boolean[0];
+        this.knownOnDisk = new boolean[0];
+    }
+
+    /**
+     * Opens the zone map of a data file, with the summaries in its side file
+     * if there is one that matches the file.
+     *
+     * @param td the schema of the pages summarized by this zone map
+     * @param dataFile the file holding the pages
+     * @throws IOException if the side file cannot be read
+     */
+    public static ZoneMap open(TupleDesc td, File dataFile) throws IOException {
+        ZoneMap zm = new ZoneMap(td, dataFile);
+        zm.load();
+        return zm;
+    }
+
+    /**
+     * @return the file holding the zone map of the table stored in dataFile
+     */
+    public static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".zmap");
+    }
+
+    private int recordSize() {
+        return 1 + 8 * intFields.length;
+    }
+
+    /**
+     * Reads the summaries in the side file, or deletes the side file if it
+     * was written for another version of the data file.
+     */
+    private void load() throws IOException {
+        File f = sideFile(dataFile);
+        if (!f.exists())
+            return;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        boolean stale;
+        try {
+            stale = f.length() < HEADER_SIZE || dis.readLong() != dataFile.length()
+                    || dis.readInt() != intFields.length;
+            if (!stale) {
+                int pages = (int) ((f.length() - HEADER_SIZE) / recordSize());
+                for (int pageNo = 0; pageNo < pages; pageNo++) {
+                    boolean k = dis.readBoolean();
+                    int[] lo = new int[intFields.length];
+                    int[] hi = new int[intFields.length];
+                    for (int c = 0; c < intFields.length; c++) {
+                        lo[c] = dis.readInt();
+                        hi[c] = dis.readInt();
+                    }
+                    if (k) {
+                        set(pageNo, lo, hi);
+                        knownOnDisk[pageNo] = true;
+                    }
+                }
+                recordedLength = dataFile.length();
+            }
+        } catch (EOFException e) {
+            throw new IOException("truncated zone map " + f, e);
+        } finally {
+            dis.close();
+        }
+        if (stale && !f.delete())
+            throw new IOException("cannot delete stale zone map " + f);
+    }
+
+    /**
+     * Writes every summary to the side file of dataFile, replacing it; used
+     * when the whole data file has just been written.
+     */
+    synchronized void save(File dataFile) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(sideFile(dataFile))));
+        try {
+            dos.writeLong(dataFile.length());
+            dos.writeInt(intFields.length);
+            for (int pageNo = 0; pageNo < known.length; pageNo++) {
+                dos.writeBoolean(known[pageNo]);
+                for (int c = 0; c < intFields.length; c++) {
+                    dos.writeInt(known[pageNo] ? min[pageNo][c] : 0);
+                    dos.writeInt(known[pageNo] ? max[pageNo][c] : 0);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Copies the side file of from, if it matches from, to a side file of to,
+     * whose pages must be those of from stored another way.
+     */
+    static void copy(File from, File to) throws IOException {
+        File f = sideFile(from);
+        sideFile(to).delete();
+        if (!f.exists())
+            return;
+        byte[] data = Files.readAllBytes(f.toPath());
+        if (data.length < HEADER_SIZE
+                || ByteBuffer.wrap(data).getLong(0) != from.length())
+            return;
+        ByteBuffer.wrap(data).putLong(0, to.length());
+        Files.write(sideFile(to).toPath(), data);
+    }
+
+    /**
+     * Writes the record of a page to the side file, and the current length of
+     * the data file to its header if it changed.
+     *
+     * @param k whether to record the page's summary, or record it unknown
+     */
+    private void persist(int pageNo, boolean k) throws IOException {
+        if (dataFile == null)
+            return;
+        if (channel == null)
+            channel = FileChannel.open(sideFile(dataFile).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = dataFile.length();
+        if (length != recordedLength) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(length).putInt(intFields.length).flip();
+            writeFully(header, 0);
+            recordedLength = length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordSize());
+        record.put((byte) (k ? 1 : 0));
+        for (int c = 0; c < intFields.length; c++) {
+            record.putInt(k ? min[pageNo][c] : 0);
+            record.putInt(k ? max[pageNo][c] : 0);
+        }
+        record.flip();
+        writeFully(record, HEADER_SIZE + (long) pageNo * recordSize());
+        knownOnDisk[pageNo] = k;
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining())
+            position += channel.write(buf, position);
+    }
+
+    private void ensureCapacity(int pageNo) {
+        if (pageNo < known.length)
+            return;
+        int size = Math.max(pageNo + 1, known.length * 2);
+        min = Arrays.copyOf(min, size);
+        max = Arrays.copyOf(max, size);
+        known = Arrays.copyOf(known, size);
+        knownOnDisk = Arrays.copyOf(knownOnDisk, size);
+    }
+
+    /**
+     * @return true if the page has a summary.
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return pageNo < known.length && known[pageNo];
+    }
+
+    private void set(int pageNo, int[] lo, int[] hi) {
+        ensureCapacity(pageNo);
+        min[pageNo] = lo;
+        max[pageNo] = hi;
+        known[pageNo] = true;
+    }
+
+    /**
+     * Sets the summary of a page from the ranges of its INT fields, in field
+     * order; used while the data file is written outside a HeapFile.
+     */
+    synchronized void summarize(int pageNo, int[] lo, int[] hi) {
+        set(pageNo, lo, hi);
+    }
+
+    /**
+     * Marks the summary of a page unknown in the side file, and forces the
+     * side file to disk, before the page is overwritten on disk. Does nothing
+     * if the side file holds no summary of the page. Its summary in memory
+     * is kept.
+     *
+     * @throws IOException if the side file cannot be written; the page must
+     *         then not be written
+     */
+    public synchronized void beforeWrite(int pageNo) throws IOException {
+        if (pageNo >= knownOnDisk.length || !knownOnDisk[pageNo])
+            return;
+        persist(pageNo, false);
+        channel.force(false);
+    }
+
+    /**
+     * Replaces the summary of a page with the exact range of the tuples on it,
+     * and writes it to the side file, creating the side file if need be.
+     *
+     * @param page a page that has just been written to disk
+     * @throws IOException if the side file cannot be written
+     */
+    public synchronized void afterWrite(HeapPage page) throws IOException {
+        summarize(page);
+        persist(page.getId().getPageNumber(), true);
+    }
+
+    /**
+     * Records that an empty page was appended to the data file.
+     */
+    public synchronized void appended(int pageNo) throws IOException {
+        int[] lo = new int[intFields.length];
+        int[] hi = new int[intFields.length];
+        Arrays.fill(lo, Integer.MAX_VALUE);
+        Arrays.fill(hi, Integer.MIN_VALUE);
+        set(pageNo, lo, hi);
+        persist(pageNo, true);
+    }
+
+    /**
+     * Replaces the summary of a page with the exact range of the tuples on it,
+     * in memory only.
+     *
+     * @param page a page whose contents are on disk
+     */
+    public synchronized void summarize(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        int[] lo = new int[intFields.length];
+        int[] hi = new int[intFields.length];
+        Arrays.fill(lo, Integer.MAX_VALUE);
+        Arrays.fill(hi, Integer.MIN_VALUE);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int c = 0; c < intFields.length; c++) {
+                int v = ((IntField) t.getField(intFields[c])).getValue();
+                lo[c] = Math.min(lo[c], v);
+                hi[c] = Math.max(hi[c], v);
+            }
+        }
+        set(pageNo, lo, hi);
+    }
+
+    /**
+     * Widens the summary of a page to include a tuple inserted into it.
+     */
+    public synchronized void include(int pageNo, Tuple t) {
+        if (!isKnown(pageNo))
+            return;
+        for (int c = 0; c < intFields.length; c++) {
+            int v = ((IntField) t.getField(intFields[c])).getValue();
+            min[pageNo][c] = Math.min(min[pageNo][c], v);
+            max[pageNo][c] = Math.max(max[pageNo][c], v);
+        }
+    }
+
+    /**
+     * Forgets the summary of a page, e.g. after a tuple was deleted from it.
+     */
+    public synchronized void invalidate(int pageNo) {
+        if (pageNo < known.length)
+            known[pageNo] = false;
+    }
+
+    /**
+     * Returns false only if no tuple on the page can satisfy all of the
+     * predicates. Predicates on non-INT fields, and LIKE and NOT_EQUALS
+     * predicates, never exclude a page.
+     *
+     * @param pageNo the page to check
+     * @param preds predicates over fields of td, all of which must hold
+     */
+    public synchronized boolean mightMatch(int pageNo, List<Predicate> preds) {
+        if (!isKnown(pageNo))
+            return true;
+        int[] lo = min[pageNo];
+        int[] hi = max[pageNo];
+        for (Predicate p : preds) {
+            int c = columnOf[p.getField()];
+            if (c == -1 || !(p.getOperand() instanceof IntField))
+                continue;
+            // an empty page has lo > hi and matches nothing
+            if (lo[c] > hi[c])
+                return false;
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+                if (v < lo[c] || v > hi[c])
+                    return false;
+                break;
+            case GREATER_THAN:
+                if (hi[c] <= v)
+                    return false;
+                break;
+            case GREATER_THAN_OR_EQ:
+                if (hi[c] < v)
+                    return false;
+                break;
+            case LESS_THAN:
+                if (lo[c] >= v)
+                    return false;
+                break;
+            case LESS_THAN_OR_EQ:
+                if (lo[c] > v)
+                    return false;
+                break;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+}
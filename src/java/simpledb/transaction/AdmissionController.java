@@ -0,0 +1,210 @@
+package simpledb.transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AdmissionController limits how many transactions, and how many queries of
+ * each kind, run at once. A transaction waits in {@link Transaction#start}
+ * and a query in {@link simpledb.execution.Query#start} until there is a
+ * free slot, so that past the limits more sessions queue up instead of
+ * thrashing the buffer pool and spinning on each other's locks. Both wait
+ * the same way: in arrival order, and like a lock wait in
+ * {@link simpledb.storage.BufferPool#getPage}, for a random timeout of one
+ * to three seconds, after which the transaction aborts.
+ * <p>
+ * Queries are admitted from two queues: short OLTP queries, and analytic
+ * queries that join, sort or aggregate and so hold pages, locks and memory
+ * for longer. Each queue has its own limit, so a burst of analytic queries
+ * cannot keep OLTP queries out, and each is a fair semaphore, so sessions
+ * are admitted in the order they arrived.
+ * <p>
+ * A transaction that already runs a query of a kind may open more of that
+ * kind without waiting, as it would otherwise wait on itself. Everything a
+ * transaction holds is released when it completes, including the slots of
+ * queries it did not close because it aborted.
+ *
+ * @Threadsafe
+ */
+public class AdmissionController {
+
+    /**
+     * The kinds of query, each admitted from its own queue.
+     */
+    public enum Workload {
+        /** queries that read or write a few rows */
+        OLTP,
+        /** queries that join, sort or aggregate */
+        ANALYTIC
+    }
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    /** the default number of transactions run at once */
+    public static final int DEFAULT_TRANSACTIONS = 64;
+    /** the default number of OLTP queries run at once */
+    public static final int DEFAULT_OLTP_QUERIES = Math.max(8, 4 * PROCESSORS);
+    /** the default number of analytic queries run at once */
+    public static final int DEFAULT_ANALYTIC_QUERIES = Math.max(2, PROCESSORS / 2);
+
+    private final Semaphore transactions;
+    private final Semaphore[] queries;
+    private final int maxTransactions;
+    private final int[] maxQueries;
+
+    /** what each transaction holds */
+    private final Map<TransactionId, Held> held = new HashMap<>();
+
+    private static class Held {
+        boolean transaction;
+        // per workload, the queries open and the slots taken for them
+        final int[] open = new int[Workload.values().length];
+        final int[] slots = new int[Workload.values().length];
+    }
+
+    /**
+     * @param maxTransactions    the number of transactions to run at once
+     * @param maxOltpQueries     the number of OLTP queries to run at once
+     * @param maxAnalyticQueries the number of analytic queries to run at once
+     */
+    public AdmissionController(int maxTransactions, int maxOltpQueries, int maxAnalyticQueries) {
+        if (maxTransactions < 1 || maxOltpQueries < 1 || maxAnalyticQueries < 1)
+            throw new IllegalArgumentException("limits must be positive");
+        this.maxTransactions = maxTransactions;
+        this.maxQueries = new int[]{maxOltpQueries, maxAnalyticQueries};
+        this.transactions = new Semaphore(maxTransactions, true);
+        this.queries = new Semaphore[]{new Semaphore(maxOltpQueries, true),
+                new Semaphore(maxAnalyticQueries, true)};
+    }
+
+    /**
+     * Takes a slot of a queue, waiting in turn for at most a random timeout
+     * of one to three seconds.
+     *
+     * @throws TransactionAbortedException if no slot was free in time, or
+     *         the thread was interrupted while it waited
+     */
+    private static void acquire(Semaphore queue) throws TransactionAbortedException {
+        long timeout = new Random().nextInt(2000) + 1000;
+        try {
+            if (!queue.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+                throw new TransactionAbortedException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Waits until the transaction may run. Admitting a transaction that is
+     * already running has no effect.
+     *
+     * @throws TransactionAbortedException if the transaction was not
+     *         admitted in time, or the thread was interrupted while it waited
+     */
+    public void admitTransaction(TransactionId tid) throws TransactionAbortedException {
+        synchronized (this) {
+            Held h = held.get(tid);
+            if (h != null && h.transaction)
+                return;
+        }
+        acquire(transactions);
+        synchronized (this) {
+            held.computeIfAbsent(tid, k -> new Held()).transaction = true;
+        }
+    }
+
+    /**
+     * Waits until a query of the given kind may run as part of the
+     * transaction.
+     *
+     * @throws TransactionAbortedException if the query was not admitted in
+     *         time, or the thread was interrupted while it waited; the
+     *         transaction should then abort
+     */
+    public void admitQuery(TransactionId tid, Workload workload) throws TransactionAbortedException {
+        int w = workload.ordinal();
+        synchronized (this) {
+            Held h = held.get(tid);
+            if (h != null && h.open[w] > 0) {
+                h.open[w]++;
+                return;
+            }
+        }
+        acquire(queries[w]);
+        synchronized (this) {
+            Held h = held.computeIfAbsent(tid, k -> new Held());
+            h.open[w]++;
+            h.slots[w]++;
+        }
+    }
+
+    /**
+     * Ends a query admitted with {@link #admitQuery}, freeing its slot once
+     * the transaction has no other query of the kind open.
+     */
+    public void queryComplete(TransactionId tid, Workload workload) {
+        int w = workload.ordinal();
+        int slots = 0;
+        synchronized (this) {
+            Held h = held.get(tid);
+            if (h == null || h.open[w] == 0)
+                return;
+            if (--h.open[w] == 0) {
+                slots = h.slots[w];
+                h.slots[w] = 0;
+                if (!h.transaction && h.slots[1 - w] == 0)
+                    held.remove(tid);
+            }
+        }
+        queries[w].release(slots);
+    }
+
+    /**
+     * Frees the transaction's slot and the slots of any queries it left
+     * open.
+     */
+    public void transactionComplete(TransactionId tid) {
+        Held h;
+        synchronized (this) {
+            h = held.remove(tid);
+        }
+        if (h == null)
+            return;
+        for (int w = 0; w < queries.length; w++)
+            queries[w].release(h.slots[w]);
+        if (h.transaction)
+            transactions.release();
+    }
+
+    /**
+     * @return the number of transactions running
+     */
+    public int runningTransactions() {
+        return maxTransactions - transactions.availablePermits();
+    }
+
+    /**
+     * @return an estimate of the number of transactions waiting to start
+     */
+    public int queuedTransactions() {
+        return transactions.getQueueLength();
+    }
+
+    /**
+     * @return the number of slots taken by queries of the given kind
+     */
+    public int running(Workload workload) {
+        return maxQueries[workload.ordinal()] - queries[workload.ordinal()].availablePermits();
+    }
+
+    /**
+     * @return an estimate of the number of queries of the given kind waiting
+     *         to start
+     */
+    public int queued(Workload workload) {
+        return queries[workload.ordinal()].getQueueLength();
+    }
+}
@@ -12,13 +12,23 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    // the controller that admitted the transaction
+    private volatile AdmissionController admission;
 
     public Transaction() {
         tid = new TransactionId();
     }
 
-    /** Start the transaction running */
-    public void start() {
+    /**
+     * Start the transaction running, waiting until the admission controller
+     * lets it in.
+     *
+     * @throws TransactionAbortedException if the admission controller timed
+     *         out; the transaction is then not running
+     */
+    public void start() throws TransactionAbortedException {
+        admission = Database.getAdmissionController();
+        admission.admitTransaction(tid);
         started = true;
         try {
             Database.getLogFile().logXactionBegin(tid);
@@ -45,17 +55,22 @@ public class Transaction {
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
-            //write abort log record and rollback transaction
-            if (abort) {
-                Database.getLogFile().logAbort(tid); //does rollback too
-            } 
+            try {
+                //write abort log record and rollback transaction
+                if (abort) {
+                    Database.getLogFile().logAbort(tid); //does rollback too
+                }
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+                // Release locks and flush pages if needed
+                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
 
-            // write commit log record
-            if (!abort) {
-            	Database.getLogFile().logCommit(tid);
+                // write commit log record
+                if (!abort) {
+                    Database.getLogFile().logCommit(tid);
+                }
+            } finally {
+                // let the next transaction in
+                admission.transactionComplete(tid);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Query;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.AdmissionController;
+import simpledb.transaction.AdmissionController.Workload;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class AdmissionControllerTest extends SimpleDbTestBase {
+
+    private static void awaitQueued(AdmissionController ac, Workload w, int n) throws InterruptedException {
+        for (int i = 0; i < 500 && (w == null ? ac.queuedTransactions() : ac.queued(w)) < n; i++)
+            Thread.sleep(10);
+    }
+
+    /**
+     * Past the limit, a transaction waits until a running one completes.
+     */
+    @Test public void transactionLimit() throws Exception {
+        AdmissionController ac = Database.resetAdmissionController(1, 1, 1);
+        Transaction t1 = new Transaction();
+        t1.start();
+        assertEquals(1, ac.runningTransactions());
+
+        Transaction t2 = new Transaction();
+        AtomicBoolean started = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                t2.start();
+                started.set(true);
+            } catch (TransactionAbortedException e) {
+                // started stays false
+            }
+        });
+        waiter.start();
+        awaitQueued(ac, null, 1);
+        assertEquals(1, ac.queuedTransactions());
+        assertFalse(started.get());
+
+        t1.commit();
+        waiter.join(5000);
+        assertTrue(started.get());
+        assertEquals(1, ac.runningTransactions());
+        t2.commit();
+        assertEquals(0, ac.runningTransactions());
+    }
+
+    /**
+     * A transaction that cannot be admitted within the lock timeout aborts,
+     * and holds nothing.
+     */
+    @Test public void transactionTimesOut() throws Exception {
+        AdmissionController ac = Database.resetAdmissionController(1, 1, 1);
+        Transaction t1 = new Transaction();
+        t1.start();
+
+        Transaction t2 = new Transaction();
+        long start = System.currentTimeMillis();
+        try {
+            t2.start();
+            fail("expected the transaction to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertEquals(1, ac.runningTransactions());
+        assertEquals(0, ac.queuedTransactions());
+
+        t1.commit();
+        t2.start();
+        assertEquals(1, ac.runningTransactions());
+        t2.commit();
+        assertEquals(0, ac.runningTransactions());
+    }
+
+    /**
+     * OLTP and analytic queries wait in separate queues; a transaction may
+     * nest queries of a kind it runs, and gives back the slots of queries
+     * it left open when it completes.
+     */
+    @Test public void queryQueues() throws Exception {
+        AdmissionController ac = new AdmissionController(4, 1, 1);
+        TransactionId a = new TransactionId(), b = new TransactionId();
+        ac.admitQuery(a, Workload.ANALYTIC);
+        ac.admitQuery(a, Workload.ANALYTIC);
+        assertEquals(1, ac.running(Workload.ANALYTIC));
+        ac.admitQuery(b, Workload.OLTP);
+        assertEquals(1, ac.running(Workload.OLTP));
+
+        AtomicBoolean admitted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                ac.admitQuery(b, Workload.ANALYTIC);
+                admitted.set(true);
+            } catch (TransactionAbortedException e) {
+                // admitted stays false
+            }
+        });
+        waiter.start();
+        awaitQueued(ac, Workload.ANALYTIC, 1);
+        ac.queryComplete(a, Workload.ANALYTIC);
+        Thread.sleep(50);
+        assertFalse(admitted.get());
+        ac.transactionComplete(a);
+        waiter.join(5000);
+        assertTrue(admitted.get());
+
+        ac.queryComplete(b, Workload.OLTP);
+        ac.queryComplete(b, Workload.OLTP);
+        assertEquals(0, ac.running(Workload.OLTP));
+        ac.transactionComplete(b);
+        assertEquals(0, ac.running(Workload.ANALYTIC));
+    }
+
+    /**
+     * A query that cannot be admitted within the lock timeout aborts like a
+     * transaction, and holds nothing.
+     */
+    @Test public void queryTimesOut() throws Exception {
+        AdmissionController ac = new AdmissionController(4, 1, 1);
+        TransactionId a = new TransactionId(), b = new TransactionId();
+        ac.admitQuery(a, Workload.OLTP);
+        long start = System.currentTimeMillis();
+        try {
+            ac.admitQuery(b, Workload.OLTP);
+            fail("expected the query to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertEquals(1, ac.running(Workload.OLTP));
+        assertEquals(0, ac.queued(Workload.OLTP));
+        ac.transactionComplete(b);
+        ac.transactionComplete(a);
+        assertEquals(0, ac.running(Workload.OLTP));
+    }
+
+    /**
+     * A query is admitted as analytic if it aggregates, and gives its slot
+     * back when it is closed.
+     */
+    @Test public void query() throws Exception {
+        AdmissionController ac = Database.resetAdmissionController(2, 1, 1);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100, 10, null, new ArrayList<>(), "c");
+        Transaction t = new Transaction();
+        t.start();
+        Query scan = new Query(new SeqScan(t.getId(), table.getId(), "t"), t.getId());
+        Query agg = new Query(new Aggregate(new SeqScan(t.getId(), table.getId(), "t"),
+                1, 0, Aggregator.Op.SUM), t.getId());
+        assertEquals(Workload.OLTP, scan.getWorkload());
+        assertEquals(Workload.ANALYTIC, agg.getWorkload());
+
+        scan.start();
+        agg.start();
+        assertEquals(1, ac.running(Workload.OLTP));
+        assertEquals(1, ac.running(Workload.ANALYTIC));
+        scan.close();
+        assertEquals(0, ac.running(Workload.OLTP));
+
+        // the aggregate is left open, and released with the transaction
+        t.commit();
+        assertEquals(0, ac.running(Workload.ANALYTIC));
+        assertEquals(0, ac.runningTransactions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AdmissionControllerTest.class);
+    }
+}
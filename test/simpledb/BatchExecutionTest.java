@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchAggregate;
+import simpledb.execution.BatchFilter;
+import simpledb.execution.BatchHashEquiJoin;
+import simpledb.execution.BatchIterator;
+import simpledb.execution.BatchProject;
+import simpledb.execution.BatchSeqScan;
+import simpledb.execution.BatchToRow;
+import simpledb.execution.Filter;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.RowToBatch;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchExecutionTest extends TestUtil.InTransaction {
+
+    private static final int ROWS = 3000;
+
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+    }
+
+    private BatchSeqScan batchScan(HeapFile f) {
+        return new BatchSeqScan(tid, f.getId(), "t");
+    }
+
+    /**
+     * Scans return every tuple, in batches of at most the default capacity.
+     */
+    @Test public void scan() throws Exception {
+        BatchIterator scan = batchScan(hf);
+        int batches = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            TupleBatch b = scan.next();
+            assertTrue(b.size() > 0 && b.size() <= TupleBatch.DEFAULT_CAPACITY);
+            batches++;
+        }
+        scan.close();
+        assertEquals((ROWS + TupleBatch.DEFAULT_CAPACITY - 1) / TupleBatch.DEFAULT_CAPACITY, batches);
+        SystemTestUtil.matchTuples(new BatchToRow(batchScan(hf)), tuples);
+    }
+
+    /**
+     * Scans of PAX tables copy columns from the pages.
+     */
+    @Test public void paxScan() throws Exception {
+        File input = File.createTempFile("batchTable", ".txt");
+        input.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(input));
+        for (List<Integer> t : tuples)
+            bw.write(t.get(0) + "," + t.get(1) + "," + t.get(2) + "\n");
+        bw.close();
+        File output = File.createTempFile("batchTable", ".dat");
+        output.deleteOnExit();
+        HeapFileEncoder.convertParallel(input, output, BufferPool.getPageSize(), 3, Utility.getTypes(3), ',',
+                HeapFile.Layout.PAX);
+        HeapFile pax = new HeapFile(output, Utility.getTupleDesc(3), HeapFile.Layout.PAX);
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+
+        SystemTestUtil.matchTuples(new BatchToRow(batchScan(pax)), tuples);
+        Predicate p = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(10));
+        SystemTestUtil.matchTuples(new BatchToRow(new BatchFilter(p, batchScan(pax))),
+                SystemTestUtil.rows(new Filter(p, new SeqScan(tid, hf.getId(), "t"))));
+    }
+
+    /**
+     * Filters and projections return the same rows as the row operators.
+     */
+    @Test public void filterProject() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+                Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN_OR_EQ}) {
+            Predicate p = new Predicate(1, op, new IntField(40));
+            List<List<Integer>> expected = SystemTestUtil.rows(new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+            SystemTestUtil.matchTuples(new BatchToRow(new BatchFilter(p, batchScan(hf))), expected);
+        }
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> projected = new ArrayList<>();
+            projected.add(t.get(2));
+            projected.add(t.get(0));
+            expected.add(projected);
+        }
+        BatchSeqScan scan = batchScan(hf);
+        BatchProject project = new BatchProject(new int[]{2, 0}, scan);
+        assertEquals(scan.getTupleDesc().getFieldName(2), project.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(new BatchToRow(project), expected);
+    }
+
+    /**
+     * The hash join returns the same rows as a nested loops join, including
+     * when the output of one probe batch spans several output batches.
+     */
+    @Test public void hashJoin() throws Exception {
+        List<List<Integer>> otherTuples = new ArrayList<>();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, otherTuples);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<List<Integer>> expected = SystemTestUtil.rows(new Join(p, new SeqScan(tid, hf.getId(), "a"),
+                new SeqScan(tid, other.getId(), "b")));
+        assertTrue(expected.size() > TupleBatch.DEFAULT_CAPACITY);
+
+        BatchHashEquiJoin join = new BatchHashEquiJoin(p, batchScan(hf), batchScan(other));
+        assertEquals(5, join.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(new BatchToRow(join), expected);
+    }
+
+    /**
+     * Aggregates compute the same results as Aggregate, with and without
+     * grouping.
+     */
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            List<List<Integer>> expected = SystemTestUtil.rows(new Aggregate(new SeqScan(tid, hf.getId(), "t"), 2, 0, op));
+            SystemTestUtil.matchTuples(new BatchToRow(new BatchAggregate(batchScan(hf), 2, 0, op)), expected);
+
+            expected = SystemTestUtil.rows(new Aggregate(new SeqScan(tid, hf.getId(), "t"), 1, Aggregator.NO_GROUPING, op));
+            SystemTestUtil.matchTuples(new BatchToRow(
+                    new BatchAggregate(batchScan(hf), 1, Aggregator.NO_GROUPING, op)), expected);
+        }
+    }
+
+    /**
+     * Over an empty input, aggregates return the same rows as Aggregate: one
+     * row of 0 for COUNT without grouping, and otherwise none.
+     */
+    @Test public void emptyAggregate() throws Exception {
+        Predicate none = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000));
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            for (int gfield : new int[]{0, Aggregator.NO_GROUPING}) {
+                List<List<Integer>> expected = SystemTestUtil.rows(new Aggregate(
+                        new Filter(none, new SeqScan(tid, hf.getId(), "t")), 1, gfield, op));
+                boolean defined = gfield == Aggregator.NO_GROUPING && op == Aggregator.Op.COUNT;
+                assertEquals(defined ? Collections.singletonList(Collections.singletonList(0))
+                        : Collections.emptyList(), expected);
+                BatchIterator input = new RowToBatch(new Filter(none, new SeqScan(tid, hf.getId(), "t")));
+                SystemTestUtil.matchTuples(new BatchToRow(new BatchAggregate(input, 1, gfield, op)), expected);
+            }
+        }
+    }
+
+    /**
+     * Row and batch operators can be mixed in one plan.
+     */
+    @Test public void mixedPlan() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(50));
+        List<List<Integer>> expected = SystemTestUtil.rows(new Aggregate(
+                new Filter(p, new SeqScan(tid, hf.getId(), "t")), 2, 1, Aggregator.Op.SUM));
+
+        BatchIterator input = new RowToBatch(new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+        SystemTestUtil.matchTuples(new BatchToRow(new BatchAggregate(input, 2, 1, Aggregator.Op.SUM)), expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
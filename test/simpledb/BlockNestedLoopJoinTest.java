@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BlockNestedLoopJoinTest extends TestUtil.InTransaction {
+
+    private HeapFile left;
+    private HeapFile right;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        left = SystemTestUtil.createRandomHeapFile(2, 250, 20, null, new ArrayList<>());
+        right = SystemTestUtil.createRandomHeapFile(2, 40, 20, null, new ArrayList<>());
+    }
+
+    private SeqScan scan(HeapFile f) {
+        return new SeqScan(tid, f.getId(), "t");
+    }
+
+    /**
+     * Returns the same tuples as the tuple-at-a-time nested loops join,
+     * scanning the inner input once per block.
+     */
+    @Test public void matchesJoin() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.NOT_EQUALS, Predicate.Op.EQUALS,
+                Predicate.Op.GREATER_THAN}) {
+            JoinPredicate p = new JoinPredicate(0, op, 1);
+            Join join = new Join(p, scan(left), scan(right));
+            join.open();
+            List<List<Integer>> expected = SystemTestUtil.readRows(join);
+            join.close();
+
+            BlockNestedLoopJoin bnl = new BlockNestedLoopJoin(p, scan(left), scan(right), 64);
+            bnl.open();
+            List<List<Integer>> actual = SystemTestUtil.readRows(bnl);
+            assertEquals(4, bnl.blocksRead());
+            bnl.close();
+            assertEquals(op.toString(), expected.size(), actual.size());
+            if (op != Predicate.Op.NOT_EQUALS)
+                SystemTestUtil.matchTuples(new BlockNestedLoopJoin(p, scan(left), scan(right), 64), expected);
+        }
+    }
+
+    /**
+     * Rewinding replays the join from the first block.
+     */
+    @Test public void rewind() throws Exception {
+        BlockNestedLoopJoin bnl = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan(left), scan(right), 100);
+        bnl.open();
+        List<List<Integer>> first = SystemTestUtil.readRows(bnl);
+        bnl.rewind();
+        List<List<Integer>> second = SystemTestUtil.readRows(bnl);
+        assertEquals(3, bnl.blocksRead());
+        bnl.close();
+        assertEquals(first, second);
+    }
+
+    /**
+     * An empty inner input produces nothing, for every block.
+     */
+    @Test public void emptyInner() throws Exception {
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, new ArrayList<>());
+        BlockNestedLoopJoin bnl = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                scan(left), scan(empty), 10);
+        bnl.open();
+        assertEquals(0, SystemTestUtil.readRows(bnl).size());
+        assertEquals(25, bnl.blocksRead());
+        bnl.close();
+    }
+
+    /**
+     * The default block holds DEFAULT_BLOCK_PAGES pages of outer tuples.
+     */
+    @Test public void defaultBlockSize() {
+        BlockNestedLoopJoin bnl = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan(left), scan(right));
+        int perPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        assertEquals(perPage * BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES, bnl.getBlockSize());
+        assertEquals(perPage, BlockNestedLoopJoin.tuplesPerBlock(Utility.getTupleDesc(2), 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+    }
+}
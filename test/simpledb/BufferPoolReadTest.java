@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolReadTest extends SimpleDbTestBase {
+
+    // a heap file whose reads of page 0 wait until they are released
+    static class SlowHeapFile extends HeapFile {
+
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+        volatile boolean blocked;
+
+        SlowHeapFile(File f) {
+            super(f, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (pid.getPageNumber() == 0) {
+                reads.incrementAndGet();
+                blocked = true;
+                reading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                blocked = false;
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * A miss does not hold up misses on other pages while its page is read,
+     * and concurrent misses on the same page read it once.
+     */
+    @Test public void readsOutsideMonitor() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null, new ArrayList<>());
+        SlowHeapFile hf = new SlowHeapFile(f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+
+        AtomicReference<Page> a = new AtomicReference<>();
+        AtomicReference<Page> b = new AtomicReference<>();
+        Thread readerA = new Thread(() -> {
+            try {
+                a.set(Database.getBufferPool().getPage(new TransactionId(), first, Permissions.READ_ONLY));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        readerA.start();
+        assertTrue(hf.reading.await(5, TimeUnit.SECONDS));
+
+        // another page is read while page 0 is still being read
+        Page second = Database.getBufferPool().getPage(new TransactionId(),
+                new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(1, second.getId().getPageNumber());
+        assertTrue(hf.blocked);
+
+        Thread readerB = new Thread(() -> {
+            try {
+                b.set(Database.getBufferPool().getPage(new TransactionId(), first, Permissions.READ_ONLY));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        readerB.start();
+        Thread.sleep(50);
+        hf.release.countDown();
+        readerA.join(5000);
+        readerB.join(5000);
+        assertSame(a.get(), b.get());
+        assertEquals(1, hf.reads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
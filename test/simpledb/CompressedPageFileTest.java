@@ -0,0 +1,224 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedPageFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class CompressedPageFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedPageFile.mapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for writing, rewriting and reading back pages.
+     */
+    @Test public void readWrite() throws Exception {
+        File f = tempFile();
+        f.delete();
+        CompressedPageFile cf = new CompressedPageFile(f);
+        Random r = new Random(7);
+        int size = BufferPool.getPageSize();
+        List<byte[]> pages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] page = new byte[size];
+            // mostly zeroes, like a partly filled heap page
+            for (int j = 0; j < size / 10; j++)
+                page[j] = (byte) r.nextInt();
+            pages.add(page);
+            assertEquals(i, cf.append(page));
+        }
+
+        // an incompressible page needs a larger extent
+        byte[] noise = new byte[size];
+        r.nextBytes(noise);
+        cf.write(3, noise);
+        pages.set(3, noise);
+        cf.write(5, new byte[size]);
+        pages.set(5, new byte[size]);
+
+        assertEquals(10, cf.numPages());
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(pages.get(i), cf.read(i, size));
+        assertEquals(10 * CompressedPageFile.MAP_ENTRY_SIZE, CompressedPageFile.mapFile(f).length());
+
+        CompressedPageFile reopened = new CompressedPageFile(f);
+        assertEquals(10, reopened.numPages());
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(pages.get(i), reopened.read(i, size));
+    }
+
+    private static byte[] sparsePage(Random r) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        for (int j = 0; j < page.length / 10; j++)
+            page[j] = (byte) r.nextInt();
+        return page;
+    }
+
+    /**
+     * The extents pages move out of are reused, also after reopening.
+     */
+    @Test public void reusesExtents() throws Exception {
+        File f = tempFile();
+        f.delete();
+        CompressedPageFile cf = new CompressedPageFile(f);
+        Random r = new Random(7);
+        int size = BufferPool.getPageSize();
+        for (int i = 0; i < 10; i++)
+            cf.append(sparsePage(r));
+        List<byte[]> noise = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] page = new byte[size];
+            r.nextBytes(page);
+            noise.add(page);
+            cf.write(i, page);
+        }
+        long length = f.length();
+        for (int i = 0; i < 10; i++)
+            cf.write(i, new byte[size]);
+
+        CompressedPageFile reopened = new CompressedPageFile(f);
+        for (int i = 0; i < 10; i++)
+            assertEquals(10 + i, reopened.append(noise.get(i)));
+        assertEquals(length, f.length());
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(new byte[size], reopened.read(i, size));
+            assertArrayEquals(noise.get(i), reopened.read(10 + i, size));
+        }
+    }
+
+    /**
+     * Pages read while others are rewritten are read whole.
+     */
+    @Test public void concurrentReads() throws Exception {
+        File f = tempFile();
+        f.delete();
+        CompressedPageFile cf = new CompressedPageFile(f);
+        Random r = new Random(7);
+        int size = BufferPool.getPageSize();
+        byte[][] versions = new byte[2][];
+        versions[0] = sparsePage(r);
+        versions[1] = new byte[size];
+        r.nextBytes(versions[1]);
+        for (int i = 0; i < 8; i++)
+            cf.append(versions[0]);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; !done.get(); i = (i + 1) % 8) {
+                        byte[] page = cf.read(i, size);
+                        assertTrue(Arrays.equals(versions[0], page) || Arrays.equals(versions[1], page));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int i = 0; i < 400 && failure.get() == null; i++)
+            cf.write(i % 8, versions[i / 8 % 2]);
+        done.set(true);
+        for (Thread reader : readers)
+            reader.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    /**
+     * A compressed HeapFile reads the same tuples as the original, takes up
+     * less space, and keeps inserted tuples across reopening.
+     */
+    @Test public void heapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile raw = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        File f = tempFile();
+        CompressedPageFile.compress(raw.getFile(), f, BufferPool.getPageSize(), BufferPool.getPageSize());
+
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.Layout.ROW, new int[0], true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(raw.numPages(), hf.numPages());
+        assertTrue(f.length() < raw.getFile().length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{i, -i});
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), HeapFile.Layout.ROW, new int[0], true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A compressed BTreeFile supports scans and inserts that split pages.
+     */
+    @Test public void bTreeFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile raw = BTreeUtility.createRandomBTreeFile(2, 5000, null, tuples, 0);
+        File f = tempFile();
+        CompressedPageFile.compress(raw.getFile(), f, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        assertEquals(raw.numPages(), bf.numPages());
+        SystemTestUtil.matchTuples(bf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = BTreeUtility.getBTreeTuple(new int[]{i * 7 % 5000, i});
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bf.numPages() > raw.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BTreeFile reopened = new BTreeFile(f, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageFileTest.class);
+    }
+}
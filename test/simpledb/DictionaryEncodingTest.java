@@ -0,0 +1,239 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.EncodedStringField;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+    private static final String[] STATUS = {"active", "closed", "pending"};
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE};
+    private static final TupleDesc TD = new TupleDesc(TYPES);
+
+    private File data;
+    private HeapFile hf;
+
+    private static HeapFile open(File f, HeapFile.Layout layout) {
+        HeapFile hf = new HeapFile(f, TD, layout, new int[]{1});
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Encodes a table with a low-cardinality STRING column.
+     */
+    @Before public void setUp() throws Exception {
+        File input = File.createTempFile("dictTable", ".txt");
+        input.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(input));
+        for (int i = 0; i < ROWS; i++)
+            bw.write(i + "," + STATUS[i % STATUS.length] + "\n");
+        bw.close();
+        data = File.createTempFile("dictTable", ".dat");
+        data.deleteOnExit();
+        StringDictionary.sideFile(data).deleteOnExit();
+        HeapFileEncoder.convertParallel(input, data, BufferPool.getPageSize(), 2, TYPES, ',',
+                HeapFile.Layout.ROW, new int[]{1});
+        hf = open(data, HeapFile.Layout.ROW);
+    }
+
+    @After public void tearDown() {
+        StringDictionary.resetMaxSize();
+    }
+
+    private int count(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Pages hold codes, so the table is far smaller than with plain strings.
+     */
+    @Test public void storage() throws Exception {
+        assertEquals(STATUS.length, hf.getDictionary(1).size());
+        int plainPerPage = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        int plainPages = (ROWS + plainPerPage - 1) / plainPerPage;
+        assertTrue(hf.numPages() * 4 < plainPages);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertTrue(t.getField(1) instanceof EncodedStringField);
+            assertEquals(new StringField(STATUS[i % STATUS.length], Type.STRING_LEN), t.getField(1));
+            i++;
+        }
+        scan.close();
+        assertEquals(ROWS, i);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Equality predicates compare codes, including for values that are
+     * added to the dictionary after the predicate first ran.
+     */
+    @Test public void filter() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate closed = new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("closed", Type.STRING_LEN));
+        assertEquals(ROWS - (ROWS + 1) / 3, count(new Filter(closed, new SeqScan(tid, hf.getId(), "t"))));
+
+        Predicate lost = new Predicate(1, Predicate.Op.EQUALS, new StringField("lost", Type.STRING_LEN));
+        Filter f = new Filter(lost, new SeqScan(tid, hf.getId(), "t"));
+        assertEquals(0, count(f));
+
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("lost", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, count(f));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(STATUS.length + 1, hf.getDictionary(1).size());
+
+        Predicate range = new Predicate(1, Predicate.Op.LESS_THAN, new StringField("b", Type.STRING_LEN));
+        assertEquals((ROWS + 2) / 3, count(new Filter(range, new SeqScan(tid, hf.getId(), "t"))));
+    }
+
+    /**
+     * New dictionary entries are written out with the pages that use them.
+     */
+    @Test public void reopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("archived", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        HeapFile reopened = open(data, HeapFile.Layout.ROW);
+        assertEquals(STATUS.length + 1, reopened.getDictionary(1).size());
+        Predicate archived = new Predicate(1, Predicate.Op.EQUALS, new StringField("archived", Type.STRING_LEN));
+        tid = new TransactionId();
+        assertEquals(1, count(new Filter(archived, new SeqScan(tid, reopened.getId(), "t"))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Past the cardinality cap, new values go to appended pages that store
+     * the field as plain strings; known values still go to coded pages.
+     */
+    @Test public void maxSize() throws Exception {
+        StringDictionary.setMaxSize(STATUS.length + 1);
+        int pages = hf.numPages();
+        TransactionId tid = new TransactionId();
+        List<String> inserted = new ArrayList<>();
+        for (String value : new String[]{"lost", "archived", "deleted", "pending"}) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(-1));
+            t.setField(1, new StringField(value, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(value);
+            if (value.equals("pending"))
+                assertTrue(t.getRecordId().getPageId().getPageNumber() < pages);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(STATUS.length + 1, hf.getDictionary(1).size());
+        assertEquals(pages, hf.getDictionary(1).plainFrom());
+        assertEquals(pages + 1, hf.numPages());
+
+        HeapFile reopened = open(data, HeapFile.Layout.ROW);
+        assertEquals(pages, reopened.getDictionary(1).plainFrom());
+        tid = new TransactionId();
+        for (String value : inserted) {
+            Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField(value, Type.STRING_LEN));
+            int expected = value.equals("pending") ? ROWS / 3 + 1 : 1;
+            assertEquals(expected, count(new Filter(p, new SeqScan(tid, reopened.getId(), "t"))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Dictionary encoding combined with the PAX layout.
+     */
+    @Test public void pax() throws Exception {
+        File input = File.createTempFile("dictTable", ".txt");
+        input.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(input));
+        for (int i = 0; i < ROWS; i++)
+            bw.write(i + "," + STATUS[i % STATUS.length] + "\n");
+        bw.close();
+        File paxData = File.createTempFile("dictTable", ".dat");
+        paxData.deleteOnExit();
+        StringDictionary.sideFile(paxData).deleteOnExit();
+        HeapFileEncoder.convertParallel(input, paxData, BufferPool.getPageSize(), 2, TYPES, ',',
+                HeapFile.Layout.PAX, new int[]{1});
+        HeapFile pax = open(paxData, HeapFile.Layout.PAX);
+        assertEquals(hf.numPages(), pax.numPages());
+
+        TransactionId tid = new TransactionId();
+        Predicate pending = new Predicate(1, Predicate.Op.EQUALS, new StringField("pending", Type.STRING_LEN));
+        assertEquals(ROWS / 3, count(new Filter(pending, new SeqScan(tid, pax.getId(), "t"))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Encoded fields are interchangeable with plain StringFields as keys.
+     */
+    @Test public void fieldEquality() {
+        StringDictionary d = new StringDictionary();
+        EncodedStringField a = new EncodedStringField(d, d.encode("x"));
+        EncodedStringField b = new EncodedStringField(d, d.encode("x"));
+        EncodedStringField c = new EncodedStringField(d, d.encode("y"));
+        StringField plain = new StringField("x", Type.STRING_LEN);
+        assertEquals(a, b);
+        assertEquals(a, plain);
+        assertEquals(plain, a);
+        assertEquals(plain.hashCode(), a.hashCode());
+        assertFalse(a.equals(c));
+        assertTrue(a.compare(Predicate.Op.LESS_THAN, c));
+        assertEquals(-1, d.lookup("z"));
+        assertNotNull(d.decode(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
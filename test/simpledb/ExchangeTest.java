@@ -0,0 +1,279 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Broadcast;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Repartition;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.Parallelizer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile big;
+    private HeapFile small;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        big = SystemTestUtil.createRandomHeapFile(2, 5000, 200, null, new ArrayList<>(), "b");
+        small = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, new ArrayList<>(), "s");
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> sortedRows(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        rows.sort(ROWS);
+        return rows;
+    }
+
+    private static final Comparator<List<Integer>> ROWS = (a, b) -> {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    };
+
+    private OpIterator[] ranges(HeapFile f, int ways) {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        int pages = f.numPages();
+        OpIterator[] parts = new OpIterator[ways];
+        for (int i = 0; i < ways; i++)
+            parts[i] = scan.pageRange(pages * i / ways, i == ways - 1 ? Integer.MAX_VALUE : pages * (i + 1) / ways);
+        return parts;
+    }
+
+    /**
+     * Gathering page-range scans returns the tuples of a serial scan, and
+     * rewinding runs the scans again.
+     */
+    @Test public void gather() throws Exception {
+        assertTrue(big.numPages() > 4);
+        List<List<Integer>> expected = sortedRows(new SeqScan(tid, big.getId(), "t"));
+        Gather g = new Gather(ranges(big, 4));
+        assertEquals(4, g.getParallelism());
+        assertEquals(expected, sortedRows(g));
+
+        g.open();
+        int n = 0;
+        while (n < 100 && g.hasNext()) {
+            g.next();
+            n++;
+        }
+        g.rewind();
+        List<List<Integer>> rows = new ArrayList<>();
+        while (g.hasNext())
+            rows.add(SystemTestUtil.tupleToList(g.next()));
+        g.close();
+        rows.sort(ROWS);
+        assertEquals(expected, rows);
+    }
+
+    /**
+     * A parallel SeqScan returns the tuples of a serial one, with its page
+     * range and page filters, and reads them again when rewound.
+     */
+    @Test public void parallelScan() throws Exception {
+        SeqScan serial = new SeqScan(tid, big.getId(), "t");
+        List<List<Integer>> expected = sortedRows(serial);
+        SeqScan scan = new SeqScan(tid, big.getId(), "t");
+        scan.setParallelism(3);
+        assertEquals(expected, sortedRows(scan));
+
+        scan.open();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int pass = 0; pass < 2; pass++) {
+            rows.clear();
+            while (scan.hasNext())
+                rows.add(SystemTestUtil.tupleToList(scan.next()));
+            scan.rewind();
+        }
+        scan.close();
+        rows.sort(ROWS);
+        assertEquals(expected, rows);
+
+        SeqScan range = serial.pageRange(1, 4);
+        range.addPageFilter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)));
+        List<List<Integer>> rangeRows = sortedRows(range);
+        range.setParallelism(2);
+        assertEquals(rangeRows, sortedRows(range));
+    }
+
+    /**
+     * Joining matching partitions of both inputs in parallel returns the
+     * tuples of a serial join.
+     */
+    @Test public void repartitionedJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<List<Integer>> expected = sortedRows(new HashEquiJoin(p,
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, big.getId(), "b")));
+        assertTrue(expected.size() > 0);
+
+        int ways = 3;
+        Repartition[] left = Repartition.outputs(ranges(small, 2), 0, ways);
+        Repartition[] right = Repartition.outputs(ranges(big, 4), 0, ways);
+        OpIterator[] joins = new OpIterator[ways];
+        for (int i = 0; i < ways; i++)
+            joins[i] = new HashEquiJoin(p, left[i], right[i]);
+        assertEquals(expected, sortedRows(new Gather(joins)));
+
+        try {
+            left[0].open();
+            fail("a repartitioned stream is read only once");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Every output of a broadcast returns all the tuples, and can be
+     * rewound and opened again.
+     */
+    @Test public void broadcast() throws Exception {
+        List<List<Integer>> expected = sortedRows(new SeqScan(tid, small.getId(), "s"));
+        Broadcast[] outputs = Broadcast.outputs(ranges(small, 2), 3);
+        for (Broadcast b : outputs)
+            b.open();
+        for (Broadcast b : outputs) {
+            for (int pass = 0; pass < 2; pass++) {
+                List<List<Integer>> rows = new ArrayList<>();
+                while (b.hasNext())
+                    rows.add(SystemTestUtil.tupleToList(b.next()));
+                rows.sort(ROWS);
+                assertEquals(expected, rows);
+                b.rewind();
+            }
+        }
+        for (Broadcast b : outputs)
+            b.close();
+        assertEquals(expected, sortedRows(outputs[1]));
+    }
+
+    /**
+     * An exception thrown by an input is thrown by the consumer.
+     */
+    @Test public void inputFailure() throws Exception {
+        OpIterator[] inputs = ranges(big, 3);
+        inputs[1] = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)), inputs[1]) {
+            private static final long serialVersionUID = 1L;
+
+            protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                throw new DbException("broken input");
+            }
+        };
+        Gather g = new Gather(inputs);
+        g.open();
+        try {
+            while (g.hasNext())
+                g.next();
+            fail("expected the input's exception");
+        } catch (DbException e) {
+            assertEquals("broken input", e.getMessage());
+        }
+        g.close();
+    }
+
+    /**
+     * The planner splits large scans and the joins over them, and the
+     * parallel plan returns the tuples of the serial one.
+     */
+    @Test public void parallelize() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator serial = new Join(p, new SeqScan(tid, small.getId(), "s"),
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50)),
+                        new SeqScan(tid, big.getId(), "b")));
+        List<List<Integer>> expected = sortedRows(serial);
+
+        OpIterator plan = Parallelizer.parallelize(serial, 4, 2);
+        assertTrue(plan instanceof Gather);
+        assertEquals(4, ((Gather) plan).getParallelism());
+        assertTrue(contains(plan, Broadcast.class));
+        assertEquals(expected, sortedRows(plan));
+
+        // small scans are left alone
+        OpIterator scan = new SeqScan(tid, small.getId(), "s");
+        assertTrue(Parallelizer.parallelize(scan, 4, Parallelizer.MIN_PAGES) == scan);
+    }
+
+    /**
+     * A join whose other input does not fit the broadcast budget is not
+     * split by broadcasting it: a hash join of two large scans is split by
+     * repartitioning both on the join keys, and another join stays serial.
+     */
+    @Test public void parallelizeOverBudget() throws Exception {
+        HeapFile big2 = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, new ArrayList<>(), "c");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator serial = new HashEquiJoin(p, new SeqScan(tid, big2.getId(), "c"),
+                new SeqScan(tid, big.getId(), "b"));
+        List<List<Integer>> expected = sortedRows(serial);
+        assertTrue(expected.size() > 0);
+
+        OpIterator plan = Parallelizer.parallelize(serial, 4, 2, 0);
+        assertTrue(plan instanceof Gather);
+        assertTrue(contains(plan, Repartition.class));
+        assertFalse(contains(plan, Broadcast.class));
+        assertEquals(expected, sortedRows(plan));
+
+        serial = new Join(p, new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, big.getId(), "b"));
+        expected = sortedRows(serial);
+        plan = Parallelizer.parallelize(serial, 4, 2, 0);
+        assertTrue(plan instanceof Join);
+        assertFalse(contains(plan, Broadcast.class));
+        assertEquals(expected, sortedRows(plan));
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren())
+            if (child != null && contains(child, c))
+                return true;
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
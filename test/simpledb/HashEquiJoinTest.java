@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.BloomFilter;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends TestUtil.InTransaction {
+
+    private static final JoinPredicate EQ = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+    private HeapFile left;
+    private HeapFile right;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        left = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, new ArrayList<>());
+        right = SystemTestUtil.createRandomHeapFile(2, 1000, 500, null, new ArrayList<>());
+    }
+
+    private SeqScan scan(HeapFile f) {
+        return new SeqScan(tid, f.getId(), "t");
+    }
+
+    private List<List<Integer>> expected(HeapFile l, HeapFile r) throws Exception {
+        Join join = new Join(EQ, scan(l), scan(r));
+        join.open();
+        List<List<Integer>> rows = SystemTestUtil.readRows(join);
+        join.close();
+        return rows;
+    }
+
+    /**
+     * A build side within the budget is joined in memory.
+     */
+    @Test public void inMemory() throws Exception {
+        HashEquiJoin join = new HashEquiJoin(EQ, scan(left), scan(right));
+        SystemTestUtil.matchTuples(join, expected(left, right));
+        join.open();
+        assertEquals(0, join.partitionsSpilled());
+        join.close();
+    }
+
+    /**
+     * A build side over the budget is partitioned to disk, and the join
+     * still returns every match, also after a rewind.
+     */
+    @Test public void spill() throws Exception {
+        List<List<Integer>> expected = expected(left, right);
+        HashEquiJoin join = new HashEquiJoin(EQ, scan(left), scan(right), 100);
+        join.open();
+        List<List<Integer>> first = SystemTestUtil.readRows(join);
+        assertTrue(join.partitionsSpilled() > 0);
+        join.rewind();
+        List<List<Integer>> second = SystemTestUtil.readRows(join);
+        join.close();
+
+        assertEquals(expected.size(), first.size());
+        assertEquals(expected.size(), second.size());
+        SystemTestUtil.matchTuples(new HashEquiJoin(EQ, scan(left), scan(right), 100), expected);
+    }
+
+    /**
+     * A key too frequent to fit in the budget on its own is joined in
+     * chunks once partitioning cannot split it any further.
+     */
+    @Test public void skew() throws Exception {
+        Map<Integer, Integer> spec = new HashMap<>();
+        spec.put(0, 7);
+        HeapFile skewed = SystemTestUtil.createRandomHeapFile(2, 300, spec, new ArrayList<>());
+        spec.clear();
+        spec.put(1, 7);
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 20, spec, new ArrayList<>());
+
+        HashEquiJoin join = new HashEquiJoin(EQ, scan(skewed), scan(probe), 50);
+        join.open();
+        assertEquals(300 * 20, SystemTestUtil.readRows(join).size());
+        join.close();
+    }
+
+    /**
+     * Joins on STRING fields, in memory and spilled.
+     */
+    @Test public void stringKeys() throws Exception {
+        Object[] leftData = new Object[600];
+        Object[] rightData = new Object[100];
+        for (int i = 0; i < 300; i++) {
+            leftData[2 * i] = "k" + (i % 40);
+            leftData[2 * i + 1] = i;
+        }
+        for (int i = 0; i < 50; i++) {
+            rightData[2 * i] = i;
+            rightData[2 * i + 1] = "k" + i;
+        }
+        for (int budget : new int[]{HashEquiJoin.MAP_SIZE, 20}) {
+            HashEquiJoin join = new HashEquiJoin(EQ, TestUtil.createTupleList(2, leftData),
+                    TestUtil.createTupleList(2, rightData), budget);
+            join.open();
+            int n = 0;
+            while (join.hasNext()) {
+                Tuple t = join.next();
+                assertEquals(t.getField(0), t.getField(3));
+                n++;
+            }
+            join.close();
+            // keys k0..k39 each appear 7 or 8 times on the left and once on the right
+            assertEquals(300, n);
+        }
+    }
+
+    /**
+     * The scan of the right side drops the tuples without a match, through
+     * the filters over it, whether or not the build side is partitioned.
+     */
+    @Test public void runtimeFilter() throws Exception {
+        Predicate small = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20));
+        Predicate all = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        Join join = new Join(EQ, new Filter(small, scan(left)), scan(right));
+        join.open();
+        List<List<Integer>> expected = SystemTestUtil.readRows(join);
+        join.close();
+
+        for (int budget : new int[]{HashEquiJoin.MAP_SIZE, 10}) {
+            SeqScan probe = scan(right);
+            HashEquiJoin hash = new HashEquiJoin(EQ, new Filter(small, scan(left)), new Filter(all, probe), budget);
+            hash.open();
+            List<List<Integer>> first = SystemTestUtil.readRows(hash);
+            // about 4% of the keys are on the left; few others get through
+            assertTrue(probe.runtimeFiltered() > 800);
+            hash.rewind();
+            List<List<Integer>> second = SystemTestUtil.readRows(hash);
+            hash.close();
+            assertEquals(budget != HashEquiJoin.MAP_SIZE, hash.partitionsSpilled() > 0);
+            SystemTestUtil.matchTuples(new HashEquiJoin(EQ, new Filter(small, scan(left)), scan(right), budget), expected);
+            assertEquals(expected.size(), first.size());
+            assertEquals(expected.size(), second.size());
+        }
+    }
+
+    /**
+     * The filter keeps every key added to it and few others.
+     */
+    @Test public void bloomFilter() {
+        BloomFilter f = new BloomFilter(1000);
+        for (int i = 0; i < 1000; i++)
+            f.add(new IntField(i * 7));
+        int falsePositives = 0;
+        for (int i = 0; i < 7000; i++) {
+            boolean added = i % 7 == 0;
+            boolean found = f.mightContain(new IntField(i));
+            if (added)
+                assertTrue(found);
+            else if (found)
+                falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 6000 / 20);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
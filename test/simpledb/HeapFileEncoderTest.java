@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File writeInput(List<List<Integer>> tuples) throws IOException {
+        File input = File.createTempFile("tempTable", ".txt");
+        input.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(input));
+        for (List<Integer> tuple : tuples) {
+            for (int i = 0; i < tuple.size(); i++) {
+                if (i > 0)
+                    bw.write(',');
+                bw.write(String.valueOf(tuple.get(i)));
+            }
+            bw.write('\n');
+        }
+        bw.close();
+        return input;
+    }
+
+    private static File convertParallel(File input, int columns, int chunkBytes) throws IOException {
+        File output = File.createTempFile("table", ".dat");
+        output.deleteOnExit();
+        Type[] types = Utility.getTypes(columns);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            HeapFileEncoder.convertParallel(input, output, BufferPool.getPageSize(),
+                    columns, types, ',', HeapFile.Layout.ROW, new int[0], pool, chunkBytes);
+        } finally {
+            pool.shutdown();
+        }
+        return output;
+    }
+
+    /**
+     * Small chunks force many ranges; every tuple must come out exactly once.
+     */
+    @Test public void parallelMatchesInput() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        Random r = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(r.nextInt() - r.nextInt(1000));
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File output = convertParallel(writeInput(tuples), 3, 1000);
+        HeapFile hf = Utility.openHeapFile(3, output);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * An empty input still produces a single empty page.
+     */
+    @Test public void emptyInput() throws Exception {
+        File output = convertParallel(writeInput(new ArrayList<>()), 2, 1000);
+        assertEquals(BufferPool.getPageSize(), output.length());
+        HeapFile hf = Utility.openHeapFile(2, output);
+        SystemTestUtil.matchTuples(hf, new ArrayList<>());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -125,6 +125,36 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Split iterators cover disjoint runs of pages that together hold every
+     * tuple of the file.
+     */
+    @Test
+    public void splitIterators() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+        assertTrue(f.numPages() >= 5);
+        List<List<Integer>> expected = new ArrayList<>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            expected.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+
+        for (int n : new int[]{1, 3, f.numPages(), 100}) {
+            List<DbFileIterator> parts = f.splitIterators(tid, n);
+            assertEquals(Math.min(n, f.numPages()), parts.size());
+            List<List<Integer>> actual = new ArrayList<>();
+            for (DbFileIterator part : parts) {
+                part.open();
+                assertTrue(part.hasNext());
+                while (part.hasNext())
+                    actual.add(SystemTestUtil.tupleToList(part.next()));
+                part.close();
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
     /**
      * JUnit suite target
      */
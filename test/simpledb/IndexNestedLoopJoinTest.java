@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends TestUtil.InTransaction {
+
+    private static final JoinPredicate EQ = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+
+    private HeapFile outer;
+    private BTreeFile inner;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        outer = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(outer, "outer");
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, 100, null, new ArrayList<>(), 0);
+        // name the fields so that queries can refer to them
+        inner = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(inner, "inner");
+    }
+
+    /**
+     * Returns the same tuples as a hash join, looking up each distinct key
+     * of a batch once.
+     */
+    @Test public void matchesHashJoin() throws Exception {
+        List<List<Integer>> expected = SystemTestUtil.rows(new HashEquiJoin(EQ,
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i")));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(EQ,
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"), 100);
+        SystemTestUtil.matchTuples(join, expected);
+
+        join.open();
+        List<List<Integer>> first = new ArrayList<>();
+        while (join.hasNext())
+            first.add(SystemTestUtil.tupleToList(join.next()));
+        // three batches, each with at most 101 distinct keys
+        assertTrue(join.probes() <= 3 * 101);
+        join.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (join.hasNext())
+            second.add(SystemTestUtil.tupleToList(join.next()));
+        join.close();
+        assertEquals(first, second);
+    }
+
+    /**
+     * Filters over the inner scan are applied to the probed tuples.
+     */
+    @Test public void innerFilter() throws Exception {
+        Predicate gt = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50));
+        List<List<Integer>> expected = SystemTestUtil.rows(new HashEquiJoin(EQ, new SeqScan(tid, outer.getId(), "o"),
+                new Filter(gt, new SeqScan(tid, inner.getId(), "i"))));
+        SystemTestUtil.matchTuples(new IndexNestedLoopJoin(EQ, new SeqScan(tid, outer.getId(), "o"),
+                new Filter(gt, new SeqScan(tid, inner.getId(), "i"))), expected);
+    }
+
+    /**
+     * Only scans of B+ trees keyed on the join field can be probed.
+     */
+    @Test public void canProbe() throws Exception {
+        SeqScan scan = new SeqScan(tid, inner.getId(), "i");
+        assertTrue(IndexNestedLoopJoin.canProbe(scan, 0));
+        assertFalse(IndexNestedLoopJoin.canProbe(scan, 1));
+        assertTrue(IndexNestedLoopJoin.canProbe(new Filter(
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(3)), scan), 0));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, outer.getId(), "o"), 0));
+    }
+
+    /**
+     * The optimizer probes the index when the outer side is small.
+     */
+    @Test public void optimizerChoosesIndex() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("outer", new TableStats(outer.getId(), 1000));
+        stats.put("inner", new TableStats(inner.getId(), 1000));
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        filterSelectivities.put("o", 0.05);
+        filterSelectivities.put("i", 1.0);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        nodes.add(new LogicalJoinNode("o", "i", "c1", "c0", Predicate.Op.EQUALS));
+
+        JoinOptimizer jo = new JoinOptimizer(new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM outer o, inner i WHERE o.c1 = i.c0 AND o.c0 < 5;"), nodes);
+        List<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities, false);
+        assertEquals(1, result.size());
+        LogicalJoinNode lj = result.get(0);
+        assertTrue(lj.probeIndex);
+        assertEquals("i", lj.t2Alias);
+        // the node passed in is left as it was
+        assertFalse(nodes.get(0).probeIndex);
+
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, inner.getId(), "i"));
+        assertTrue(j instanceof IndexNestedLoopJoin);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.IntJoinHashTable;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntJoinHashTableTest extends SimpleDbTestBase {
+
+    /**
+     * Rows of a key are found in insertion order, across table growth.
+     */
+    @Test public void addAndProbe() {
+        IntJoinHashTable table = new IntJoinHashTable(4);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = Utility.getHeapTuple(i);
+            tuples.add(t);
+            table.add((i % 1000) - 500, t);
+        }
+        assertEquals(5000, table.size());
+        for (int key = -500; key < 500; key++) {
+            int n = 0;
+            for (int r = table.first(key); r != -1; r = table.next(r)) {
+                assertSame(tuples.get(key + 500 + 1000 * n), table.get(r));
+                n++;
+            }
+            assertEquals(5, n);
+        }
+        assertEquals(-1, table.first(500));
+        assertEquals(-1, table.first(Integer.MIN_VALUE));
+    }
+
+    /**
+     * A cleared table is empty and can be refilled.
+     */
+    @Test public void clear() {
+        IntJoinHashTable table = new IntJoinHashTable(16);
+        for (int i = 0; i < 100; i++)
+            table.add(i, Utility.getHeapTuple(i));
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.first(3));
+        Tuple t = Utility.getHeapTuple(7);
+        table.add(3, t);
+        assertSame(t, table.get(table.first(3)));
+        assertEquals(-1, table.next(table.first(3)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntJoinHashTableTest.class);
+    }
+}
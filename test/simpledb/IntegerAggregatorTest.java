@@ -1,8 +1,14 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -13,6 +19,8 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
@@ -182,6 +190,68 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Groups beyond the memory budget are spilled to disk and aggregated
+   * later, with the same results as in memory.
+   */
+  @Test public void spill() throws Exception {
+    Random rand = new Random(7);
+    int[] values = new int[2 * 3000];
+    for (int i = 0; i < values.length; i += 2) {
+      values[i] = rand.nextInt(700) - 350;
+      values[i + 1] = rand.nextInt(1000) - 500;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      IntegerAggregator inMemory = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator spilled = new IntegerAggregator(0, Type.INT_TYPE, 1, op, 10);
+      OpIterator scan = TestUtil.createTupleList(width1, values);
+      scan.open();
+      while (scan.hasNext()) {
+        Tuple t = scan.next();
+        inMemory.mergeTupleIntoGroup(t);
+        spilled.mergeTupleIntoGroup(t);
+      }
+      assertEquals(0, inMemory.partitionsSpilled());
+      assertTrue(spilled.partitionsSpilled() > 0);
+
+      List<String> expected = results(inMemory.iterator());
+      OpIterator it = spilled.iterator();
+      assertEquals(expected, results(it));
+      it.rewind();
+      assertEquals(expected, results(it));
+      spilled.deleteSpillFiles();
+    }
+  }
+
+  /**
+   * Without grouping, COUNT of no rows is 0, and the other aggregates of
+   * no rows produce no row; with grouping, no rows produce no groups.
+   */
+  @Test public void emptyInput() throws Exception {
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      OpIterator it = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, op).iterator();
+      it.open();
+      if (op == Aggregator.Op.COUNT) {
+        assertTrue(it.hasNext());
+        assertEquals(0, ((IntField) it.next().getField(0)).getValue());
+      }
+      assertFalse(it.hasNext());
+      it.close();
+      assertEquals(0, results(new IntegerAggregator(0, Type.INT_TYPE, 1, op).iterator()).size());
+    }
+  }
+
+  private static List<String> results(OpIterator it) throws Exception {
+    List<String> rows = new ArrayList<>();
+    it.open();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import simpledb.common.Utility;
+import simpledb.execution.IntJoinHashTable;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+/**
+ * Compares building and probing an {@link IntJoinHashTable} with the
+ * HashMap&lt;Field, List&lt;Tuple&gt;&gt; that HashEquiJoin uses for other key
+ * types. Run with
+ * <pre>
+ *     java -cp bin/src:bin/test simpledb.JoinHashTableBenchmark [rows] [distinctKeys]
+ * </pre>
+ * Each variant is run a few times to warm up the JIT before it is timed.
+ */
+public class JoinHashTableBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : rows / 4;
+        Random r = new Random(42);
+        Tuple[] build = new Tuple[rows];
+        int[] buildKeys = new int[rows];
+        int[] probeKeys = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            buildKeys[i] = r.nextInt(keys);
+            probeKeys[i] = r.nextInt(2 * keys);
+            build[i] = Utility.getHeapTuple(new int[]{buildKeys[i], i});
+        }
+        Field[] probeFields = new Field[rows];
+        for (int i = 0; i < rows; i++)
+            probeFields[i] = new IntField(probeKeys[i]);
+
+        System.out.printf("%d build rows, %d probe rows, %d distinct keys%n", rows, rows, keys);
+        report("HashMap<Field, List<Tuple>>", () -> runMap(build, probeFields));
+        report("IntJoinHashTable", () -> runTable(build, buildKeys, probeKeys));
+    }
+
+    private interface Run {
+        long run();
+    }
+
+    private static void report(String name, Run run) {
+        long matches = 0;
+        for (int i = 0; i < WARMUP; i++)
+            matches = run.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++)
+            run.run();
+        double ms = (System.nanoTime() - start) / 1e6 / RUNS;
+        System.out.printf("%-30s %10.1f ms/op  (%d matches)%n", name, ms, matches);
+    }
+
+    private static long runMap(Tuple[] build, Field[] probe) {
+        Map<Object, List<Tuple>> map = new HashMap<>();
+        for (Tuple t : build)
+            map.computeIfAbsent(t.getField(0), k -> new ArrayList<>()).add(t);
+        long matches = 0;
+        for (Field f : probe) {
+            List<Tuple> l = map.get(f);
+            if (l != null)
+                matches += l.size();
+        }
+        return matches;
+    }
+
+    private static long runTable(Tuple[] build, int[] buildKeys, int[] probe) {
+        IntJoinHashTable table = new IntJoinHashTable(build.length);
+        for (int i = 0; i < build.length; i++)
+            table.add(buildKeys[i], build[i]);
+        long matches = 0;
+        for (int key : probe) {
+            for (int row = table.first(key); row != -1; row = table.next(row))
+                matches++;
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Fetch;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LateMaterializationTest extends TestUtil.InTransaction {
+
+    /**
+     * A row reference read by a scan leads back to the tuple it was read
+     * from, and a Fetch adds the fields of that tuple.
+     */
+    @Test public void fetch() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, 1000, null, new ArrayList<>(), "c");
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.setColumns(new int[]{1, SeqScan.ROW_REFERENCE});
+        assertEquals("t." + SeqScan.ROW_REFERENCE_NAME, scan.getTupleDesc().getFieldName(1));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> row : SystemTestUtil.rows(new SeqScan(tid, table.getId(), "t")))
+            expected.add(Arrays.asList(row.get(1), row.get(2), row.get(0)));
+        Fetch fetch = new Fetch(tid, scan, 1, table.getId(), "t", new int[]{2, 0});
+        assertEquals("t.c2", fetch.getTupleDesc().getFieldName(2));
+        assertEquals("t.c0", fetch.getTupleDesc().getFieldName(3));
+        List<List<Integer>> actual = new ArrayList<>();
+        for (List<Integer> row : SystemTestUtil.rows(fetch))
+            actual.add(Arrays.asList(row.get(0), row.get(2), row.get(3)));
+        assertEquals(expected, actual);
+
+        Tuple last = null;
+        scan.open();
+        while (scan.hasNext())
+            last = scan.next();
+        scan.close();
+        int ref = ((IntField) last.getField(1)).getValue();
+        assertEquals(last.getRecordId(), table.getTuple(tid, ref).getRecordId());
+        try {
+            table.getTuple(tid, ref + 1);
+            fail("expected a DbException for an empty slot");
+        } catch (DbException expectedException) {
+        }
+    }
+
+    /**
+     * For a join, the planner scans the tables for the fields the join and
+     * filters use, fetches those only selected for the rows left, sorts and
+     * limits before fetching, and returns the same rows as without.
+     */
+    @Test public void planner() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(4, 300, 20, null, new ArrayList<>(), "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(4, 200, 20, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("a", new TableStats(a.getId(), 1000));
+        stats.put("b", new TableStats(b.getId(), 1000));
+
+        Parser parser = new Parser();
+        String where = " FROM a, b WHERE a.c0 = b.c0 AND a.c2 > 5";
+        OpIterator plan = parser.generateLogicalPlan(tid, "SELECT a.c1, b.c3" + where + ";")
+                .physicalPlan(tid, stats, false);
+        List<OpIterator> nodes = new ArrayList<>();
+        collect(plan, nodes);
+        int fetches = 0;
+        for (OpIterator node : nodes) {
+            if (node instanceof Fetch)
+                fetches++;
+            if (!(node instanceof SeqScan))
+                continue;
+            if (((SeqScan) node).getAlias().equals("a"))
+                assertArrayEquals(new int[]{0, 2, SeqScan.ROW_REFERENCE}, ((SeqScan) node).getColumns());
+            else
+                assertArrayEquals(new int[]{0, SeqScan.ROW_REFERENCE}, ((SeqScan) node).getColumns());
+        }
+        assertEquals(2, fetches);
+
+        OpIterator all = parser.generateLogicalPlan(tid, "SELECT *" + where + ";").physicalPlan(tid, stats, false);
+        int c1 = all.getTupleDesc().fieldNameToIndex("a.c1"), c3 = all.getTupleDesc().fieldNameToIndex("b.c3");
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> row : SystemTestUtil.rows(all))
+            expected.add(Arrays.asList(row.get(c1), row.get(c3)));
+        List<List<Integer>> actual = SystemTestUtil.rows(plan);
+        expected.sort(Comparator.comparing(List::toString));
+        actual.sort(Comparator.comparing(List::toString));
+        assertEquals(expected, actual);
+
+        // the top rows are found before their fields are fetched
+        plan = parser.generateLogicalPlan(tid, "SELECT a.c1, b.c3" + where + " ORDER BY a.c0 LIMIT 10;")
+                .physicalPlan(tid, stats, false);
+        nodes.clear();
+        collect(plan, nodes);
+        int topN = -1;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) instanceof TopN)
+                topN = i;
+        }
+        assertTrue(topN > 0);
+        for (int i = 0; i < topN; i++)
+            if (nodes.get(i) instanceof SeqScan)
+                fail("scan above the TopN");
+        assertTrue(nodes.subList(0, topN).stream().anyMatch(n -> n instanceof Fetch));
+        assertEquals(Math.min(10, expected.size()), SystemTestUtil.rows(plan).size());
+    }
+
+    /**
+     * A table with more pages than row references can address is read
+     * with the fields only selected rather than fetched later.
+     */
+    @Test public void largeTable() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(4, 300, 20, null, new ArrayList<>(), "c");
+        File file = File.createTempFile("large", ".dat");
+        file.deleteOnExit();
+        // a sparse file of empty pages, 3GB long
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(3L << 30);
+        }
+        HeapFile large = new HeapFile(file, a.getTupleDesc());
+        assertFalse(large.canReferenceRows());
+        assertTrue(a.canReferenceRows());
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(large, "large");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("a", new TableStats(a.getId(), 1000));
+        stats.put("large", new TableStats(a.getId(), 1000));
+
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT a.c1, large.c3 FROM a, large WHERE a.c0 = large.c0;").physicalPlan(tid, stats, false);
+        List<OpIterator> nodes = new ArrayList<>();
+        collect(plan, nodes);
+        int scans = 0;
+        for (OpIterator node : nodes) {
+            if (node instanceof Fetch)
+                assertEquals("a", ((Fetch) node).getAlias());
+            if (!(node instanceof SeqScan))
+                continue;
+            scans++;
+            if (((SeqScan) node).getAlias().equals("a"))
+                assertArrayEquals(new int[]{0, SeqScan.ROW_REFERENCE}, ((SeqScan) node).getColumns());
+            else
+                assertArrayEquals(new int[]{0, 3}, ((SeqScan) node).getColumns());
+        }
+        assertTrue(scans >= 2);
+    }
+
+    /**
+     * Adds the operators of plan to nodes, parents before their children.
+     */
+    private static void collect(OpIterator plan, List<OpIterator> nodes) {
+        nodes.add(plan);
+        if (plan instanceof Operator)
+            for (OpIterator child : ((Operator) plan).getChildren())
+                if (child != null)
+                    collect(child, nodes);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LateMaterializationTest.class);
+    }
+}
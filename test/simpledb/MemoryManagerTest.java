@@ -0,0 +1,194 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryManager;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MemoryManagerTest extends TestUtil.InTransaction {
+
+    /**
+     * A grant may hold MIN_GRANT bytes whatever the others hold, and no
+     * more than its share of the capacity beyond that; closing the grants
+     * gives their memory back.
+     */
+    @Test public void grants() {
+        MemoryManager mm = new MemoryManager(4 * MemoryManager.MIN_GRANT);
+        MemoryManager.Grant a = mm.open("a");
+        MemoryManager.Grant b = mm.open("b");
+        assertEquals(2, mm.getOpenGrants());
+
+        // each may hold half the capacity
+        long share = 2 * MemoryManager.MIN_GRANT;
+        assertTrue(a.reserve(share - 100));
+        assertFalse(a.reserve(200));
+        assertEquals(share - 100, a.held());
+        assertTrue(b.reserve(share));
+        assertTrue(mm.getUsed() <= mm.getCapacity());
+
+        // a third grant shrinks the shares, but gets its minimum
+        MemoryManager.Grant c = mm.open("c");
+        assertTrue(c.reserve(MemoryManager.MIN_GRANT));
+        assertFalse(c.reserve(1));
+
+        a.spilled(1000);
+        a.releaseAll();
+        assertEquals(0, a.held());
+        assertTrue(a.reserve(MemoryManager.MIN_GRANT));
+        a.close();
+        a.close();
+        b.close();
+        c.close();
+        assertEquals(0, mm.getUsed());
+        assertEquals(0, mm.getOpenGrants());
+        assertEquals(1, mm.getSpills());
+        assertEquals(1000, mm.getSpilledBytes());
+        assertTrue(mm.getPeak() >= 4 * MemoryManager.MIN_GRANT);
+    }
+
+    /**
+     * Under a small memory manager, a sort, a hash join and an aggregate
+     * spill even though their own budgets would hold their inputs, return
+     * the same results, and give all their memory back.
+     */
+    @Test public void operatorsSpill() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 20000, 100000, null, new ArrayList<>(), "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 2000, 100000, null, new ArrayList<>(), "c");
+        MemoryManager mm = Database.resetMemoryManager(1);
+
+        List<List<Integer>> input = SystemTestUtil.rows(new SeqScan(tid, a.getId(), "a"));
+        List<List<Integer>> sorted = new ArrayList<>(input);
+        sorted.sort(Comparator.comparing(row -> row.get(1)));
+        OrderBy orderBy = new OrderBy(1, true, new SeqScan(tid, a.getId(), "a"));
+        List<List<Integer>> actual = SystemTestUtil.rows(orderBy);
+        for (int i = 0; i < actual.size(); i++)
+            assertEquals(sorted.get(i).get(1), actual.get(i).get(1));
+        assertEquals(sorted.size(), actual.size());
+        assertTrue(orderBy.runsSpilled() > 1);
+
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"));
+        List<List<Integer>> joined = new ArrayList<>();
+        join.open();
+        while (join.hasNext())
+            joined.add(SystemTestUtil.tupleToList(join.next()));
+        assertTrue(join.partitionsSpilled() > 0);
+        join.close();
+        Map<Integer, Integer> keys = new HashMap<>();
+        for (List<Integer> row : SystemTestUtil.rows(new SeqScan(tid, b.getId(), "b")))
+            keys.merge(row.get(0), 1, Integer::sum);
+        int expected = 0;
+        for (List<Integer> row : input)
+            expected += keys.getOrDefault(row.get(0), 0);
+        assertEquals(expected, joined.size());
+
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+        agg.setMemoryGrant(mm.open("test"));
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> row : input)
+            sums.merge(row.get(0), row.get(1), Integer::sum);
+        OpIterator scan = new SeqScan(tid, a.getId(), "a");
+        scan.open();
+        while (scan.hasNext())
+            agg.mergeTupleIntoGroup(scan.next());
+        scan.close();
+        Map<Integer, Integer> groups = new HashMap<>();
+        OpIterator it = agg.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            List<Integer> row = SystemTestUtil.tupleToList(t);
+            assertEquals(null, groups.put(row.get(0), row.get(1)));
+        }
+        it.close();
+        assertEquals(sums, groups);
+        assertTrue(agg.partitionsSpilled() > 0);
+        agg.deleteSpillFiles();
+        agg.getMemoryGrant().close();
+
+        assertEquals(0, mm.getUsed());
+        assertEquals(0, mm.getOpenGrants());
+        assertTrue(mm.getSpills() >= 3);
+        assertTrue(mm.getPeak() <= 3 * MemoryManager.MIN_GRANT);
+    }
+
+    /**
+     * Once an aggregator has spilled a group, it keeps spilling new groups
+     * even when other grants close and its share grows, so that no group is
+     * split between memory and a partition and returned twice.
+     */
+    @Test public void groupsNotSplit() throws Exception {
+        MemoryManager mm = new MemoryManager(600 * 1024);
+        MemoryManager.Grant other1 = mm.open("other1");
+        MemoryManager.Grant other2 = mm.open("other2");
+        assertTrue(other1.reserve(100 * 1024));
+        assertTrue(other2.reserve(100 * 1024));
+
+        int groups = 6000;
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+        agg.setMemoryGrant(mm.open("test"));
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+        for (int pass = 0; pass < 2; pass++) {
+            for (int g = 0; g < groups; g++) {
+                // the competing grants close partway through the first pass,
+                // after the aggregator has started spilling
+                if (pass == 0 && g == groups - 1000) {
+                    assertTrue(agg.partitionsSpilled() > 0);
+                    other1.close();
+                    other2.close();
+                }
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(g));
+                t.setField(1, new IntField(1));
+                agg.mergeTupleIntoGroup(t);
+            }
+        }
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        OpIterator it = agg.iterator();
+        it.open();
+        while (it.hasNext()) {
+            List<Integer> row = SystemTestUtil.tupleToList(it.next());
+            assertEquals("group " + row.get(0) + " returned twice", null, counts.put(row.get(0), row.get(1)));
+        }
+        it.close();
+        assertEquals(groups, counts.size());
+        for (int count : counts.values())
+            assertEquals(2, count);
+        agg.deleteSpillFiles();
+        agg.getMemoryGrant().close();
+        assertEquals(0, mm.getOpenGrants());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MemoryManagerTest.class);
+    }
+}
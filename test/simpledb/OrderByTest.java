@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends TestUtil.InTransaction {
+
+    /** c0 ascending, then c1 descending */
+    private static final Comparator<List<Integer>> C0_ASC_C1_DESC = (a, b) -> {
+        int c = Integer.compare(a.get(0), b.get(0));
+        return c != 0 ? c : Integer.compare(b.get(1), a.get(1));
+    };
+
+    private HeapFile table;
+    private List<List<Integer>> tuples;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, tuples, "c");
+    }
+
+    private OrderBy sort(int maxTuples) {
+        return new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, table.getId(), "t"), maxTuples);
+    }
+
+    /**
+     * An input within the budget is sorted in memory.
+     */
+    @Test public void inMemory() throws Exception {
+        OrderBy ob = sort(OrderBy.SORT_BUFFER_SIZE);
+        ob.open();
+        List<List<Integer>> actual = SystemTestUtil.readRows(ob);
+        assertEquals(0, ob.runsSpilled());
+        ob.close();
+        tuples.sort(C0_ASC_C1_DESC);
+        assertEquals(tuples, actual);
+    }
+
+    /**
+     * An input over the budget is sorted in runs on disk and merged, also
+     * after a rewind.
+     */
+    @Test public void external() throws Exception {
+        OrderBy ob = sort(64);
+        ob.open();
+        List<List<Integer>> first = SystemTestUtil.readRows(ob);
+        assertEquals(16, ob.runsSpilled());
+        ob.rewind();
+        List<List<Integer>> second = SystemTestUtil.readRows(ob);
+        ob.close();
+        tuples.sort(C0_ASC_C1_DESC);
+        assertEquals(tuples, first);
+        assertEquals(tuples, second);
+    }
+
+    /**
+     * More runs than can be merged at once are merged in several passes.
+     */
+    @Test public void multiPass() throws Exception {
+        OrderBy ob = sort(5);
+        ob.open();
+        List<List<Integer>> actual = SystemTestUtil.readRows(ob);
+        assertEquals(200, ob.runsSpilled());
+        assertTrue(ob.runsSpilled() > OrderBy.MAX_MERGE_WIDTH);
+        ob.close();
+        tuples.sort(C0_ASC_C1_DESC);
+        assertEquals(tuples, actual);
+    }
+
+    /**
+     * The external sort is stable, like the in-memory one: tuples with equal
+     * keys keep their input order.
+     */
+    @Test public void stable() throws Exception {
+        OrderBy inMemory = new OrderBy(0, false, new SeqScan(tid, table.getId(), "t"));
+        inMemory.open();
+        List<List<Integer>> expected = SystemTestUtil.readRows(inMemory);
+        inMemory.close();
+        OrderBy ob = new OrderBy(new int[]{0}, new boolean[]{false},
+                new SeqScan(tid, table.getId(), "t"), 7);
+        ob.open();
+        List<List<Integer>> actual = SystemTestUtil.readRows(ob);
+        ob.close();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * ORDER BY takes several fields, each with its own direction.
+     */
+    @Test public void parseMultiColumn() throws Exception {
+        String name = "sorted";
+        Database.getCatalog().addTable(table, name);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM " + name + " t ORDER BY t.c0, t.c1 DESC;").physicalPlan(tid, stats, false);
+        plan.open();
+        List<List<Integer>> actual = SystemTestUtil.readRows(plan);
+        plan.close();
+        tuples.sort(C0_ASC_C1_DESC);
+        assertEquals(tuples, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1500;
+
+    private List<List<Integer>> tuples;
+    private HeapFile rowFile;
+    private HeapFile paxFile;
+
+    /**
+     * Encodes the same three-column table in both layouts.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(i % 7);
+            tuple.add(-3 * i);
+            tuples.add(tuple);
+        }
+        File input = File.createTempFile("paxTable", ".txt");
+        input.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(input));
+        for (List<Integer> tuple : tuples)
+            bw.write(tuple.get(0) + "," + tuple.get(1) + "," + tuple.get(2) + "\n");
+        bw.close();
+
+        rowFile = encode(input, HeapFile.Layout.ROW);
+        paxFile = encode(input, HeapFile.Layout.PAX);
+    }
+
+    private static HeapFile encode(File input, HeapFile.Layout layout) throws IOException {
+        File output = File.createTempFile("paxTable", ".dat");
+        output.deleteOnExit();
+        Type[] types = Utility.getTypes(3);
+        HeapFileEncoder.convertParallel(input, output, BufferPool.getPageSize(), 3, types, ',', layout);
+        HeapFile hf = new HeapFile(output, Utility.getTupleDesc(3), layout);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Unit test for reading back a PAX-encoded file tuple by tuple.
+     */
+    @Test public void scan() throws Exception {
+        assertEquals(rowFile.numPages(), paxFile.numPages());
+        SystemTestUtil.matchTuples(paxFile, tuples);
+    }
+
+    /**
+     * Unit test for PaxPage.readIntColumn before and after the tuples are decoded.
+     */
+    @Test public void readIntColumn() throws Exception {
+        PaxPage page = (PaxPage) paxFile.readPage(new HeapPageId(paxFile.getId(), 0));
+        int[] values = new int[page.getNumSlots()];
+        int n = page.readIntColumn(2, values);
+        assertEquals(page.getNumSlots(), n);
+        for (int i = 0; i < n; i++)
+            assertEquals(-3 * i, values[i]);
+
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        int[] decoded = new int[page.getNumSlots()];
+        assertEquals(n, page.readIntColumn(2, decoded));
+        assertArrayEquals(values, decoded);
+    }
+
+    /**
+     * Unit test for PaxPage.getPageData after modifying a page.
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPageId pid = new HeapPageId(paxFile.getId(), 0);
+        PaxPage page = (PaxPage) paxFile.readPage(pid);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple t = new Tuple(Utility.getTupleDesc(3));
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-2));
+        t.setField(2, new IntField(-3));
+        page.insertTuple(t);
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        int[] values = new int[copy.getNumSlots()];
+        assertEquals(page.getNumSlots(), copy.readIntColumn(1, values));
+        assertEquals(-2, values[0]);
+        assertEquals(1, values[1]);
+    }
+
+    /**
+     * Unit test for a PAX page with a STRING column.
+     */
+    @Test public void stringColumn() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        File f = File.createTempFile("paxTable", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, HeapFile.Layout.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        PaxPage page = new PaxPage(pid, new byte[BufferPool.getPageSize()]);
+        for (int i = 0; i < 5; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("value" + i, Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < 5; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("value" + i, Type.STRING_LEN), t.getField(1));
+        }
+        int[] values = new int[copy.getNumSlots()];
+        assertEquals(5, copy.readIntColumn(0, values));
+        assertEquals(4, values[4]);
+    }
+
+    /**
+     * Unit test for Aggregate reading the columns of a PAX table directly.
+     */
+    @Test public void aggregate() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int g = 0; g < 7; g++) {
+            int sum = 0;
+            for (List<Integer> tuple : tuples) {
+                if (tuple.get(1) == g)
+                    sum += tuple.get(2);
+            }
+            List<Integer> row = new ArrayList<>();
+            row.add(g);
+            row.add(sum);
+            expected.add(row);
+        }
+        for (HeapFile hf : new HeapFile[]{rowFile, paxFile}) {
+            TransactionId tid = new TransactionId();
+            OpIterator scan = new SeqScan(tid, hf.getId(), "t");
+            SystemTestUtil.matchTuples(new Aggregate(scan, 2, 1, Aggregator.Op.SUM), expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * An aggregate over a page range of a PAX table reads only those pages.
+     */
+    @Test public void aggregatePageRange() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, paxFile.getId(), "t");
+        int count = SystemTestUtil.rows(scan.pageRange(1, 2)).size();
+        assertTrue(count > 0 && count < ROWS);
+        SystemTestUtil.matchTuples(new Aggregate(scan.pageRange(1, 2), 0, Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT), Collections.singletonList(Collections.singletonList(count)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Pipeline;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares feeding an aggregator from a SeqScan -&gt; Filter -&gt; Project
+ * chain of iterators with running the same chain as a fused
+ * {@link Pipeline}, on a table held in the buffer pool. Run with
+ * <pre>
+ *     java -cp bin/src:bin/test simpledb.PipelineBenchmark [rows]
+ * </pre>
+ * Each variant is run a few times to warm up the JIT before it is timed.
+ */
+public class PipelineBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Database.resetBufferPool(100000);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, 1000, null, new ArrayList<>(), "c");
+        TransactionId tid = new TransactionId();
+
+        System.out.printf("%d rows, %d pages%n", rows, table.numPages());
+        report("iterators", rows, () -> {
+            IntegerAggregator agg = newAggregator();
+            OpIterator it = chain(tid, table);
+            it.open();
+            while (it.hasNext())
+                agg.mergeTupleIntoGroup(it.next());
+            it.close();
+            return agg;
+        });
+        report("fused pipeline", rows, () -> {
+            IntegerAggregator agg = newAggregator();
+            Pipeline.compile(chain(tid, table)).run(agg::mergeTupleIntoGroup);
+            return agg;
+        });
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * SUM(c2) GROUP BY c1 over project(c1, c2) over filter(100 &lt;= c0 &lt; 900)
+     */
+    private static OpIterator chain(TransactionId tid, HeapFile table) {
+        OpIterator scan = new SeqScan(tid, table.getId(), "t");
+        OpIterator f = new Filter(Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(900))), scan);
+        return new Project(Arrays.asList(1, 2), new Type[]{Type.INT_TYPE, Type.INT_TYPE}, f);
+    }
+
+    private static IntegerAggregator newAggregator() {
+        return new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    }
+
+    private interface Run {
+        Aggregator run() throws Exception;
+    }
+
+    private static void report(String name, int rows, Run run) throws Exception {
+        for (int i = 0; i < WARMUP; i++)
+            run.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++)
+            run.run();
+        double ns = (double) (System.nanoTime() - start) / RUNS;
+        System.out.printf("%-20s %10.1f ms/op  %6.1f ns/row%n", name, ns / 1e6, ns / rows);
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Pipeline;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+
+public class PipelineTest extends TestUtil.InTransaction {
+
+    private HeapFile table;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, new ArrayList<>(), "c");
+    }
+
+    /**
+     * filter(c1 &lt; 70) over project(c2, c0, c1) over filter(c0 &gt;= 20 AND c0 != 50) over a scan
+     */
+    private OpIterator chain() {
+        OpIterator scan = new SeqScan(tid, table.getId(), "t");
+        OpIterator f = new Filter(Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20)),
+                new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(50))), scan);
+        OpIterator p = new Project(Arrays.asList(2, 0, 1),
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE}, f);
+        return new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(70)), p);
+    }
+
+    /**
+     * The fused loop produces the tuples of the operator chain.
+     */
+    @Test public void matchesChain() throws Exception {
+        Pipeline pipeline = Pipeline.compile(chain());
+        assertNotNull(pipeline);
+        assertEquals(chain().getTupleDesc(), pipeline.getTupleDesc());
+        List<List<Integer>> fused = new ArrayList<>();
+        pipeline.run(t -> fused.add(SystemTestUtil.tupleToList(t)));
+        assertEquals(SystemTestUtil.rows(chain()), fused);
+    }
+
+    /**
+     * Aggregates over a fused chain, serial or in parallel, equal those
+     * computed from the tuples of the interpreted chain.
+     */
+    @Test public void aggregates() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                    Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+                IntegerAggregator expected = new IntegerAggregator(1, Type.INT_TYPE, 0, op);
+                OpIterator c = chain();
+                c.open();
+                while (c.hasNext())
+                    expected.mergeTupleIntoGroup(c.next());
+                c.close();
+                List<List<Integer>> want = SystemTestUtil.rows(expected.iterator());
+                want.sort(PipelineTest::compare);
+
+                List<List<Integer>> serial = SystemTestUtil.rows(new Aggregate(chain(), 0, 1, op));
+                serial.sort(PipelineTest::compare);
+                assertEquals(op.toString(), want, serial);
+
+                Aggregate parallel = new Aggregate(chain(), 0, 1, op, pool);
+                List<List<Integer>> split = SystemTestUtil.rows(parallel);
+                split.sort(PipelineTest::compare);
+                assertEquals(op.toString(), want, split);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int compare(List<Integer> a, List<Integer> b) {
+        return Integer.compare(a.get(0), b.get(0));
+    }
+
+    /**
+     * Chains with other operators, or subclasses of Filter, are left to the
+     * iterators.
+     */
+    @Test public void notFused() {
+        OpIterator scan = new SeqScan(tid, table.getId(), "t");
+        Filter custom = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(1)), scan) {
+            private static final long serialVersionUID = 1L;
+
+            protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                return null;
+            }
+        };
+        assertNull(Pipeline.compile(custom));
+        assertNull(Pipeline.compile(new Aggregate(scan, 0, -1, Aggregator.Op.SUM)));
+        assertNotNull(Pipeline.compile(scan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PipelineTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateCompiler;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] INT_OPS = {Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.LIKE};
+
+    private static boolean all(List<Predicate> ps, Tuple t) {
+        for (Predicate p : ps)
+            if (!p.filter(t))
+                return false;
+        return true;
+    }
+
+    private static Tuple tuple(TupleDesc td, int a, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        return t;
+    }
+
+    /**
+     * Compiled conjunctions of INT predicates, including contradictory and
+     * boundary ones, match the same tuples as the predicates themselves.
+     */
+    @Test public void matchesPredicates() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        Random r = new Random(7);
+        int[] operands = {Integer.MIN_VALUE, -3, 0, 1, 5, Integer.MAX_VALUE};
+        for (int round = 0; round < 500; round++) {
+            List<Predicate> ps = new ArrayList<>();
+            int n = 1 + r.nextInt(4);
+            for (int i = 0; i < n; i++)
+                ps.add(new Predicate(r.nextInt(2), INT_OPS[r.nextInt(INT_OPS.length)],
+                        new IntField(operands[r.nextInt(operands.length)])));
+            PredicateCompiler.Matcher m = PredicateCompiler.compile(ps, td);
+            for (int a : new int[]{Integer.MIN_VALUE, -4, -3, 0, 1, 2, 5, 6, Integer.MAX_VALUE}) {
+                for (int b : new int[]{Integer.MIN_VALUE, -3, 1, 5, Integer.MAX_VALUE}) {
+                    Tuple t = tuple(td, a, b);
+                    assertEquals(ps + " on " + t, all(ps, t), m.matches(t));
+                }
+            }
+        }
+    }
+
+    /**
+     * STRING predicates are evaluated along with the INT ones.
+     */
+    @Test public void strings() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        List<Predicate> ps = Arrays.asList(
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("b", Type.STRING_LEN)),
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2)));
+        PredicateCompiler.Matcher m = PredicateCompiler.compile(ps, td);
+        for (String s : new String[]{"a", "b"}) {
+            for (int a = 0; a < 5; a++) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(a));
+                t.setField(1, new StringField(s, Type.STRING_LEN));
+                assertEquals(s.equals("b") && a > 2, m.matches(t));
+            }
+        }
+    }
+
+    /**
+     * A filter with several predicates returns the tuples satisfying all of
+     * them, and the planner puts all the predicates on a table in one.
+     */
+    @Test public void multiPredicateFilter() throws Exception {
+        List<Predicate> ps = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(-2)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3)),
+                new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(0)));
+        Filter f = new Filter(ps, new TestUtil.MockScan(-5, 5, 2));
+        f.open();
+        List<Integer> values = new ArrayList<>();
+        while (f.hasNext())
+            values.add(((IntField) f.next().getField(0)).getValue());
+        f.close();
+        assertEquals(Arrays.asList(-2, -1, 1, 2), values);
+        assertEquals(ps, f.getPredicates());
+
+        TransactionId tid = new TransactionId();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(table, "filtered");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("filtered", new TableStats(table.getId(), 1000));
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM filtered t WHERE t.c0 > 10 AND t.c0 < 60 AND t.c1 = 5;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        Filter filter = findFilter(plan);
+        assertEquals(3, filter.getPredicates().size());
+        assertFalse(filter.getChildren()[0] instanceof Filter);
+
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            int c0 = ((IntField) t.getField(0)).getValue();
+            assertTrue(c0 > 10 && c0 < 60 && ((IntField) t.getField(1)).getValue() == 5);
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Filter findFilter(OpIterator plan) {
+        if (plan instanceof Filter)
+            return (Filter) plan;
+        for (OpIterator child : ((Operator) plan).getChildren())
+            if (child instanceof Operator)
+                return findFilter(child);
+        return null;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateCompilerTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ProjectionPushdownTest extends TestUtil.InTransaction {
+
+    /**
+     * A scan with columns returns those fields of the table's tuples, in
+     * the given order.
+     */
+    @Test public void columns() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, 500, 100, null, new ArrayList<>(), "c");
+        SeqScan full = new SeqScan(tid, table.getId(), "t");
+        SeqScan narrow = new SeqScan(tid, table.getId(), "t");
+        narrow.setColumns(new int[]{3, 1});
+        assertArrayEquals(new int[]{3, 1}, narrow.getColumns());
+        TupleDesc td = narrow.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t.c3", td.getFieldName(0));
+        assertEquals("t.c1", td.getFieldName(1));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> row : SystemTestUtil.rows(full))
+            expected.add(Arrays.asList(row.get(3), row.get(1)));
+        assertEquals(expected, SystemTestUtil.rows(narrow));
+
+        narrow.setColumns(null);
+        assertNull(narrow.getColumns());
+        assertEquals(SystemTestUtil.rows(full), SystemTestUtil.rows(narrow));
+    }
+
+    /**
+     * A narrowed scan of a B+ tree is sorted on the key only if it returns it.
+     */
+    @Test public void sortedField() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(3, 100, null, null, 0);
+        SeqScan scan = new SeqScan(tid, bf.getId(), "b");
+        assertEquals(0, scan.sortedField());
+        scan.setColumns(new int[]{2, 0});
+        assertEquals(1, scan.sortedField());
+        scan.setColumns(new int[]{2});
+        assertEquals(-1, scan.sortedField());
+    }
+
+    /**
+     * The planner has each scan read only the fields the query uses, and
+     * the query returns the same result as without narrowing.
+     */
+    @Test public void planner() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(4, 300, 20, null, new ArrayList<>(), "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(4, 200, 20, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("a", new TableStats(a.getId(), 1000));
+        stats.put("b", new TableStats(b.getId(), 1000));
+
+        Parser parser = new Parser();
+        String where = " FROM a, b WHERE a.c0 = b.c0 AND a.c2 > 5;";
+        OpIterator plan = parser.generateLogicalPlan(tid, "SELECT SUM(b.c3)" + where)
+                .physicalPlan(tid, stats, false);
+        List<SeqScan> scans = new ArrayList<>();
+        findScans(plan, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan scan : scans) {
+            if (scan.getAlias().equals("a"))
+                assertArrayEquals(new int[]{0, 2}, scan.getColumns());
+            else
+                assertArrayEquals(new int[]{0, 3}, scan.getColumns());
+        }
+
+        OpIterator all = parser.generateLogicalPlan(tid, "SELECT *" + where).physicalPlan(tid, stats, false);
+        findScans(all, scans);
+        for (SeqScan scan : scans.subList(2, scans.size()))
+            assertNull(scan.getColumns());
+        int c3 = all.getTupleDesc().fieldNameToIndex("b.c3");
+        int sum = 0;
+        for (List<Integer> row : SystemTestUtil.rows(all))
+            sum += row.get(c3);
+        assertEquals(Collections.singletonList(Collections.singletonList(sum)), SystemTestUtil.rows(plan));
+    }
+
+    private static void findScans(OpIterator plan, List<SeqScan> scans) {
+        if (plan instanceof SeqScan)
+            scans.add((SeqScan) plan);
+        else if (plan instanceof Operator)
+            for (OpIterator child : ((Operator) plan).getChildren())
+                if (child != null)
+                    findScans(child, scans);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ProjectionPushdownTest.class);
+    }
+}
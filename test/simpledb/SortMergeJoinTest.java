@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.execution.Sortedness;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends TestUtil.InTransaction {
+
+    private HeapFile left;
+    private HeapFile right;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        left = SystemTestUtil.createRandomHeapFile(2, 300, 60, null, new ArrayList<>(), "c");
+        right = SystemTestUtil.createRandomHeapFile(2, 200, 60, null, new ArrayList<>(), "c");
+    }
+
+    private static final Comparator<List<Integer>> ROWS = (a, b) -> {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    };
+
+    /**
+     * Every supported operator returns the same rows as a nested loops join,
+     * in ascending order of the left join field.
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ}) {
+            JoinPredicate p = new JoinPredicate(1, op, 0);
+            List<List<Integer>> expected = SystemTestUtil.rows(new Join(p,
+                    new SeqScan(tid, left.getId(), "a"), new SeqScan(tid, right.getId(), "b")));
+            SortMergeJoin join = new SortMergeJoin(p,
+                    new SeqScan(tid, left.getId(), "a"), new SeqScan(tid, right.getId(), "b"));
+            List<List<Integer>> actual = SystemTestUtil.rows(join);
+            assertEquals(op.toString(), expected.size(), actual.size());
+            for (int i = 1; i < actual.size(); i++)
+                assertTrue(actual.get(i - 1).get(1) <= actual.get(i).get(1));
+            expected.sort(ROWS);
+            actual.sort(ROWS);
+            assertEquals(op.toString(), expected, actual);
+        }
+    }
+
+    /**
+     * Rewinding replays the join.
+     */
+    @Test public void rewind() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN}) {
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0),
+                    new SeqScan(tid, left.getId(), "a"), new SeqScan(tid, right.getId(), "b"));
+            join.open();
+            int n = 0;
+            while (join.hasNext()) {
+                join.next();
+                n++;
+            }
+            join.rewind();
+            int m = 0;
+            while (join.hasNext()) {
+                join.next();
+                m++;
+            }
+            join.close();
+            assertTrue(n > 0);
+            assertEquals(n, m);
+        }
+    }
+
+    /**
+     * Sorted inputs are recognized through filters and projections.
+     */
+    @Test public void sortOrder() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 500, 100, null, new ArrayList<>(), 1);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        SeqScan heapScan = new SeqScan(tid, left.getId(), "a");
+        assertEquals(-1, Sortedness.ascendingField(heapScan));
+        assertEquals(1, Sortedness.ascendingField(new SeqScan(tid, bf.getId(), "t")));
+        assertEquals(1, Sortedness.ascendingField(new BTreeScan(tid, bf.getId(), "t", null)));
+        assertEquals(0, Sortedness.ascendingField(new OrderBy(0, true, heapScan)));
+        assertEquals(-1, Sortedness.ascendingField(new OrderBy(0, false, heapScan)));
+
+        SeqScan sorted = new SeqScan(tid, bf.getId(), "t");
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5)), sorted);
+        assertEquals(1, Sortedness.ascendingField(filter));
+        List<Integer> fields = new ArrayList<>();
+        fields.add(1);
+        assertEquals(0, Sortedness.ascendingField(new Project(fields, new Type[]{Type.INT_TYPE}, filter)));
+        List<Integer> other = new ArrayList<>();
+        other.add(0);
+        assertEquals(-1, Sortedness.ascendingField(new Project(other, new Type[]{Type.INT_TYPE}, filter)));
+
+        // joining on the key of a B+ tree merges its scan without sorting
+        List<List<Integer>> expected = SystemTestUtil.rows(new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, bf.getId(), "t"), new SeqScan(tid, right.getId(), "b")));
+        SystemTestUtil.matchTuples(new SortMergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, bf.getId(), "t"), new OrderBy(0, true, new SeqScan(tid, right.getId(), "b"))),
+                expected);
+    }
+
+    /**
+     * The optimizer uses sort-merge joins for inequalities, and for
+     * equalities between sorted inputs.
+     */
+    @Test public void instantiateJoin() throws Exception {
+        OpIterator j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "c0", "c1",
+                Predicate.Op.GREATER_THAN), new SeqScan(tid, left.getId(), "a"), new SeqScan(tid, right.getId(), "b"));
+        assertTrue(j instanceof SortMergeJoin);
+        j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "c0", "c1",
+                Predicate.Op.EQUALS), new SeqScan(tid, left.getId(), "a"), new SeqScan(tid, right.getId(), "b"));
+        assertTrue(j instanceof HashEquiJoin);
+        j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "c0", "c1",
+                Predicate.Op.EQUALS), new OrderBy(0, true, new SeqScan(tid, left.getId(), "a")),
+                new OrderBy(1, true, new SeqScan(tid, right.getId(), "b")));
+        assertTrue(j instanceof SortMergeJoin);
+        j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "c0", "c1",
+                Predicate.Op.NOT_EQUALS), new SeqScan(tid, left.getId(), "a"), new SeqScan(tid, right.getId(), "b"));
+        assertTrue(j instanceof BlockNestedLoopJoin);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortedAggregate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortedAggregateTest extends TestUtil.InTransaction {
+
+    private HeapFile table;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 2000, 50, null, new ArrayList<>(), "c");
+    }
+
+    private OpIterator sorted() {
+        return new OrderBy(0, true, new SeqScan(tid, table.getId(), "t"));
+    }
+
+    /**
+     * Returns the groups of a hash aggregate, in group order.
+     */
+    @Test public void matchesAggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            List<List<Integer>> expected = SystemTestUtil.rows(new OrderBy(0, true, new Aggregate(sorted(), 1, 0, op)));
+            SortedAggregate agg = new SortedAggregate(sorted(), 1, 0, op);
+            assertEquals(new Aggregate(sorted(), 1, 0, op).getTupleDesc(), agg.getTupleDesc());
+            assertEquals(op.toString(), expected, SystemTestUtil.rows(agg));
+        }
+    }
+
+    /**
+     * Rewinding reads the child again; an empty child has no groups.
+     */
+    @Test public void rewind() throws Exception {
+        SortedAggregate agg = new SortedAggregate(sorted(), 1, 0, Aggregator.Op.SUM);
+        List<List<Integer>> expected = SystemTestUtil.rows(agg);
+        agg.open();
+        agg.next();
+        agg.rewind();
+        List<List<Integer>> again = new ArrayList<>();
+        while (agg.hasNext())
+            again.add(SystemTestUtil.tupleToList(agg.next()));
+        agg.close();
+        assertEquals(expected, again);
+
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        assertEquals(0, SystemTestUtil.rows(new SortedAggregate(new SeqScan(tid, empty.getId()), 1, 0, Aggregator.Op.COUNT)).size());
+    }
+
+    /**
+     * The planner streams the groups of an input sorted on the group-by
+     * field, and does not sort input that is already in ORDER BY order.
+     */
+    @Test public void planner() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, 50, null, new ArrayList<>(), 0);
+        BTreeFile index = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(index, "grouped");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("grouped", new TableStats(index.getId(), 1000));
+
+        Parser parser = new Parser();
+        LogicalPlan lp = parser.generateLogicalPlan(tid,
+                "SELECT g.c0, SUM(g.c1) FROM grouped g GROUP BY g.c0;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, SortedAggregate.class));
+        assertEquals(SystemTestUtil.rows(new OrderBy(0, true, new Aggregate(new SeqScan(tid, index.getId(), "g"), 1, 0,
+                Aggregator.Op.SUM))), SystemTestUtil.rows(plan));
+
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM grouped g ORDER BY g.c0;");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(!contains(plan, OrderBy.class));
+        assertEquals(SystemTestUtil.rows(new OrderBy(0, true, new SeqScan(tid, index.getId(), "g"))), SystemTestUtil.rows(plan));
+
+        // unsorted input is aggregated by hashing
+        Database.getCatalog().addTable(table, "loose");
+        stats.put("loose", new TableStats(table.getId(), 1000));
+        lp = parser.generateLogicalPlan(tid, "SELECT l.c0, SUM(l.c1) FROM loose l GROUP BY l.c0;");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, Aggregate.class));
+        assertTrue(!contains(plan, SortedAggregate.class));
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren())
+            if (child != null && contains(child, c))
+                return true;
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortedAggregateTest.class);
+    }
+}
@@ -3,12 +3,16 @@ package simpledb;
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
 
+import org.junit.After;
+import org.junit.Before;
+
 import static org.junit.Assert.*;
 
 public class TestUtil {
@@ -392,4 +396,21 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * JUnit fixture that resets the database and runs each test in a
+     * transaction, completed afterward.
+     */
+    public static abstract class InTransaction extends SimpleDbTestBase {
+        protected TransactionId tid;
+
+        @Before @Override public void setUp() throws Exception {
+            super.setUp();
+            tid = new TransactionId();
+        }
+
+        @After public void tearDown() throws Exception {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
 }
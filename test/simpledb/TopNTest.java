@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends TestUtil.InTransaction {
+
+    private HeapFile table;
+
+    @Before @Override public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 500, 40, null, new ArrayList<>(), "c");
+    }
+
+    private SeqScan scan() {
+        return new SeqScan(tid, table.getId(), "t");
+    }
+
+    /**
+     * Returns the first n tuples of the full sort, ties in input order.
+     */
+    @Test public void prefixOfOrderBy() throws Exception {
+        int[] fields = {1, 0};
+        boolean[] asc = {false, true};
+        List<List<Integer>> sorted = SystemTestUtil.rows(new OrderBy(fields, asc, scan()));
+        for (int n : new int[]{0, 1, 7, 100, 500, 800}) {
+            List<List<Integer>> top = SystemTestUtil.rows(new TopN(fields, asc, n, scan()));
+            assertEquals(sorted.subList(0, Math.min(n, sorted.size())), top);
+        }
+        // ties on a single field keep their input order
+        List<List<Integer>> byC0 = SystemTestUtil.rows(new OrderBy(0, true, scan()));
+        assertEquals(byC0.subList(0, 50), SystemTestUtil.rows(new TopN(new int[]{0}, new boolean[]{true}, 50, scan())));
+    }
+
+    /**
+     * Rewinding replays the kept tuples without rereading the child.
+     */
+    @Test public void rewind() throws Exception {
+        TopN top = new TopN(new int[]{0}, new boolean[]{true}, 10, scan());
+        top.open();
+        List<List<Integer>> first = new ArrayList<>();
+        while (top.hasNext())
+            first.add(SystemTestUtil.tupleToList(top.next()));
+        top.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (top.hasNext())
+            second.add(SystemTestUtil.tupleToList(top.next()));
+        top.close();
+        assertEquals(10, first.size());
+        assertEquals(first, second);
+    }
+
+    /**
+     * Limit returns the first n tuples of its child.
+     */
+    @Test public void limit() throws Exception {
+        List<List<Integer>> all = SystemTestUtil.rows(scan());
+        assertEquals(all.subList(0, 25), SystemTestUtil.rows(new Limit(25, scan())));
+        assertEquals(0, SystemTestUtil.rows(new Limit(0, scan())).size());
+        assertEquals(all, SystemTestUtil.rows(new Limit(1000, scan())));
+    }
+
+    /**
+     * LIMIT is parsed and becomes a TopN under ORDER BY and a Limit otherwise.
+     */
+    @Test public void parseLimit() throws Exception {
+        Parser parser = new Parser();
+        assertEquals("SELECT * FROM t ORDER BY t.c0;", parser.stripLimit("SELECT * FROM t ORDER BY t.c0 limit 10;"));
+        assertEquals("SELECT * FROM t", parser.stripLimit("SELECT * FROM t LIMIT 3"));
+        assertEquals("SELECT * FROM t;", parser.stripLimit("SELECT * FROM t;"));
+
+        Database.getCatalog().addTable(table, "scores");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("scores", new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = parser.generateLogicalPlan(tid,
+                "SELECT * FROM scores s ORDER BY s.c1 DESC, s.c0 LIMIT 7;");
+        assertEquals(7, lp.getLimit());
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan.getClass().getSimpleName(), containsOperator(plan, TopN.class));
+        assertEquals(SystemTestUtil.rows(new TopN(new int[]{1, 0}, new boolean[]{false, true}, 7, scan())), SystemTestUtil.rows(plan));
+
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM scores s LIMIT 4;");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(containsOperator(plan, Limit.class));
+        assertEquals(4, SystemTestUtil.rows(plan).size());
+
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM scores s;");
+        assertEquals(-1, lp.getLimit());
+    }
+
+    private static boolean containsOperator(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (OpIterator child : ((Operator) plan).getChildren())
+            if (child != null && containsOperator(child, c))
+                return true;
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
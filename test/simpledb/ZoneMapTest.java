@@ -0,0 +1,218 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.ZoneMap;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private List<List<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Creates a two-column table whose first column increases with position,
+     * like a timestamp, and reads it once so the zone map is populated.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(i % 10);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("zoneTable", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sideFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, f);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    private int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static List<Predicate> preds(Predicate.Op op, int v) {
+        return Collections.singletonList(new Predicate(0, op, new IntField(v)));
+    }
+
+    /**
+     * Unit test for ZoneMap.mightMatch on every comparison operator.
+     */
+    @Test public void mightMatch() {
+        ZoneMap zm = hf.getZoneMap();
+        int last = hf.numPages() - 1;
+        for (int p = 0; p <= last; p++)
+            assertTrue(zm.isKnown(p));
+        assertTrue(zm.mightMatch(0, preds(Predicate.Op.EQUALS, 0)));
+        assertFalse(zm.mightMatch(last, preds(Predicate.Op.EQUALS, 0)));
+        assertFalse(zm.mightMatch(0, preds(Predicate.Op.GREATER_THAN, ROWS - 1)));
+        assertTrue(zm.mightMatch(last, preds(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 1)));
+        assertFalse(zm.mightMatch(last, preds(Predicate.Op.LESS_THAN, 0)));
+        assertTrue(zm.mightMatch(0, preds(Predicate.Op.LESS_THAN_OR_EQ, 0)));
+        assertTrue(zm.mightMatch(last, preds(Predicate.Op.NOT_EQUALS, 0)));
+    }
+
+    /**
+     * A selective range predicate reads only the pages that can match.
+     */
+    @Test public void skipsPages() throws Exception {
+        int total = count(hf.iterator(tid, preds(Predicate.Op.GREATER_THAN, -1)));
+        assertEquals(ROWS, total);
+        int tail = count(hf.iterator(tid, preds(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10)));
+        assertTrue(tail >= 10);
+        assertTrue(tail < ROWS / 2);
+        assertEquals(0, count(hf.iterator(tid, preds(Predicate.Op.LESS_THAN, 0))));
+    }
+
+    /**
+     * A filtered scan returns exactly the matching tuples.
+     */
+    @Test public void filteredScan() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.addPageFilter(p);
+        SystemTestUtil.matchTuples(new Filter(p, scan), tuples.subList(0, 100));
+    }
+
+    /**
+     * A filtered scan locks the pages it skips, so that a matching tuple
+     * cannot be inserted into one of them before the scan completes.
+     */
+    @Test public void locksSkippedPages() throws Exception {
+        TransactionId reader = new TransactionId();
+        assertEquals(0, count(hf.iterator(reader, preds(Predicate.Op.LESS_THAN, 0))));
+        for (int p = 0; p < hf.numPages(); p++)
+            assertTrue(Database.getBufferPool().holdsLock(reader, new HeapPageId(hf.getId(), p)));
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /**
+     * Inserted values widen the summary of their page; a delete forgets it.
+     */
+    @Test public void maintenance() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[]{-5, 0});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        int pageNo = t.getRecordId().getPageId().getPageNumber();
+        ZoneMap zm = hf.getZoneMap();
+        assertTrue(zm.mightMatch(pageNo, preds(Predicate.Op.EQUALS, -5)));
+        assertEquals(1, count(new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(-5)),
+                new SeqScan(tid, hf.getId(), "t"))));
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertFalse(zm.isKnown(pageNo));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(zm.isKnown(pageNo));
+        assertFalse(zm.mightMatch(pageNo, preds(Predicate.Op.EQUALS, -5)));
+    }
+
+    /**
+     * Summaries survive reopening the file: those the encoder wrote, and
+     * those of written pages. A side file of another version of the data
+     * file is discarded.
+     */
+    @Test public void persisted() throws Exception {
+        File f = hf.getFile();
+        ZoneMap zm = new HeapFile(f, hf.getTupleDesc()).getZoneMap();
+        int last = hf.numPages() - 1;
+        for (int p = 0; p <= last; p++)
+            assertTrue(zm.isKnown(p));
+        assertFalse(zm.mightMatch(last, preds(Predicate.Op.EQUALS, 0)));
+
+        Tuple t = Utility.getHeapTuple(new int[]{-5, 0});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        int pageNo = t.getRecordId().getPageId().getPageNumber();
+        zm = new HeapFile(f, hf.getTupleDesc()).getZoneMap();
+        assertTrue(zm.mightMatch(pageNo, preds(Predicate.Op.EQUALS, -5)));
+        assertFalse(zm.mightMatch(0, preds(Predicate.Op.GREATER_THAN, ROWS - 1)));
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(f.length() + BufferPool.getPageSize());
+        }
+        zm = new HeapFile(f, hf.getTupleDesc()).getZoneMap();
+        assertFalse(zm.isKnown(0));
+        assertFalse(ZoneMap.sideFile(f).exists());
+    }
+
+    /**
+     * Summaries built while reading are kept in memory; only written pages
+     * write the side file.
+     */
+    @Test public void readsDoNotWrite() throws Exception {
+        File f = hf.getFile();
+        assertTrue(ZoneMap.sideFile(f).delete());
+        HeapFile reopened = Utility.openHeapFile(2, f);
+        Tuple t = Utility.getHeapTuple(new int[]{-5, 0});
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        int pageNo = t.getRecordId().getPageId().getPageNumber();
+        int other = pageNo == 0 ? 1 : 0;
+
+        reopened = Utility.openHeapFile(2, f);
+        TransactionId reader = new TransactionId();
+        assertEquals(ROWS + 1, count(reopened.iterator(reader)));
+        Database.getBufferPool().transactionComplete(reader);
+        assertTrue(reopened.getZoneMap().isKnown(other));
+        ZoneMap zm = new HeapFile(f, hf.getTupleDesc()).getZoneMap();
+        assertTrue(zm.isKnown(pageNo));
+        assertFalse(zm.isKnown(other));
+    }
+
+    private int count(Filter f) throws Exception {
+        int n = 0;
+        f.open();
+        while (f.hasNext()) {
+            f.next();
+            n++;
+        }
+        f.close();
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -1,11 +1,16 @@
 package simpledb.systemtest;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
@@ -121,6 +126,58 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * An aggregate over a scan read in parallel page ranges gives the same
+     * results as a serial one.
+     */
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20 * ROWS, MAX_VALUE, null, createdTuples);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (Aggregator.Op operation : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN,
+                    Aggregator.Op.MAX, Aggregator.Op.COUNT, Aggregator.Op.AVG}) {
+                for (int groupColumn : new int[]{0, Aggregator.NO_GROUPING}) {
+                    TransactionId tid = new TransactionId();
+                    Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""),
+                            1, groupColumn, operation, pool);
+                    SystemTestUtil.matchTuples(ag, aggregate(createdTuples, operation, groupColumn));
+                    assertTrue(ag.partialAggregates() > 1);
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A parallel AVG whose partial sums do not fit an INT gives the same
+     * results as a serial one.
+     */
+    @Test public void testParallelLargeAverage() throws IOException, DbException, TransactionAbortedException {
+        Map<Integer, Integer> groups = new HashMap<>();
+        groups.put(0, 1);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20 * ROWS, Integer.MAX_VALUE, groups, new ArrayList<>());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int groupColumn : new int[]{0, Aggregator.NO_GROUPING}) {
+                TransactionId tid = new TransactionId();
+                List<List<Integer>> expected = SystemTestUtil.rows(new Aggregate(
+                        new SeqScan(tid, table.getId(), ""), 1, groupColumn, Aggregator.Op.AVG));
+                Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""),
+                        1, groupColumn, Aggregator.Op.AVG, pool);
+                assertEquals(expected, SystemTestUtil.rows(ag));
+                assertTrue(ag.partialAggregates() > 1);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -86,6 +86,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        ZoneMap.sideFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
@@ -99,6 +100,28 @@ public class SystemTestUtil {
         return list;
     }
 
+    /**
+     * Opens an iterator, reads all of its tuples in order, and closes it.
+     */
+    public static List<List<Integer>> rows(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        List<List<Integer>> rows = readRows(it);
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Reads the remaining tuples of an open iterator in order.
+     */
+    public static List<List<Integer>> readRows(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        while (it.hasNext())
+            rows.add(tupleToList(it.next()));
+        return rows;
+    }
+
     public static void matchTuples(DbFile f, List<List<Integer>> tuples)
             throws DbException, TransactionAbortedException {
         TransactionId tid = new TransactionId();